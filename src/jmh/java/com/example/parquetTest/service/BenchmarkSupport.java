@@ -0,0 +1,72 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.DuckDBConfig;
+import com.example.parquetTest.config.IncrementalConfig;
+import com.example.parquetTest.config.PipelineConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Wires the pipeline services the way Spring does, outside of an application context, on an
+ * in-memory DuckDB so the benchmarks measure the stage and not the database file.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static DuckDBService duckDB(int poolSize, int threads) throws SQLException {
+        DuckDBConfig config = DuckDBTestSupport.inMemoryConfig(poolSize);
+        ReflectionTestUtils.setField(config, "threads", threads);
+        ReflectionTestUtils.setField(config, "poolTimeoutMs", 600_000L);
+        return DuckDBTestSupport.inMemoryService(config);
+    }
+
+    static ExtractionService extractionService(Path scratchDir, ThreadPoolExecutor extractionExecutor) {
+        ExtractionService extractionService = new ExtractionService();
+        ReflectionTestUtils.setField(extractionService, "appConfig", appConfig(scratchDir));
+        ReflectionTestUtils.setField(extractionService, "extractionExecutor", extractionExecutor);
+        return extractionService;
+    }
+
+    static FilterService filterService(DuckDBService duckDBService, ThreadPoolExecutor folderExecutor, int threads) {
+        FolderScheduler folderScheduler = new FolderScheduler();
+        DuckDBConfig config = DuckDBTestSupport.inMemoryConfig(folderExecutor.getMaximumPoolSize());
+        ReflectionTestUtils.setField(config, "threads", threads);
+        ReflectionTestUtils.setField(folderScheduler, "folderExecutor", folderExecutor);
+        ReflectionTestUtils.setField(folderScheduler, "duckDBService", duckDBService);
+        ReflectionTestUtils.setField(folderScheduler, "resourceGovernor", DuckDBTestSupport.governor(config));
+
+        FilterService filterService = new FilterService();
+        ReflectionTestUtils.setField(filterService, "folderScheduler", folderScheduler);
+        ReflectionTestUtils.setField(filterService, "incrementalConfig", new IncrementalConfig());
+        ReflectionTestUtils.setField(filterService, "pipelineMetrics", new PipelineMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(filterService, "outputConfig", DuckDBTestSupport.outputConfig("json", ""));
+        ReflectionTestUtils.setField(filterService, "parquetFooterIndex", new ParquetFooterIndex());
+        ReflectionTestUtils.setField(filterService, "projectionConfig", DuckDBTestSupport.projectionConfig("", "", "", ""));
+        ReflectionTestUtils.setField(filterService, "filterRuleConfig", DuckDBTestSupport.filterRuleConfig("", "", ""));
+        ReflectionTestUtils.setField(filterService, "duckDBService", duckDBService);
+        return filterService;
+    }
+
+    static ZipPackager zipPackager(Path scratchDir, int parallelism, int compressionLevel) {
+        PipelineConfig pipelineConfig = new PipelineConfig();
+        ReflectionTestUtils.setField(pipelineConfig, "packageParallelism", parallelism);
+        ReflectionTestUtils.setField(pipelineConfig, "packageCompressionLevel", compressionLevel);
+        ZipPackager zipPackager = new ZipPackager();
+        ReflectionTestUtils.setField(zipPackager, "pipelineConfig", pipelineConfig);
+        ReflectionTestUtils.setField(zipPackager, "appConfig", appConfig(scratchDir));
+        return zipPackager;
+    }
+
+    private static AppConfig appConfig(Path scratchDir) {
+        AppConfig appConfig = new AppConfig();
+        ReflectionTestUtils.setField(appConfig, "scratchDir", scratchDir.toString());
+        return appConfig;
+    }
+}
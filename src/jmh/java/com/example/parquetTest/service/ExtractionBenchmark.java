@@ -0,0 +1,81 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.PipelineConfig;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unzipping a snapshot, into memory as extractParquetFromZip did and into the scratch directory
+ * with one or several entries inflating at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractionBenchmark {
+
+    @Param({"10", "50"})
+    public int fileCount;
+
+    @Param({"10000", "100000"})
+    public int rowsPerFile;
+
+    // Entries inflated at once by extractParquetToDirectory
+    @Param({"1", "4"})
+    public int extractThreads;
+
+    private Path workDir;
+    private File zipFile;
+    private ExtractionService extractionService;
+    private ThreadPoolExecutor extractionExecutor;
+    private Path scratchDir;
+
+    @Setup(Level.Trial)
+    public void createSnapshot() throws IOException {
+        workDir = Files.createTempDirectory("bench_extract_");
+        Map<String, List<ExtractionService.ExtractedFile>> files =
+                SyntheticParquet.writeSnapshot(workDir.resolve("source"), fileCount, rowsPerFile, LocalDate.now());
+        zipFile = workDir.resolve("snapshot.zip").toFile();
+        SyntheticParquet.zipSnapshot(files, zipFile.toPath());
+        extractionExecutor = PipelineConfig.newFixedPool("bench-extract-", extractThreads);
+        extractionService = BenchmarkSupport.extractionService(workDir, extractionExecutor);
+    }
+
+    @Setup(Level.Invocation)
+    public void createScratch() throws IOException {
+        scratchDir = extractionService.createScratchDirectory();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteScratch() {
+        FileUtils.deleteQuietly(scratchDir.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSnapshot() {
+        extractionExecutor.shutdownNow();
+        FileUtils.deleteQuietly(workDir.toFile());
+    }
+
+    @Benchmark
+    public Map<String, List<byte[]>> extractParquetFromZip() throws IOException {
+        return extractionService.extractParquetFromZip(zipFile);
+    }
+
+    @Benchmark
+    public Map<String, List<ExtractionService.ExtractedFile>> extractParquetToDirectory() throws IOException {
+        return extractionService.extractParquetToDirectory(zipFile, scratchDir, new JobContext(LocalDate.now()));
+    }
+}
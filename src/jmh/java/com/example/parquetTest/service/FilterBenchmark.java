@@ -0,0 +1,66 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.PipelineConfig;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The delta filter stage: one day out of the 30 in the snapshot, for both folders concurrently.
+ * The JSON output lands in Json_filtered of the working directory, as in the service.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+
+    @Param({"10", "50"})
+    public int fileCount;
+
+    @Param({"10000", "100000"})
+    public int rowsPerFile;
+
+    @Param({"4"})
+    public int threads;
+
+    private final LocalDate snapshotDate = LocalDate.now();
+    private Path workDir;
+    private Map<String, List<ExtractionService.ExtractedFile>> files;
+    private DuckDBService duckDBService;
+    private ThreadPoolExecutor folderExecutor;
+    private FilterService filterService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("bench_filter_");
+        files = SyntheticParquet.writeSnapshot(workDir, fileCount, rowsPerFile, snapshotDate);
+        duckDBService = BenchmarkSupport.duckDB(2, threads);
+        folderExecutor = PipelineConfig.newFixedPool("bench-folder-", 2);
+        filterService = BenchmarkSupport.filterService(duckDBService, folderExecutor, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        folderExecutor.shutdownNow();
+        duckDBService.close();
+        FileUtils.deleteQuietly(workDir.toFile());
+        FileUtils.deleteQuietly(new File("Json_filtered"));
+    }
+
+    @Benchmark
+    public Map<String, ProcessService.FilterResult> filterParquetFiles() throws InterruptedException {
+        return filterService.filterParquetFiles(files, new JobContext(snapshotDate), file -> { });
+    }
+}
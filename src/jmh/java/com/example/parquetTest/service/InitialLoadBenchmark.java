@@ -0,0 +1,78 @@
+package com.example.parquetTest.service;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The InitialLoadService export of one asset folder: a single union-by-name scan over all of
+ * its files, for folder sizes the former UNION ALL and temp table paths split between them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InitialLoadBenchmark {
+
+    @Param({"5", "10", "50"})
+    public int fileCount;
+
+    @Param({"10000", "100000"})
+    public int rowsPerFile;
+
+    @Param({"4"})
+    public int threads;
+
+    private final LocalDate snapshotDate = LocalDate.now();
+    private Path workDir;
+    private List<String> parquetPaths;
+    private String jsonFilePath;
+    private DuckDBService duckDBService;
+    private Connection conn;
+    private InitialLoadService initialLoadService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("bench_initial_");
+        parquetPaths = new ArrayList<>();
+        for (File file : SyntheticParquet.toFiles(
+                SyntheticParquet.writeSnapshot(workDir, fileCount, rowsPerFile, snapshotDate).get("asset"))) {
+            parquetPaths.add(file.getAbsolutePath());
+        }
+        jsonFilePath = workDir.resolve("asset.json").toString();
+        duckDBService = BenchmarkSupport.duckDB(1, threads);
+        conn = duckDBService.getConnection();
+        initialLoadService = new InitialLoadService();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteOutput() {
+        new File(jsonFilePath).delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        conn.close();
+        duckDBService.close();
+        FileUtils.deleteQuietly(workDir.toFile());
+    }
+
+    @Benchmark
+    public int unionByNameScan() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            return initialLoadService.exportFolder(stmt, parquetPaths, "*", jsonFilePath, OutputFormat.JSON);
+        }
+    }
+}
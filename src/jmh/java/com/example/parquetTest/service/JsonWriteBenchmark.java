@@ -0,0 +1,75 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.utils.DuckDBUtil;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the output on its own: the rows are loaded into a table up front, so only the
+ * serialization, compression and file write of COPY in each output format are measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonWriteBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    @Param({"json", "ndjson", "ndjson-gzip", "ndjson-zstd", "parquet"})
+    public String format;
+
+    @Param({"4"})
+    public int threads;
+
+    private Path workDir;
+    private String jsonFilePath;
+    private OutputFormat outputFormat;
+    private DuckDBService duckDBService;
+    private Connection conn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("bench_json_");
+        List<String> paths = new ArrayList<>();
+        for (ExtractionService.ExtractedFile file : SyntheticParquet.writeSnapshot(
+                workDir, 10, rows / 10, LocalDate.now()).get("asset")) {
+            paths.add(file.path.toString());
+        }
+        outputFormat = OutputFormat.fromName(format);
+        jsonFilePath = workDir.resolve("asset." + outputFormat.getExtension()).toString();
+        duckDBService = BenchmarkSupport.duckDB(1, threads);
+        conn = duckDBService.getConnection();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE asset AS SELECT * FROM read_parquet(" + DuckDBUtil.toListLiteral(paths) + ")");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        conn.close();
+        duckDBService.close();
+        FileUtils.deleteQuietly(workDir.toFile());
+    }
+
+    @Benchmark
+    public int writeJson() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            return stmt.executeUpdate("COPY asset TO " + DuckDBUtil.quoteLiteral(jsonFilePath) +
+                    " (" + outputFormat.getCopyOptions() + ")");
+        }
+    }
+}
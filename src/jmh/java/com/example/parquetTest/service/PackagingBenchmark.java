@@ -0,0 +1,88 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.utils.DuckDBUtil;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packaging the JSON output of a run into the result ZIP with ZipPackager, by packaging
+ * threads and deflate level.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PackagingBenchmark {
+
+    // Output files, one per folder in the pipeline
+    @Param({"2", "8"})
+    public int fileCount;
+
+    @Param({"100000"})
+    public int rowsPerFile;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"1", "6"})
+    public int compressionLevel;
+
+    private Path workDir;
+    private List<File> jsonFiles;
+    private ZipPackager zipPackager;
+    private File zipFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("bench_package_");
+        List<ExtractionService.ExtractedFile> parquetFiles =
+                SyntheticParquet.writeSnapshot(workDir.resolve("source"), fileCount, rowsPerFile, LocalDate.now()).get("asset");
+
+        // JSON files as the filter stage writes them
+        jsonFiles = new ArrayList<>();
+        DuckDBService duckDBService = BenchmarkSupport.duckDB(1, 4);
+        try (Connection conn = duckDBService.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (int i = 0; i < parquetFiles.size(); i++) {
+                File jsonFile = workDir.resolve("folder" + i + ".json").toFile();
+                stmt.execute("COPY (SELECT * FROM read_parquet(" + DuckDBUtil.quoteLiteral(parquetFiles.get(i).path.toString()) +
+                        ")) TO " + DuckDBUtil.quoteLiteral(jsonFile.getPath()) + " (" + OutputFormat.JSON.getCopyOptions() + ")");
+                jsonFiles.add(jsonFile);
+            }
+        } finally {
+            duckDBService.close();
+        }
+        zipPackager = BenchmarkSupport.zipPackager(workDir, parallelism, compressionLevel);
+        zipFile = workDir.resolve("output.zip").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(workDir.toFile());
+    }
+
+    @Benchmark
+    public long packageOutput() throws IOException {
+        JobContext.StageProgress progress = new JobContext.StageProgress(JobContext.PACKAGE);
+        try (ZipPackager.Archive archive = zipPackager.open(zipFile, progress)) {
+            for (File jsonFile : jsonFiles) {
+                archive.add(jsonFile);
+            }
+            archive.finish();
+        }
+        return progress.getBytes();
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.parquetTest.service;
+
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.conf.PlainParquetConfiguration;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.LocalOutputFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates Collibra-like snapshots for the benchmarks: an asset folder dated by edited_date
+ * and a view_events folder dated by event_time, with the rows spread over the 30 days up to
+ * the snapshot date so a delta day selects roughly a thirtieth of them.
+ */
+final class SyntheticParquet {
+
+    static final int DAYS = 30;
+
+    private static final String[] STATUSES = {"Accepted", "Candidate", "Obsolete", "Under Review"};
+
+    private static final Schema ASSET = SchemaBuilder.record("asset").fields()
+            .requiredLong("id")
+            .requiredString("name")
+            .requiredString("type")
+            .requiredString("status")
+            .name("edited_date").type(timestampMillis()).noDefault()
+            .endRecord();
+
+    private static final Schema VIEW_EVENTS = SchemaBuilder.record("view_events").fields()
+            .requiredLong("id")
+            .requiredLong("asset_id")
+            .requiredString("user_id")
+            .name("event_time").type(timestampMillis()).noDefault()
+            .endRecord();
+
+    private SyntheticParquet() {
+    }
+
+    /**
+     * Writes fileCount files of rowsPerFile rows for both folders below dir, one sub-directory per folder.
+     */
+    static Map<String, List<ExtractionService.ExtractedFile>> writeSnapshot(Path dir, int fileCount, int rowsPerFile,
+                                                                           LocalDate snapshotDate) throws IOException {
+        Map<String, List<ExtractionService.ExtractedFile>> files = new HashMap<>();
+        Random random = new Random(42);
+        for (Schema schema : Arrays.asList(ASSET, VIEW_EVENTS)) {
+            String folder = schema.getName();
+            Path folderDir = Files.createDirectories(dir.resolve(folder));
+            for (int i = 0; i < fileCount; i++) {
+                Path file = folderDir.resolve("part-" + i + ".parquet");
+                writeFile(file, schema, (long) i * rowsPerFile, rowsPerFile, snapshotDate, random);
+                files.computeIfAbsent(folder, k -> new ArrayList<>())
+                        .add(new ExtractionService.ExtractedFile(file, folder, Files.size(file), 0L));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Packs the snapshot into a ZIP laid out like a Collibra download, folder/part-N.parquet.
+     */
+    static void zipSnapshot(Map<String, List<ExtractionService.ExtractedFile>> files, Path zipFile) throws IOException {
+        try (ZipOutputStream zipOut = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            for (List<ExtractionService.ExtractedFile> folderFiles : files.values()) {
+                for (ExtractionService.ExtractedFile file : folderFiles) {
+                    zipOut.putNextEntry(new ZipEntry(file.folder + "/" + file.getFileName()));
+                    Files.copy(file.path, zipOut);
+                    zipOut.closeEntry();
+                }
+            }
+        }
+    }
+
+    static List<File> toFiles(List<ExtractionService.ExtractedFile> files) {
+        List<File> result = new ArrayList<>();
+        for (ExtractionService.ExtractedFile file : files) {
+            result.add(file.path.toFile());
+        }
+        return result;
+    }
+
+    private static void writeFile(Path file, Schema schema, long firstId, int rows, LocalDate snapshotDate,
+                                  Random random) throws IOException {
+        long end = snapshotDate.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+        long span = DAYS * 24L * 60 * 60 * 1000;
+        Files.deleteIfExists(file);
+        try (ParquetWriter<GenericRecord> writer = AvroParquetWriter.<GenericRecord>builder(new LocalOutputFile(file))
+                .withSchema(schema)
+                .withConf(new PlainParquetConfiguration())
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .build()) {
+            for (int i = 0; i < rows; i++) {
+                long id = firstId + i;
+                long timestamp = end - 1 - (long) (random.nextDouble() * span);
+                GenericRecord record = new GenericData.Record(schema);
+                record.put("id", id);
+                if (schema == ASSET) {
+                    record.put("name", "Asset " + id);
+                    record.put("type", random.nextBoolean() ? "Table" : "Column");
+                    record.put("status", STATUSES[random.nextInt(STATUSES.length)]);
+                    record.put("edited_date", timestamp);
+                } else {
+                    record.put("asset_id", (long) random.nextInt(1_000_000));
+                    record.put("user_id", "user-" + random.nextInt(5_000));
+                    record.put("event_time", timestamp);
+                }
+                writer.write(record);
+            }
+        }
+    }
+
+    private static Schema timestampMillis() {
+        return LogicalTypes.timestampMillis().addToSchema(Schema.create(Schema.Type.LONG));
+    }
+}
@@ -24,6 +24,18 @@ public class AppConfig {
     @Value("${app.username}")
     private String username;
 
+    @Value("${app.scratch.dir:${java.io.tmpdir}}")
+    private String scratchDir;
+
+    @Value("${app.download.chunk-size:16777216}")
+    private long downloadChunkSize;
+
+    @Value("${app.download.max-retries:5}")
+    private int downloadMaxRetries;
+
+    @Value("${app.download.retry-backoff-ms:1000}")
+    private long downloadRetryBackoffMs;
+
     public String getPassword() {
         return password;
     }
@@ -52,6 +64,22 @@ public class AppConfig {
         return username;
     }
 
+    public String getScratchDir() {
+        return scratchDir;
+    }
+
+    public long getDownloadChunkSize() {
+        return downloadChunkSize;
+    }
+
+    public int getDownloadMaxRetries() {
+        return downloadMaxRetries;
+    }
+
+    public long getDownloadRetryBackoffMs() {
+        return downloadRetryBackoffMs;
+    }
+
     @Value("${app.password}")
     private String password;
 
@@ -0,0 +1,33 @@
+package com.example.parquetTest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+@Configuration
+public class CacheConfig {
+
+    // Reuses unchanged snapshots (conditional GET) and the outputs of completed runs over the same content
+    @Value("${app.cache.enabled:true}")
+    private boolean enabled;
+
+    // Outputs of completed runs, one directory per input hash and settings
+    @Value("${app.cache.dir:${app.download.dir}/cache}")
+    private String dir;
+
+    // Disk budget for the downloaded snapshots and cached outputs together, least recently used go first
+    @Value("${app.cache.max-size:20GB}")
+    private String maxSize;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    public long getMaxSizeBytes() {
+        return DataSize.parse(maxSize).toBytes();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.parquetTest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class DuckDBConfig {
+
+    // "file" keeps the database in app.duckdb.file, "memory" runs a purely in-memory instance
+    @Value("${app.duckdb.mode:file}")
+    private String mode;
+
+    @Value("${app.duckdb.file}")
+    private String file;
+
+    @Value("${app.duckdb.memory-limit:}")
+    private String memoryLimit;
+
+    @Value("${app.duckdb.threads:0}")
+    private int threads;
+
+    @Value("${app.duckdb.temp-directory:}")
+    private String tempDirectory;
+
+    @Value("${app.duckdb.preserve-insertion-order:true}")
+    private boolean preserveInsertionOrder;
+
+    @Value("${app.duckdb.pool-size:8}")
+    private int poolSize;
+
+    @Value("${app.duckdb.pool-timeout-ms:60000}")
+    private long poolTimeoutMs;
+
+    // Prepared statements each pooled connection keeps open for reuse
+    @Value("${app.duckdb.statement-cache-size:32}")
+    private int statementCacheSize;
+
+    public String getMode() {
+        return mode;
+    }
+
+    public boolean isInMemory() {
+        return "memory".equalsIgnoreCase(mode);
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getJdbcUrl() {
+        return isInMemory() ? "jdbc:duckdb:" : "jdbc:duckdb:" + file;
+    }
+
+    public String getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * DuckDB worker threads, 0 leaves the count to the ResourceGovernor.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public String getTempDirectory() {
+        return tempDirectory;
+    }
+
+    public boolean isPreserveInsertionOrder() {
+        return preserveInsertionOrder;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public long getPoolTimeoutMs() {
+        return poolTimeoutMs;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.parquetTest.config;
+
+import com.example.parquetTest.service.FilterRule;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+@Configuration
+public class FilterRuleConfig {
+
+    // The column a folder's day is selected by, unless the folder has its own
+    @Value("${app.filter.date-column:edited_date}")
+    private String dateColumn;
+
+    // Comma separated folder=column pairs, e.g. view_events=event_time
+    @Value("${app.filter.folder-date-columns:view_events=event_time}")
+    private String folderDateColumns;
+
+    // The time zone whose calendar day is selected
+    @Value("${app.filter.timezone:UTC}")
+    private String timezone;
+
+    // Comma separated folder=zone pairs, e.g. view_events=Europe/Berlin
+    @Value("${app.filter.folder-timezones:}")
+    private String folderTimezones;
+
+    // Days before the day also selected, to pick up late arriving rows
+    @Value("${app.filter.lookback-days:0}")
+    private int lookbackDays;
+
+    // Comma separated folder=days pairs
+    @Value("${app.filter.folder-lookback-days:}")
+    private String folderLookbackDays;
+
+    // Semicolon separated folder=predicate pairs, SQL over the folder's columns; a folder may have several
+    @Value("${app.filter.predicates:}")
+    private String predicates;
+
+    private final Map<String, String> dateColumns = new HashMap<>();
+    private final Map<String, ZoneId> zones = new HashMap<>();
+    private final Map<String, Integer> lookbacks = new HashMap<>();
+    private final Map<String, List<String>> predicatesByFolder = new HashMap<>();
+    private final Map<String, FilterRule> rules = new ConcurrentHashMap<>();
+    private ZoneId defaultZone;
+
+    @PostConstruct
+    public void parseRules() {
+        defaultZone = zone(timezone);
+        if (lookbackDays < 0) {
+            throw new IllegalArgumentException("app.filter.lookback-days must not be negative: " + lookbackDays);
+        }
+        parsePairs(folderDateColumns.split(","), "app.filter.folder-date-columns", dateColumns::put);
+        parsePairs(folderTimezones.split(","), "app.filter.folder-timezones", (folder, zone) -> zones.put(folder, zone(zone)));
+        parsePairs(folderLookbackDays.split(","), "app.filter.folder-lookback-days", (folder, days) -> {
+            int value = Integer.parseInt(days);
+            if (value < 0) {
+                throw new IllegalArgumentException("Lookback days must not be negative in app.filter.folder-lookback-days: " + folder);
+            }
+            lookbacks.put(folder, value);
+        });
+        parsePairs(predicates.split(";"), "app.filter.predicates",
+                (folder, predicate) -> predicatesByFolder.computeIfAbsent(folder, k -> new ArrayList<>()).add(predicate));
+        rules.clear();
+    }
+
+    /**
+     * The compiled rule of a folder, the defaults for a folder without configuration.
+     */
+    public FilterRule ruleFor(String folder) {
+        return rules.computeIfAbsent(folder, k -> new FilterRule(folder,
+                dateColumns.getOrDefault(folder, dateColumn),
+                zones.getOrDefault(folder, defaultZone),
+                lookbacks.getOrDefault(folder, lookbackDays),
+                predicatesByFolder.getOrDefault(folder, Collections.emptyList())));
+    }
+
+    /**
+     * Every configured rule, e.g. for the cache key of outputs.
+     */
+    public String describe() {
+        return dateColumn + "," + defaultZone + ",lookback=" + lookbackDays + ";" + new TreeMap<>(dateColumns)
+                + new TreeMap<>(zones) + new TreeMap<>(lookbacks) + new TreeMap<>(predicatesByFolder);
+    }
+
+    private static void parsePairs(String[] pairs, String property, BiConsumer<String, String> onPair) {
+        for (String pair : pairs) {
+            if (pair.isBlank()) {
+                continue;
+            }
+            String[] parts = pair.split("=", 2);
+            if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) {
+                throw new IllegalArgumentException("Expected folder=value in " + property + ": " + pair);
+            }
+            onPair.accept(parts[0].trim(), parts[1].trim());
+        }
+    }
+
+    private static ZoneId zone(String zone) {
+        try {
+            return ZoneId.of(zone.trim());
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Unknown time zone in app.filter: " + zone, e);
+        }
+    }
+}
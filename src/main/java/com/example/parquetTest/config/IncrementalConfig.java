@@ -0,0 +1,35 @@
+package com.example.parquetTest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IncrementalConfig {
+
+    // When enabled the delta pipeline merges each snapshot into persistent per-folder tables
+    // and exports the day from them, instead of filtering the snapshot files directly
+    @Value("${app.incremental.enabled:false}")
+    private boolean enabled;
+
+    // Column identifying a row; older versions of merged rows are replaced (empty = append only)
+    @Value("${app.incremental.key-column:}")
+    private String keyColumn;
+
+    @Value("${app.incremental.lookback-days:1}")
+    private int lookbackDays;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Days before the watermark that are re-merged from every snapshot to pick up late-arriving rows.
+     */
+    public int getLookbackDays() {
+        return Math.max(0, lookbackDays);
+    }
+}
@@ -6,7 +6,12 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -32,6 +37,9 @@ public class InsightsAppConfig {
     @Value("${app.date.frequency}")
     private int dateOffset;
 
+    @Value("${app.download.parallelism:4}")
+    private int downloadParallelism;
+
 
     public String getDownloadDir() {
         return downloadDir;
@@ -87,8 +95,22 @@ public class InsightsAppConfig {
         return objectMapper;
     }
 
-    @Bean
+    /**
+     * Shared pooled client, sized so every concurrent range request gets its own connection.
+     */
+    @Bean(destroyMethod = "close")
     public CloseableHttpClient httpClient() {
-        return HttpClients.createDefault();
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnPerRoute(downloadParallelism * 2)
+                .setMaxConnTotal(downloadParallelism * 4)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofSeconds(30))
+                        .setSocketTimeout(Timeout.ofMinutes(5))
+                        .build())
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .evictIdleConnections(TimeValue.ofMinutes(1))
+                .build();
     }
 }
\ No newline at end of file
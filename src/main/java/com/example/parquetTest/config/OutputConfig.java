@@ -0,0 +1,60 @@
+package com.example.parquetTest.config;
+
+import com.example.parquetTest.service.JobContext;
+import com.example.parquetTest.service.OutputFormat;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Configuration
+public class OutputConfig {
+
+    @Value("${app.output.format:json}")
+    private String format;
+
+    // Comma separated folder=format pairs overriding app.output.format, e.g. view_events=parquet
+    @Value("${app.output.folder-formats:}")
+    private String folderFormats;
+
+    private OutputFormat defaultFormat;
+    private final Map<String, OutputFormat> formatsByFolder = new HashMap<>();
+
+    @PostConstruct
+    public void parseFormats() {
+        defaultFormat = OutputFormat.fromName(format);
+        for (String pair : folderFormats.split(",")) {
+            if (pair.isBlank()) {
+                continue;
+            }
+            String[] parts = pair.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected folder=format in app.output.folder-formats: " + pair);
+            }
+            formatsByFolder.put(parts[0].trim(), OutputFormat.fromName(parts[1]));
+        }
+    }
+
+    /**
+     * The formats a job writes, e.g. for the cache key of its outputs.
+     */
+    public String describe(JobContext ctx) {
+        if (ctx.getOutputFormat() != null) {
+            return ctx.getOutputFormat().getName();
+        }
+        return defaultFormat.getName() + new TreeMap<>(formatsByFolder);
+    }
+
+    /**
+     * The format of a folder's output: the job's requested format, else the folder's, else the default.
+     */
+    public OutputFormat formatFor(String folder, JobContext ctx) {
+        if (ctx.getOutputFormat() != null) {
+            return ctx.getOutputFormat();
+        }
+        return formatsByFolder.getOrDefault(folder, defaultFormat);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.parquetTest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class PipelineConfig {
+
+    @Value("${app.pipeline.folder-parallelism:4}")
+    private int folderParallelism;
+
+    @Value("${app.pipeline.folder-queue-capacity:2}")
+    private int folderQueueCapacity;
+
+    @Value("${app.download.parallelism:4}")
+    private int downloadParallelism;
+
+    // 0 inflates as many entries at once as the JVM sees processors
+    @Value("${app.extract.parallelism:0}")
+    private int extractParallelism;
+
+    @Value("${app.package.parallelism:4}")
+    private int packageParallelism;
+
+    @Value("${app.package.compression-level:6}")
+    private int packageCompressionLevel;
+
+    @Value("${app.range.parallelism:4}")
+    private int rangeParallelism;
+
+    @Value("${app.jobs.parallelism:2}")
+    private int jobParallelism;
+
+    @Value("${app.jobs.queue-capacity:16}")
+    private int jobQueueCapacity;
+
+    public int getFolderParallelism() {
+        return folderParallelism;
+    }
+
+    public int getFolderQueueCapacity() {
+        return folderQueueCapacity;
+    }
+
+    public int getDownloadParallelism() {
+        return downloadParallelism;
+    }
+
+    public int getExtractParallelism() {
+        return extractParallelism > 0 ? extractParallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getPackageParallelism() {
+        return packageParallelism;
+    }
+
+    public int getPackageCompressionLevel() {
+        return packageCompressionLevel;
+    }
+
+    public int getRangeParallelism() {
+        return rangeParallelism;
+    }
+
+    public int getJobParallelism() {
+        return jobParallelism;
+    }
+
+    public int getJobQueueCapacity() {
+        return jobQueueCapacity;
+    }
+
+    /**
+     * Bounded pool running one folder per task for the filter and initial load stages.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor folderExecutor() {
+        return newFixedPool("folder-worker-", folderParallelism);
+    }
+
+    /**
+     * Bounded pool for the concurrent HTTP range requests of snapshot downloads.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor downloadExecutor() {
+        return newFixedPool("download-worker-", downloadParallelism);
+    }
+
+    /**
+     * Bounded pool inflating the entries of snapshot ZIPs, one entry per task.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor extractionExecutor() {
+        return newFixedPool("extract-worker-", getExtractParallelism());
+    }
+
+    /**
+     * Bounded pool running the days of date range jobs, which caps the snapshots downloading at once.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor rangeExecutor() {
+        return newFixedPool("range-day-", rangeParallelism);
+    }
+
+    /**
+     * Bounded pool running the submitted pipeline jobs off the web threads; submissions
+     * beyond the queue capacity are rejected instead of piling up.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor jobExecutor() {
+        return new ThreadPoolExecutor(jobParallelism, jobParallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(jobQueueCapacity), daemonThreads("pipeline-job-"));
+    }
+
+    public static ThreadPoolExecutor newFixedPool(String namePrefix, int size) {
+        return new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), daemonThreads(namePrefix));
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
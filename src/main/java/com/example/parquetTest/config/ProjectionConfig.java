@@ -0,0 +1,117 @@
+package com.example.parquetTest.config;
+
+import com.example.parquetTest.service.FolderProjection;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+@Configuration
+public class ProjectionConfig {
+
+    private static final Pattern TYPE = Pattern.compile("[A-Za-z][A-Za-z0-9_ ]*(\\([0-9, ]+\\))?(\\[\\])?");
+
+    // Comma separated folder.column entries; a folder listed here is written with these columns only
+    @Value("${app.projection.include:}")
+    private String include;
+
+    // Comma separated folder.column entries left out of the folder's output
+    @Value("${app.projection.exclude:}")
+    private String exclude;
+
+    // Comma separated folder.column=name pairs renaming output columns
+    @Value("${app.projection.rename:}")
+    private String rename;
+
+    // Comma separated folder.column=type pairs casting output columns, e.g. asset.size=BIGINT
+    @Value("${app.projection.cast:}")
+    private String cast;
+
+    private final Map<String, FolderProjection> projections = new TreeMap<>();
+
+    @PostConstruct
+    public void parseProjections() {
+        for (String entry : split(include)) {
+            String[] column = folderColumn(entry, "app.projection.include");
+            projectionFor(column[0]).include(column[1]);
+        }
+        for (String entry : split(exclude)) {
+            String[] column = folderColumn(entry, "app.projection.exclude");
+            projectionFor(column[0]).exclude(column[1]);
+        }
+        parsePairs(rename, "app.projection.rename", (column, name) -> projectionFor(column[0]).rename(column[1], name));
+        parsePairs(cast, "app.projection.cast", (column, type) -> {
+            if (!TYPE.matcher(type).matches()) {
+                throw new IllegalArgumentException("Invalid type in app.projection.cast: " + type);
+            }
+            projectionFor(column[0]).cast(column[1], type);
+        });
+    }
+
+    /**
+     * The projection of a folder, SELECT * for a folder without configuration.
+     */
+    public FolderProjection forFolder(String folder) {
+        FolderProjection projection = projections.get(folder);
+        return projection != null ? projection : new FolderProjection(folder);
+    }
+
+    /**
+     * Every configured projection, e.g. for the cache key of outputs.
+     */
+    public String describe() {
+        return projections.values().toString();
+    }
+
+    private FolderProjection projectionFor(String folder) {
+        return projections.computeIfAbsent(folder, FolderProjection::new);
+    }
+
+    private void parsePairs(String pairs, String property, BiConsumer<String[], String> onPair) {
+        for (String pair : split(pairs)) {
+            String[] parts = pair.split("=", 2);
+            if (parts.length != 2 || parts[1].isBlank()) {
+                throw new IllegalArgumentException("Expected folder.column=value in " + property + ": " + pair);
+            }
+            onPair.accept(folderColumn(parts[0], property), parts[1].trim());
+        }
+    }
+
+    private static String[] folderColumn(String entry, String property) {
+        String[] parts = entry.trim().split("\\.", 2);
+        if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) {
+            throw new IllegalArgumentException("Expected folder.column in " + property + ": " + entry);
+        }
+        return new String[]{parts[0].trim(), parts[1].trim()};
+    }
+
+    /**
+     * Splits on the commas outside of parentheses, so DECIMAL(18,3) stays one entry.
+     */
+    private static List<String> split(String value) {
+        List<String> entries = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : ',';
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                String entry = value.substring(start, i).trim();
+                if (!entry.isEmpty()) {
+                    entries.add(entry);
+                }
+                start = i + 1;
+            }
+        }
+        return entries;
+    }
+}
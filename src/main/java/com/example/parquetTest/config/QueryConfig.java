@@ -0,0 +1,32 @@
+package com.example.parquetTest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class QueryConfig {
+
+    // Rows per page of the query endpoint when the request sets no limit
+    @Value("${app.query.default-limit:1000}")
+    private int defaultLimit;
+
+    // Upper bound of a page, which also bounds what DuckDB holds for one request
+    @Value("${app.query.max-limit:100000}")
+    private int maxLimit;
+
+    // Rows per Arrow record batch of the columnar query endpoint
+    @Value("${app.query.arrow-batch-rows:65536}")
+    private long arrowBatchRows;
+
+    public int getDefaultLimit() {
+        return defaultLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public long getArrowBatchRows() {
+        return arrowBatchRows;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.parquetTest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+@Configuration
+public class ResourceConfig {
+
+    // Mount point of the cgroup file system holding the container's memory and CPU limits
+    @Value("${app.resources.cgroup-root:/sys/fs/cgroup}")
+    private String cgroupRoot;
+
+    // Memory kept for the JVM on top of its maximum heap: metaspace, thread stacks, direct buffers
+    @Value("${app.resources.jvm-overhead:512MB}")
+    private String jvmOverhead;
+
+    // Share of the memory left after the JVM that DuckDB may use, the rest is headroom for the OS
+    @Value("${app.resources.memory-fraction:0.8}")
+    private double memoryFraction;
+
+    // Memory a concurrently running folder should get at least; fewer folders run side by side otherwise
+    @Value("${app.resources.min-folder-memory:512MB}")
+    private String minFolderMemory;
+
+    public String getCgroupRoot() {
+        return cgroupRoot;
+    }
+
+    public long getJvmOverheadBytes() {
+        return DataSize.parse(jvmOverhead).toBytes();
+    }
+
+    public double getMemoryFraction() {
+        return Math.min(1, Math.max(0.1, memoryFraction));
+    }
+
+    public long getMinFolderMemoryBytes() {
+        return DataSize.parse(minFolderMemory).toBytes();
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.parquetTest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.ZoneId;
+
+@Configuration
+public class ScheduleConfig {
+
+    // Spring cron expressions building each pipeline's days ahead of demand, "-" for none
+    @Value("${app.schedule.process-cron:-}")
+    private String processCron;
+
+    @Value("${app.schedule.initial-load-cron:-}")
+    private String initialLoadCron;
+
+    // Time zone of the cron expressions and of the days built
+    @Value("${app.schedule.zone:UTC}")
+    private String zone;
+
+    // Days up to the latest snapshot date whose missing outputs every scheduled run builds
+    @Value("${app.schedule.catch-up-days:7}")
+    private int catchUpDays;
+
+    // Also catch up on the days missed while the application was down, right after startup
+    @Value("${app.schedule.catch-up-on-startup:true}")
+    private boolean catchUpOnStartup;
+
+    // Days the scheduler builds at once, leaving the other job slots to requests
+    @Value("${app.schedule.max-concurrent-runs:1}")
+    private int maxConcurrentRuns;
+
+    // /process and /initialLoad publish a day's output built earlier instead of running again
+    @Value("${app.schedule.serve-built-outputs:true}")
+    private boolean serveBuiltOutputs;
+
+    public String getProcessCron() {
+        return processCron;
+    }
+
+    public String getInitialLoadCron() {
+        return initialLoadCron;
+    }
+
+    public ZoneId getZone() {
+        return ZoneId.of(zone);
+    }
+
+    public int getCatchUpDays() {
+        return Math.max(1, catchUpDays);
+    }
+
+    public boolean isCatchUpOnStartup() {
+        return catchUpOnStartup;
+    }
+
+    public int getMaxConcurrentRuns() {
+        return Math.max(1, maxConcurrentRuns);
+    }
+
+    public boolean isServeBuiltOutputs() {
+        return serveBuiltOutputs;
+    }
+}
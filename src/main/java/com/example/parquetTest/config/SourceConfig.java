@@ -0,0 +1,111 @@
+package com.example.parquetTest.config;
+
+import com.example.parquetTest.service.Source;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+@Configuration
+public class SourceConfig {
+
+    private static final Pattern SOURCE_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    @Autowired
+    private AppConfig appConfig;
+
+    @Autowired
+    private IncrementalConfig incrementalConfig;
+
+    @Autowired
+    private Environment environment;
+
+    // Comma separated names of the sources besides the default one (app.download.url), each
+    // configured under app.sources.<name>.*
+    @Value("${app.sources.names:}")
+    private String names;
+
+    // Folders the default source ingests, comma separated; empty for all
+    @Value("${app.sources.folders:}")
+    private String folders;
+
+    // Limits of the default source, and of every source not setting its own; 0 for no limit
+    @Value("${app.sources.max-concurrent-jobs:0}")
+    private int maxConcurrentJobs;
+
+    @Value("${app.sources.max-concurrent-requests:0}")
+    private int maxConcurrentRequests;
+
+    @Value("${app.sources.requests-per-second:0}")
+    private double requestsPerSecond;
+
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void parseSources() {
+        sources.clear();
+        sources.put(Source.DEFAULT, new Source(Source.DEFAULT, appConfig.getDownloadUrl(), appConfig.getUsername(),
+                appConfig.getPassword(), appConfig.getDownloadDir(), "", parseFolders(folders),
+                maxConcurrentJobs, maxConcurrentRequests, requestsPerSecond));
+
+        Set<String> outputDirs = new HashSet<>(Collections.singleton(""));
+        for (String entry : names.split(",")) {
+            String name = entry.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!SOURCE_NAME.matcher(name).matches() || sources.containsKey(name)) {
+                throw new IllegalArgumentException("Invalid or duplicate source in app.sources.names: " + name);
+            }
+            String prefix = "app.sources." + name + ".";
+            String outputDir = environment.getProperty(prefix + "output-dir", name);
+            if (!outputDirs.add(outputDir)) {
+                // Sources writing to the same directory would overwrite each other's outputs
+                throw new IllegalArgumentException("Source " + name + " shares its output directory " + outputDir);
+            }
+            sources.put(name, new Source(name,
+                    environment.getRequiredProperty(prefix + "url"),
+                    environment.getRequiredProperty(prefix + "username"),
+                    environment.getRequiredProperty(prefix + "password"),
+                    environment.getProperty(prefix + "download-dir", appConfig.getDownloadDir() + "/" + name),
+                    outputDir,
+                    parseFolders(environment.getProperty(prefix + "folders", "")),
+                    environment.getProperty(prefix + "max-concurrent-jobs", Integer.class, maxConcurrentJobs),
+                    environment.getProperty(prefix + "max-concurrent-requests", Integer.class, maxConcurrentRequests),
+                    environment.getProperty(prefix + "requests-per-second", Double.class, requestsPerSecond)));
+        }
+        if (sources.size() > 1 && incrementalConfig.isEnabled()) {
+            // The persisted tables and watermarks are per folder, sources would merge into each other's
+            throw new IllegalStateException("app.incremental.enabled supports the default source only");
+        }
+    }
+
+    /**
+     * The source of that name, the default source for a null or blank name.
+     */
+    public Source getSource(String name) {
+        Source source = sources.get(name == null || name.isBlank() ? Source.DEFAULT : name.trim());
+        if (source == null) {
+            throw new IllegalArgumentException("Unknown source: " + name);
+        }
+        return source;
+    }
+
+    public Collection<Source> getSources() {
+        return Collections.unmodifiableCollection(sources.values());
+    }
+
+    private static Set<String> parseFolders(String value) {
+        Set<String> parsed = new TreeSet<>();
+        for (String folder : value.split(",")) {
+            if (!folder.isBlank()) {
+                parsed.add(folder.trim());
+            }
+        }
+        return parsed;
+    }
+}
@@ -1,38 +1,257 @@
 package com.example.parquetTest.controller;
 
-import com.example.parquetTest.service.ProcessInitialLoadService;
-import com.example.parquetTest.service.ProcessService;
+import com.example.parquetTest.service.IncrementalService;
+import com.example.parquetTest.service.JobService;
+import com.example.parquetTest.service.OutputFormat;
+import com.example.parquetTest.service.QueryService;
+import org.apache.commons.io.FileUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/parquet")
 public class ParquetController {
 
+    private static final MediaType ARROW_STREAM = MediaType.parseMediaType("application/vnd.apache.arrow.stream");
+
+    @Autowired
+    private JobService jobService;
+
     @Autowired
-    private ProcessService processService;
+    private IncrementalService incrementalService;
 
     @Autowired
-    private ProcessInitialLoadService processInitialLoadService;
+    private QueryService queryService;
 
+    // The original endpoints run as jobs too and wait for them without holding a web thread.
+    // With from (and to) they run every snapshot date of the range, see JobService.submitRange.
     @GetMapping("/process")
-    public String processParquetFiles() {
+    public CompletableFuture<String> processParquetFiles(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) String source) {
+        return runAndWait(JobService.PROCESS, date, from, to, format, source);
+    }
+
+    @GetMapping("/initialLoad")
+    public CompletableFuture<String> processInitialLoadFiles(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) String source) {
+        return runAndWait(JobService.INITIAL_LOAD, date, from, to, format, source);
+    }
+
+    /**
+     * Submits a pipeline job and returns straight away; a job already running for the
+     * same type, source, date (or from..to range) and format is returned instead of starting another one.
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<?> submitJob(
+            @RequestParam String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) String source) {
         try {
-            processService.process();
-            return "Processing completed!";
-        } catch (Exception e) {
-            return "Error: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(submit(type, date, from, to, format, source));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Error: job queue is full");
         }
     }
 
-    @GetMapping("/initialLoad")
-    public String processInitialLoadFiles() {
+    @GetMapping("/jobs")
+    public List<JobService.Job> listJobs() {
+        return jobService.getJobs();
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<JobService.Job> getJob(@PathVariable String id) {
+        return ResponseEntity.of(jobService.getJob(id));
+    }
+
+    @DeleteMapping("/jobs/{id}")
+    public ResponseEntity<JobService.Job> cancelJob(@PathVariable String id) {
+        return ResponseEntity.of(jobService.cancel(id));
+    }
+
+    /**
+     * Serves the delta of every persisted folder for from..to (inclusive) as a ZIP, built
+     * from the incremental tables without downloading a snapshot.
+     */
+    @GetMapping("/delta")
+    public ResponseEntity<?> downloadDelta(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String format) {
+        LocalDate end = to != null ? to : from;
+        if (end.isBefore(from)) {
+            return ResponseEntity.badRequest().body("Error: to must not be before from");
+        }
+        OutputFormat outputFormat;
+        try {
+            outputFormat = parseFormat(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+        File zipFile;
         try {
-            processInitialLoadService.process();
-            return "Processing completed!";
-        } catch (Exception e) {
-            return "Error: " + e.getMessage();
+            zipFile = incrementalService.packageRange(from, end, outputFormat);
+        } catch (IOException | SQLException e) {
+            return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
         }
+        StreamingResponseBody body = out -> {
+            try {
+                Files.copy(zipFile.toPath(), out);
+            } finally {
+                FileUtils.deleteQuietly(zipFile.getParentFile());
+            }
+        };
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + zipFile.getName() + "\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(body);
+    }
+
+    /**
+     * Streams rows of one folder's output for a date as NDJSON, e.g.
+     * /query/asset?date=2025-02-28&columns=id,name&filter=status:eq:active&key=id&after=42&limit=500.
+     * Rows are ordered by key, which must be unique; the key of the last row is the after of
+     * the next page. Without a key the first limit rows are returned in file order.
+     */
+    @GetMapping("/query/{folder}")
+    public ResponseEntity<?> query(
+            @PathVariable String folder,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(defaultValue = JobService.PROCESS) String pipeline,
+            @RequestParam(required = false) List<String> columns,
+            @RequestParam(required = false) List<String> filter,
+            @RequestParam(required = false) String key,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String source) {
+        return streamQuery(pipeline, source, folder, date, columns, filter, key, after, limit, false);
+    }
+
+    /**
+     * Streams one folder's output for a date as an Arrow IPC stream, with the same parameters
+     * as /query/{folder}. Without limit or after the whole output is returned, in file order.
+     */
+    @GetMapping("/query/{folder}/arrow")
+    public ResponseEntity<?> queryArrow(
+            @PathVariable String folder,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(defaultValue = JobService.PROCESS) String pipeline,
+            @RequestParam(required = false) List<String> columns,
+            @RequestParam(required = false) List<String> filter,
+            @RequestParam(required = false) String key,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String source) {
+        return streamQuery(pipeline, source, folder, date, columns, filter, key, after, limit, true);
+    }
+
+    @GetMapping("/watermarks")
+    public ResponseEntity<?> listWatermarks() {
+        try {
+            return ResponseEntity.ok(incrementalService.getWatermarks());
+        } catch (SQLException e) {
+            return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prepares the query up front, so a bad request is answered with its status before anything
+     * is streamed, then streams it as NDJSON or Arrow.
+     */
+    private ResponseEntity<?> streamQuery(String pipeline, String source, String folder, LocalDate date, List<String> columns,
+                                          List<String> filter, String key, String after, Integer limit, boolean arrow) {
+        QueryService.PreparedQuery prepared;
+        try {
+            List<QueryService.Filter> filters = new ArrayList<>();
+            for (String value : filter != null ? filter : List.<String>of()) {
+                filters.add(QueryService.Filter.parse(value));
+            }
+            List<String> projection = columns != null ? columns.stream().map(String::trim).toList() : null;
+            QueryService.Query query = new QueryService.Query(pipeline, source, folder, date, projection, filters, key, after, limit);
+            prepared = arrow ? queryService.prepareColumnar(query) : queryService.prepare(query);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Error: " + e.getMessage());
+        } catch (IOException | SQLException e) {
+            return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
+        }
+        StreamingResponseBody body = out -> {
+            try {
+                if (arrow) {
+                    queryService.streamArrow(prepared, out);
+                } else {
+                    queryService.stream(prepared, out);
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        };
+        return ResponseEntity.ok().contentType(arrow ? ARROW_STREAM : MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    private CompletableFuture<String> runAndWait(String type, LocalDate date, LocalDate from, LocalDate to, String format,
+                                                 String source) {
+        try {
+            return submit(type, date, from, to, format, source).getCompletion().thenApply(job -> {
+                switch (job.getStatus()) {
+                    case SUCCEEDED:
+                        return "Processing completed!";
+                    case CANCELLED:
+                        return "Error: job " + job.getId() + " was cancelled";
+                    default:
+                        return "Error: " + job.getError();
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture("Error: " + e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture("Error: job queue is full");
+        }
+    }
+
+    private JobService.Job submit(String type, LocalDate date, LocalDate from, LocalDate to, String format, String source) {
+        OutputFormat outputFormat = parseFormat(format);
+        if (from != null) {
+            return jobService.submitRange(type, from, to != null ? to : from, outputFormat, source);
+        }
+        if (to != null) {
+            throw new IllegalArgumentException("to requires from");
+        }
+        return jobService.submit(type, date, outputFormat, source);
+    }
+
+    private static OutputFormat parseFormat(String format) {
+        return format == null || format.isBlank() ? null : OutputFormat.fromName(format);
     }
 
 }
@@ -1,58 +1,532 @@
 package com.example.parquetTest.service;
 
 import com.example.parquetTest.config.AppConfig;
-import org.apache.commons.io.FileUtils;
+import com.example.parquetTest.config.SourceConfig;
 
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.ParseException;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.Base64;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class DownloadService {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     @Autowired
     private AppConfig appConfig;
 
-    public File downloadZip() throws IOException {
-        String date1 = LocalDate.now().minusDays(4).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-        String zipUrl = appConfig.getDownloadUrl() + date1 + "&format=zip";
-        File zipFile = new File(appConfig.getDownloadDir(), "insights_" + date1 + ".zip");
-
-        // Taking the Username & Password from application.properties
-        String auth = appConfig.getUsername() + ":" + appConfig.getPassword();
-        String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
-
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpGet request = new HttpGet(zipUrl);
-            request.addHeader("Authorization", "Basic " + encodedAuth);
-            request.addHeader("Accept", "application/zip");
-
-            try (CloseableHttpResponse response = httpClient.execute(request)) {
-                int statusCode = response.getCode();
-                if (statusCode == 200) {
-                    FileUtils.copyInputStreamToFile(response.getEntity().getContent(), zipFile);
-                    return zipFile;
-                } else {
+    @Autowired
+    private SourceConfig sourceConfig;
+
+    @Autowired
+    private CloseableHttpClient httpClient;
+
+    @Autowired
+    private ThreadPoolExecutor downloadExecutor;
+
+    @Autowired
+    private SnapshotCache snapshotCache;
+
+    // One download at a time per target file, its part and state files are not shareable
+    private final Map<String, ReentrantLock> targetLocks = new ConcurrentHashMap<>();
+    private final Map<String, Long> completedAt = new ConcurrentHashMap<>();
+
+    /**
+     * Downloads the snapshot of the job's date from the job's source. Jobs for the same date
+     * and source (e.g. process and initial load) share the target file, so they download it
+     * one at a time.
+     */
+    public File downloadZip(JobContext ctx) throws IOException {
+        Source source = ctx.getSource() != null ? ctx.getSource() : sourceConfig.getSource(Source.DEFAULT);
+        String zipUrl = source.downloadUrl(ctx.getSnapshotDate());
+        File zipFile = new File(source.getDownloadDir(), "insights_" + ctx.getSnapshotDate() + ".zip");
+        Files.createDirectories(zipFile.toPath().toAbsolutePath().getParent());
+
+        String target = zipFile.getAbsolutePath();
+        ReentrantLock targetLock = targetLocks.computeIfAbsent(target, k -> new ReentrantLock());
+        long waitStart = System.nanoTime();
+        try {
+            targetLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the download of " + zipFile, e);
+        }
+        try {
+            // Another job downloaded the same snapshot while this one waited
+            Long finished = completedAt.get(target);
+            if (finished != null && finished - waitStart > 0 && zipFile.isFile()) {
+                logger.info("Reusing {} downloaded by a concurrent job", target);
+                JobContext.StageProgress progress = ctx.stage(JobContext.DOWNLOAD);
+                progress.start(zipFile.length());
+                progress.addBytes(zipFile.length());
+                progress.complete();
+                return zipFile;
+            }
+            File downloaded = download(ctx, source, zipUrl, zipFile);
+            completedAt.put(target, System.nanoTime());
+            return downloaded;
+        } finally {
+            targetLock.unlock();
+        }
+    }
+
+    private File download(JobContext ctx, Source source, String zipUrl, File zipFile) throws IOException {
+        Path partFile = Path.of(zipFile.getPath() + ".part");
+        Path stateFile = Path.of(zipFile.getPath() + ".part.state");
+
+        JobContext.StageProgress progress = ctx.stage(JobContext.DOWNLOAD);
+        SnapshotCache.Meta cached = snapshotCache.readMeta(zipFile);
+        RemoteFile remote;
+        for (int restart = 0; ; restart++) {
+            // Step 1: Probing with a one byte range to learn the size and whether ranges are supported,
+            // made conditional on the validators of the snapshot already on disk
+            remote = withRetries("probe " + zipUrl, () -> probe(source, zipUrl, partFile, cached));
+            if (remote.notModified) {
+                logger.info("{} not modified on the server, reusing the local copy", zipFile.getAbsolutePath());
+                snapshotCache.touch(zipFile);
+                progress.start(zipFile.length());
+                progress.addBytes(zipFile.length());
+                progress.complete();
+                return zipFile;
+            }
+            progress.start(remote.length);
+
+            // Step 2: Downloading the ranges concurrently, or the whole body if ranges are not supported
+            if (!remote.supportsRanges) {
+                progress.addBytes(remote.length);
+                break;
+            }
+            try {
+                downloadRanges(source, zipUrl, remote, partFile, stateFile, ctx);
+                break;
+            } catch (RemoteChangedException e) {
+                // Ranges of two versions must not be spliced, the new version is downloaded from scratch
+                Files.deleteIfExists(partFile);
+                Files.deleteIfExists(stateFile);
+                progress.addBytes(-progress.getBytes());
+                if (restart >= appConfig.getDownloadMaxRetries()) {
+                    throw e;
+                }
+                logger.warn("{} changed on the server during the download, restarting: {}", zipUrl, e.getMessage());
+            }
+        }
+
+        // Step 3: Verifying the length and the digest before publishing the file with its validators
+        verify(remote, partFile);
+        snapshotCache.deleteMeta(zipFile);
+        Files.move(partFile, zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(stateFile);
+        snapshotCache.writeMeta(zipFile, new SnapshotCache.Meta(remote.etag, remote.lastModified, remote.sha256, zipFile.length()));
+        snapshotCache.evict();
+        logger.info("Downloaded {} ({} bytes)", zipFile.getAbsolutePath(), remote.length);
+        progress.complete();
+        return zipFile;
+    }
+
+    /**
+     * Issues the first request. A 206 answer describes the remote file; a plain 200 means
+     * the server ignores ranges, in which case its body is streamed straight into the part file.
+     * With validators of a local copy the request is conditional, and a 304 keeps that copy.
+     */
+    private RemoteFile probe(Source source, String zipUrl, Path partFile, SnapshotCache.Meta cached) throws IOException {
+        HttpGet request = newRequest(source, zipUrl);
+        request.addHeader("Range", "bytes=0-0");
+        if (cached != null && cached.etag != null) {
+            request.addHeader("If-None-Match", cached.etag);
+        }
+        if (cached != null && cached.lastModified != null) {
+            request.addHeader("If-Modified-Since", cached.lastModified);
+        }
+
+        try (Source.RequestSlot slot = source.acquireRequestSlot();
+             CloseableHttpResponse response = httpClient.execute(request)) {
+            int statusCode = response.getCode();
+            RemoteFile remote = new RemoteFile();
+            remote.etag = headerValue(response.getFirstHeader("ETag"));
+            remote.lastModified = headerValue(response.getFirstHeader("Last-Modified"));
+            remote.sha256 = parseSha256Digest(response.getHeaders("Digest"));
+
+            if (statusCode == 304 && cached != null) {
+                remote.notModified = true;
+                EntityUtils.consume(response.getEntity());
+                return remote;
+            } else if (statusCode == 206) {
+                remote.supportsRanges = true;
+                remote.length = parseTotalLength(headerValue(response.getFirstHeader("Content-Range")));
+                EntityUtils.consume(response.getEntity());
+                return remote;
+            } else if (statusCode == 200) {
+                remote.supportsRanges = false;
+                remote.length = response.getEntity().getContentLength();
+                try (InputStream in = response.getEntity().getContent()) {
+                    Files.copy(in, partFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (remote.length < 0) {
+                    remote.length = Files.size(partFile);
+                }
+                return remote;
+            }
+            throw httpFailure(response, statusCode);
+        }
+    }
+
+    private void downloadRanges(Source source, String zipUrl, RemoteFile remote,
+                                Path partFile, Path stateFile, JobContext ctx) throws IOException {
+        long chunkSize = Math.max(1, appConfig.getDownloadChunkSize());
+        JobContext.StageProgress progress = ctx.stage(JobContext.DOWNLOAD);
+        RangeState state = RangeState.load(stateFile, remote, chunkSize);
+        if (state.completed.isEmpty() || !Files.exists(partFile)) {
+            state.completed.clear();
+            Files.deleteIfExists(partFile);
+            state.save();
+        } else {
+            logger.info("Resuming {} with {} of {} ranges already downloaded", partFile.getFileName(),
+                    state.completed.size(), (remote.length + chunkSize - 1) / chunkSize);
+        }
+
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            List<Future<Void>> futures = new ArrayList<>();
+            try {
+                for (long start = 0; start < remote.length; start += chunkSize) {
+                    long rangeStart = start;
+                    long rangeEnd = Math.min(start + chunkSize, remote.length) - 1;
+                    if (state.completed.contains(start)) {
+                        progress.addBytes(rangeEnd - rangeStart + 1);
+                        continue;
+                    }
+                    // The slot is taken before the range is queued, so a source at its request limit
+                    // does not hold download threads the other sources' ranges could use
+                    Source.RequestSlot slot = source.acquireRequestSlot();
+                    FutureTask<Void> range = new FutureTask<>(() -> {
+                        ctx.checkCancelled();
+                        withRetries("range " + rangeStart + "-" + rangeEnd, () -> {
+                            downloadRange(source, zipUrl, remote, channel, rangeStart, rangeEnd);
+                            return null;
+                        });
+                        state.markCompleted(rangeStart);
+                        progress.addBytes(rangeEnd - rangeStart + 1);
+                        return null;
+                    }) {
+                        @Override
+                        protected void done() {
+                            slot.close();
+                        }
+                    };
                     try {
-                        String responseMessage = EntityUtils.toString(response.getEntity());
-                        throw new IOException("Failed to download ZIP: " + statusCode + " - " + responseMessage);
-                    } catch (ParseException e) {
-                        throw new IOException("Failed to parse error response: " + e.getMessage(), e);
+                        downloadExecutor.execute(range);
+                    } catch (RejectedExecutionException e) {
+                        slot.close();
+                        throw e;
+                    }
+                    futures.add(range);
+                }
+                awaitAll(futures);
+            } catch (RemoteChangedException e) {
+                // Ranges still finishing must not mark the state the restarted download writes
+                state.discard();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Downloads one range of the version the probe saw. If-Range makes the server answer with
+     * the whole new file instead once that version changed, detected here as a 200 or as a
+     * range of another ETag.
+     */
+    private void downloadRange(Source source, String zipUrl, RemoteFile remote, FileChannel channel,
+                               long rangeStart, long rangeEnd) throws IOException {
+        HttpGet request = newRequest(source, zipUrl);
+        request.addHeader("Range", "bytes=" + rangeStart + "-" + rangeEnd);
+        String validator = remote.rangeValidator();
+        if (validator != null) {
+            request.addHeader("If-Range", validator);
+        }
+
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            int statusCode = response.getCode();
+            if (statusCode == 200) {
+                throw new RemoteChangedException("Server sent the whole file for range " + rangeStart + "-" + rangeEnd);
+            }
+            if (statusCode != 206) {
+                throw httpFailure(response, statusCode);
+            }
+            String etag = headerValue(response.getFirstHeader("ETag"));
+            if (remote.etag != null && etag != null && !remote.etag.equals(etag)) {
+                throw new RemoteChangedException("ETag changed from " + remote.etag + " to " + etag);
+            }
+            String contentRange = headerValue(response.getFirstHeader("Content-Range"));
+            if (contentRange == null || !contentRange.startsWith("bytes " + rangeStart + "-" + rangeEnd + "/")) {
+                throw new IOException("Unexpected Content-Range " + contentRange + " for bytes " + rangeStart + "-" + rangeEnd);
+            }
+
+            // Writing at the range's own offset, so the ranges can complete in any order
+            long position = rangeStart;
+            try (InputStream in = response.getEntity().getContent()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, bytesRead);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
                     }
                 }
             }
+            if (position != rangeEnd + 1) {
+                throw new IOException("Range " + rangeStart + "-" + rangeEnd + " ended early at byte " + position);
+            }
+        }
+    }
+
+    private void verify(RemoteFile remote, Path partFile) throws IOException {
+        long actualLength = Files.size(partFile);
+        if (remote.length >= 0 && actualLength != remote.length) {
+            throw new IOException("Downloaded ZIP has " + actualLength + " bytes, expected " + remote.length);
+        }
+
+        if (remote.sha256 == null) {
+            // Nothing to compare against; the cache hashes the file only once it needs a key
+            logger.info("Server sent no digest, downloaded ZIP verified by length only");
+            return;
+        }
+        String actualSha256 = sha256(partFile);
+        if (!remote.sha256.equals(actualSha256)) {
+            // A corrupt file must not be resumed, the next attempt starts from scratch
+            Files.deleteIfExists(partFile);
+            Files.deleteIfExists(Path.of(partFile + ".state"));
+            throw new IOException("Downloaded ZIP digest mismatch: expected sha-256=" + remote.sha256 + " but was " + actualSha256);
+        }
+        logger.info("Downloaded ZIP sha-256={}", actualSha256);
+    }
+
+    /**
+     * Runs the call, retrying I/O failures and retryable HTTP answers with exponential backoff.
+     */
+    private <T> T withRetries(String description, IOCall<T> call) throws IOException {
+        int maxRetries = appConfig.getDownloadMaxRetries();
+        long backoff = appConfig.getDownloadRetryBackoffMs();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call.run();
+            } catch (IOException e) {
+                if (e instanceof RemoteChangedException || e instanceof HttpStatusException && !((HttpStatusException) e).isRetryable()
+                        || attempt >= maxRetries) {
+                    throw e;
+                }
+                logger.warn("Download {} failed (attempt {}/{}): {}", description, attempt + 1, maxRetries + 1, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while retrying " + description, ie);
+                }
+                backoff *= 2;
+            }
+        }
+    }
+
+    /**
+     * Creates a request to the source once its request rate allows one, retries included.
+     */
+    private HttpGet newRequest(Source source, String zipUrl) throws IOException {
+        source.awaitRequestRate();
+        HttpGet request = new HttpGet(zipUrl);
+        request.addHeader("Authorization", "Basic " + source.getBasicAuth());
+        request.addHeader("Accept", "application/zip");
+        return request;
+    }
+
+    private IOException httpFailure(CloseableHttpResponse response, int statusCode) throws IOException {
+        try {
+            String responseMessage = response.getEntity() != null ? EntityUtils.toString(response.getEntity()) : "";
+            return new HttpStatusException(statusCode, "Failed to download ZIP: " + statusCode + " - " + responseMessage);
+        } catch (ParseException e) {
+            throw new IOException("Failed to parse error response: " + e.getMessage(), e);
+        }
+    }
+
+    private static void awaitAll(List<Future<Void>> futures) throws IOException {
+        IOException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause().getMessage(), e.getCause());
+                    futures.forEach(f -> f.cancel(true));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new IOException("Interrupted while downloading", e);
+            } catch (CancellationException e) {
+                // Cancelled after another range failed
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static String headerValue(Header header) {
+        return header != null ? header.getValue() : null;
+    }
+
+    private static long parseTotalLength(String contentRange) throws IOException {
+        int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+        if (slash < 0 || contentRange.endsWith("*")) {
+            throw new IOException("Server did not report the ZIP size: Content-Range " + contentRange);
+        }
+        return Long.parseLong(contentRange.substring(slash + 1).trim());
+    }
+
+    /**
+     * Reads an RFC 3230 "Digest: sha-256=<base64>" header, returned as lower-case hex.
+     */
+    private static String parseSha256Digest(Header[] headers) {
+        for (Header header : headers) {
+            for (String part : header.getValue().split(",")) {
+                String[] pair = part.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].equalsIgnoreCase("sha-256")) {
+                    return HexFormat.of().formatHex(Base64.getDecoder().decode(pair[1].trim()));
+                }
+            }
+        }
+        return null;
+    }
+
+    static String sha256(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOCall<T> {
+        T run() throws IOException;
+    }
+
+    static class HttpStatusException extends IOException {
+        final int statusCode;
+
+        HttpStatusException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        boolean isRetryable() {
+            return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+        }
+    }
+
+    /**
+     * The remote file changed between the probe and a range, its part file must be discarded.
+     */
+    static class RemoteChangedException extends IOException {
+        RemoteChangedException(String message) {
+            super(message);
+        }
+    }
+
+    private static class RemoteFile {
+        long length = -1;
+        boolean supportsRanges;
+        boolean notModified;
+        String etag;
+        String lastModified;
+        String sha256;
+
+        /**
+         * The If-Range validator of the version probed: its strong ETag, else its Last-Modified.
+         */
+        String rangeValidator() {
+            return etag != null && !etag.startsWith("W/") ? etag : lastModified;
+        }
+    }
+
+    /**
+     * Completed range offsets of a part file, persisted next to it so an interrupted
+     * download resumes where it stopped. The state is discarded when the remote file or the
+     * chunk size changed, and never reused without an ETag to identify the remote file.
+     */
+    private static class RangeState {
+        private final Path stateFile;
+        private final String header;
+        private final Set<Long> completed = new HashSet<>();
+        private boolean discarded;
+
+        private RangeState(Path stateFile, RemoteFile remote, long chunkSize) {
+            this.stateFile = stateFile;
+            this.header = "length=" + remote.length + " chunk=" + chunkSize + " etag=" + remote.etag;
+        }
+
+        static RangeState load(Path stateFile, RemoteFile remote, long chunkSize) throws IOException {
+            RangeState state = new RangeState(stateFile, remote, chunkSize);
+            if (remote.etag != null && Files.exists(stateFile)) {
+                List<String> lines = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && lines.get(0).equals(state.header)) {
+                    for (String line : lines.subList(1, lines.size())) {
+                        if (!line.isBlank()) {
+                            state.completed.add(Long.parseLong(line.trim()));
+                        }
+                    }
+                }
+            }
+            return state;
+        }
+
+        void save() throws IOException {
+            Files.writeString(stateFile, header + "\n", StandardCharsets.UTF_8);
+        }
+
+        synchronized void markCompleted(long rangeStart) throws IOException {
+            if (discarded) {
+                throw new IOException("Range " + rangeStart + " belongs to a discarded download");
+            }
+            completed.add(rangeStart);
+            Files.writeString(stateFile, rangeStart + "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+
+        synchronized void discard() {
+            discarded = true;
         }
     }
 }
@@ -0,0 +1,246 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.DuckDBConfig;
+import com.example.parquetTest.utils.DuckDBUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Owns the single DuckDB instance of the application. The database is opened and
+ * configured once at startup, and callers borrow duplicate connections from a
+ * bounded pool; closing a borrowed connection hands it back to the pool. Every pooled
+ * connection keeps a StatementCache of its prepared statements.
+ */
+@Service
+public class DuckDBService {
+    private static final Logger logger = LoggerFactory.getLogger(DuckDBService.class);
+
+    @Autowired
+    private DuckDBConfig duckDBConfig;
+
+    @Autowired
+    private ResourceGovernor resourceGovernor;
+
+    private Connection database;
+    private BlockingQueue<Connection> idleConnections;
+    private Semaphore permits;
+    private final Map<Connection, StatementCache> statementCaches = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    @PostConstruct
+    public void open() throws SQLException {
+        // Step 1: Opening the database once, the root connection keeps the instance alive
+        database = DriverManager.getConnection(duckDBConfig.getJdbcUrl());
+        applySettings(database);
+
+        // Step 2: Warming up the pool so the first requests don't pay for connection setup
+        idleConnections = new LinkedBlockingQueue<>();
+        permits = new Semaphore(duckDBConfig.getPoolSize(), true);
+        for (int i = 0; i < duckDBConfig.getPoolSize(); i++) {
+            Connection conn = DuckDBUtil.duplicate(database);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SELECT 1");
+            }
+            idleConnections.add(conn);
+        }
+        logger.info("DuckDB opened ({}) with {} pooled connections", duckDBConfig.getJdbcUrl(), duckDBConfig.getPoolSize());
+    }
+
+    /**
+     * Borrows a connection to the shared database, waiting up to app.duckdb.pool-timeout-ms
+     * when every pooled connection is in use.
+     */
+    public Connection getConnection() throws SQLException {
+        try {
+            if (!permits.tryAcquire(duckDBConfig.getPoolTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a DuckDB connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a DuckDB connection", e);
+        }
+
+        try {
+            Connection conn = idleConnections.poll();
+            if (conn == null || conn.isClosed()) {
+                if (conn != null) {
+                    discardStatements(conn);
+                }
+                conn = DuckDBUtil.duplicate(database);
+            }
+            return pooled(conn);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * The prepared statement cache of a borrowed connection; it outlives the borrow and is
+     * closed with the pooled connection.
+     */
+    public StatementCache statements(Connection conn) throws SQLException {
+        Connection physical = conn.unwrap(DuckDBConnection.class);
+        return statementCaches.computeIfAbsent(physical,
+                k -> new StatementCache(physical, duckDBConfig.getStatementCacheSize()));
+    }
+
+    /**
+     * Applies the ResourceGovernor's budget and the configured settings; they are global to
+     * the database instance, so every pooled connection runs with them.
+     */
+    public void applySettings(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET memory_limit=" + DuckDBUtil.quoteLiteral(resourceGovernor.getMemoryLimit()));
+            stmt.execute("SET threads=" + resourceGovernor.getThreads());
+            stmt.execute("SET temp_directory=" + DuckDBUtil.quoteLiteral(resourceGovernor.getTempDirectory()));
+            stmt.execute("SET preserve_insertion_order=" + duckDBConfig.isPreserveInsertionOrder());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.duckdb.checkpoint-interval-ms:300000}",
+            initialDelayString = "${app.duckdb.checkpoint-interval-ms:300000}")
+    public void checkpoint() {
+        if (duckDBConfig.isInMemory()) {
+            return;
+        }
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CHECKPOINT");
+            logger.debug("DuckDB checkpoint completed");
+        } catch (SQLException e) {
+            // A checkpoint is skipped while other transactions are running, the next one catches up
+            logger.debug("DuckDB checkpoint skipped: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        Connection conn;
+        while ((conn = idleConnections.poll()) != null) {
+            closeQuietly(conn);
+        }
+        if (!duckDBConfig.isInMemory()) {
+            try (Statement stmt = database.createStatement()) {
+                stmt.execute("CHECKPOINT");
+            } catch (SQLException e) {
+                logger.warn("Final DuckDB checkpoint failed: {}", e.getMessage());
+            }
+        }
+        closeQuietly(database);
+        logger.info("DuckDB closed");
+    }
+
+    private Connection pooled(Connection conn) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (released.compareAndSet(false, true)) {
+                                release(conn);
+                            }
+                            return null;
+                        case "isClosed":
+                            if (released.get()) {
+                                return true;
+                            }
+                            break;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            if (released.get()) {
+                                throw new SQLException("Connection has already been returned to the pool");
+                            }
+                    }
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void release(Connection conn) {
+        try {
+            if (!conn.isClosed()) {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+                dropTemporaryObjects(conn);
+                idleConnections.offer(conn);
+            }
+        } catch (SQLException e) {
+            logger.warn("Discarding DuckDB connection: {}", e.getMessage());
+            closeQuietly(conn);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Temporary tables and views live as long as the connection, so a borrower that failed
+     * before dropping its own must not hand them on to the next one.
+     */
+    private void dropTemporaryObjects(Connection conn) throws SQLException {
+        List<String> drops = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT 'TABLE', table_name FROM duckdb_tables() WHERE temporary " +
+                     "UNION ALL SELECT 'VIEW', view_name FROM duckdb_views() WHERE temporary AND NOT internal")) {
+            while (rs.next()) {
+                drops.add("DROP " + rs.getString(1) + " IF EXISTS temp.main.\"" + rs.getString(2).replace("\"", "\"\"") + "\"");
+            }
+        }
+        if (!drops.isEmpty()) {
+            logger.debug("Dropping {} temporary objects left on a returned DuckDB connection", drops.size());
+            try (Statement stmt = conn.createStatement()) {
+                for (String drop : drops) {
+                    stmt.execute(drop);
+                }
+            }
+        }
+    }
+
+    private void discardStatements(Connection conn) {
+        StatementCache statements = statementCaches.remove(conn);
+        if (statements != null) {
+            statements.close();
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        discardStatements(conn);
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.warn("Error closing DuckDB connection: {}", e.getMessage());
+        }
+    }
+}
@@ -1,13 +1,37 @@
 package com.example.parquetTest.service;
 
+import com.example.parquetTest.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 @Service
 public class ExtractionService {
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionService.class);
+
+    @Autowired
+    private AppConfig appConfig;
+
+    @Autowired
+    private ThreadPoolExecutor extractionExecutor;
 
     public Map<String, List<byte[]>> extractParquetFromZip(File zipFile) throws IOException {
         Map<String, List<byte[]>> parquetFiles = new HashMap<>();
@@ -32,4 +56,273 @@ public class ExtractionService {
         }
         return parquetFiles;
     }
+
+    @FunctionalInterface
+    public interface FolderSink {
+        void accept(String folder, List<ExtractedFile> files) throws InterruptedException;
+    }
+
+    /**
+     * Streams every parquet entry of the ZIP straight into the scratch directory
+     * (one sub-directory per folder), so the heap never holds file contents.
+     */
+    public Map<String, List<ExtractedFile>> extractParquetToDirectory(File zipFile, Path scratchDir,
+                                                                      JobContext ctx) throws IOException {
+        return extractParquetToDirectory(zipFile, scratchDir, ctx, (folder, files) -> { });
+    }
+
+    /**
+     * Extracts like extractParquetToDirectory, handing each folder to onFolder as soon as
+     * its last entry is on disk. The folders are planned from the ZIP's central directory
+     * first and extracted one after the other, largest first, so the longest folder starts
+     * filtering earliest; the entries are inflated concurrently on the extraction pool.
+     * onFolder is called from this thread and may block to hold the extraction back.
+     */
+    public Map<String, List<ExtractedFile>> extractParquetToDirectory(File zipFile, Path scratchDir, JobContext ctx,
+                                                                      FolderSink onFolder) throws IOException {
+        Path root = scratchDir.toAbsolutePath().normalize();
+        // Progress is tracked in compressed bytes, against the size of the ZIP
+        JobContext.StageProgress progress = ctx.stage(JobContext.EXTRACT);
+        progress.start(zipFile.length());
+
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            // Step 1: Planning the folders and their targets from the central directory
+            List<FolderPlan> plan = planFolders(zip, root);
+            for (Iterator<FolderPlan> it = plan.iterator(); it.hasNext(); ) {
+                FolderPlan folder = it.next();
+                if (!ctx.includesFolder(folder.folder)) {
+                    // Not ingested from the job's source, never inflated
+                    logger.info("Skipping folder {}, not among the folders of source {}", folder.folder, ctx.getSourceName());
+                    progress.addBytes(folder.compressedBytes);
+                    it.remove();
+                }
+            }
+            Deque<PlannedEntry> pending = new ArrayDeque<>();
+            Map<String, ExtractedFile[]> extracted = new HashMap<>();
+            Map<String, Integer> remainingEntries = new HashMap<>();
+            for (FolderPlan folder : plan) {
+                Files.createDirectories(root.resolve(folder.folder));
+                extracted.put(folder.folder, new ExtractedFile[folder.entries.size()]);
+                remainingEntries.put(folder.folder, folder.entries.size());
+                pending.addAll(folder.entries);
+            }
+
+            // Step 2: Inflating a bounded window of entries at a time, one entry per task
+            Map<String, List<ExtractedFile>> parquetFiles = new LinkedHashMap<>();
+            CompletionService<PlannedEntry> completions = new ExecutorCompletionService<>(extractionExecutor);
+            AtomicBoolean aborted = new AtomicBoolean();
+            int window = 2 * extractionExecutor.getMaximumPoolSize();
+            int inFlight = 0;
+            try {
+                while (!pending.isEmpty() || inFlight > 0) {
+                    ctx.checkCancelled();
+                    while (inFlight < window && !pending.isEmpty()) {
+                        PlannedEntry entry = pending.poll();
+                        completions.submit(() -> extractEntry(zip, entry, aborted));
+                        inFlight++;
+                    }
+                    PlannedEntry done = takeCompleted(completions);
+                    inFlight--;
+
+                    // Step 3: Handing over each folder once its last entry is on disk, its files in central directory order
+                    ExtractedFile[] folderFiles = extracted.get(done.folder);
+                    folderFiles[done.index] = done.file;
+                    progress.addBytes(Math.max(0, done.entry.getCompressedSize()));
+                    if (remainingEntries.merge(done.folder, -1, Integer::sum) == 0) {
+                        List<ExtractedFile> files = Arrays.asList(folderFiles);
+                        parquetFiles.put(done.folder, new ArrayList<>(files));
+                        publish(onFolder, done.folder, files);
+                    }
+                }
+            } finally {
+                if (inFlight > 0) {
+                    // The scratch directory is deleted on failure, so no task may still be writing to it
+                    aborted.set(true);
+                    drain(completions, inFlight);
+                }
+            }
+            progress.complete();
+            return parquetFiles;
+        }
+    }
+
+    /**
+     * The parquet folders of the ZIP with their entry count and sizes, read from the central
+     * directory without inflating any entry, largest uncompressed folder first.
+     */
+    public List<FolderPlan> planFolders(File zipFile, Path scratchDir) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            return planFolders(zip, scratchDir.toAbsolutePath().normalize());
+        }
+    }
+
+    private List<FolderPlan> planFolders(ZipFile zip, Path root) throws IOException {
+        Map<String, FolderPlan> folders = new LinkedHashMap<>();
+        Map<Path, String> targets = new HashMap<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory() || !entry.getName().endsWith(".parquet")) {
+                continue;
+            }
+            if (entry.getName().indexOf('/') <= 0) {
+                // Parquet files are grouped by their top-level folder, a file outside of one has no table
+                logger.warn("Skipping ZIP entry {} outside of a folder", entry.getName());
+                continue;
+            }
+            String folder = entry.getName().split("/")[0];
+            Path target = resolveTarget(root, folder, entry.getName());
+            if (targets.putIfAbsent(target, entry.getName()) != null) {
+                // Flattening maps e.g. a/b.parquet and a_b.parquet to the same file
+                throw new IOException("ZIP entry " + entry.getName() + " collides with an earlier entry at " + target);
+            }
+            folders.computeIfAbsent(folder, FolderPlan::new).add(entry, target);
+        }
+        List<FolderPlan> plan = new ArrayList<>(folders.values());
+        plan.sort(Comparator.comparingLong((FolderPlan folder) -> folder.uncompressedBytes).reversed());
+        return plan;
+    }
+
+    /**
+     * Inflates one entry into its target, checking the CRC the central directory recorded.
+     */
+    private static PlannedEntry extractEntry(ZipFile zip, PlannedEntry planned, AtomicBoolean aborted) throws IOException {
+        if (aborted.get()) {
+            return planned;
+        }
+        ZipEntry entry = planned.entry;
+        CheckedInputStream checked = new CheckedInputStream(zip.getInputStream(entry), new CRC32());
+        long size;
+        try (checked; OutputStream out = new BufferedOutputStream(Files.newOutputStream(planned.target,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 64 * 1024)) {
+            size = checked.transferTo(out);
+        } catch (FileAlreadyExistsException e) {
+            throw new IOException("ZIP entry " + entry.getName() + " collides with an existing file at " + planned.target, e);
+        }
+        long crc = checked.getChecksum().getValue();
+        if (entry.getCrc() != -1 && entry.getCrc() != crc) {
+            throw new IOException("CRC mismatch in ZIP entry " + entry.getName());
+        }
+        planned.file = new ExtractedFile(planned.target, planned.folder, size, crc);
+        return planned;
+    }
+
+    private static PlannedEntry takeCompleted(CompletionService<PlannedEntry> completions) throws IOException {
+        try {
+            return completions.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Extraction failed", e.getCause());
+        }
+    }
+
+    private static void drain(CompletionService<PlannedEntry> completions, int inFlight) {
+        boolean interrupted = false;
+        for (int i = 0; i < inFlight; i++) {
+            while (true) {
+                try {
+                    completions.take();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void publish(FolderSink onFolder, String folder, List<ExtractedFile> files) throws IOException {
+        try {
+            onFolder.accept(folder, Collections.unmodifiableList(new ArrayList<>(files)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while handing over folder " + folder);
+        }
+    }
+
+    /**
+     * Creates a fresh per-run scratch directory under app.scratch.dir.
+     */
+    public Path createScratchDirectory() throws IOException {
+        Path base = Paths.get(appConfig.getScratchDir());
+        Files.createDirectories(base);
+        return Files.createTempDirectory(base, "parquet_scratch_");
+    }
+
+    /**
+     * Flattens the entry path below its folder and rejects entries escaping the scratch directory.
+     */
+    private Path resolveTarget(Path root, String folder, String entryName) throws IOException {
+        String fileName = entryName.substring(folder.length()).replaceAll("^/+", "").replace('/', '_');
+        Path target = root.resolve(folder).resolve(fileName).normalize();
+        if (!target.startsWith(root) || !root.equals(target.getParent().getParent())) {
+            throw new IOException("ZIP entry outside of scratch directory: " + entryName);
+        }
+        return target;
+    }
+
+    /**
+     * One parquet folder of a ZIP as its central directory describes it.
+     */
+    public static class FolderPlan {
+        public final String folder;
+        public long compressedBytes;
+        public long uncompressedBytes;
+        private final List<PlannedEntry> entries = new ArrayList<>();
+
+        FolderPlan(String folder) {
+            this.folder = folder;
+        }
+
+        private void add(ZipEntry entry, Path target) {
+            entries.add(new PlannedEntry(folder, entries.size(), entry, target));
+            compressedBytes += Math.max(0, entry.getCompressedSize());
+            uncompressedBytes += Math.max(0, entry.getSize());
+        }
+
+        public int getEntryCount() {
+            return entries.size();
+        }
+    }
+
+    private static class PlannedEntry {
+        final String folder;
+        // Position of the entry within its folder in the central directory
+        final int index;
+        final ZipEntry entry;
+        final Path target;
+        ExtractedFile file;
+
+        PlannedEntry(String folder, int index, ZipEntry entry, Path target) {
+            this.folder = folder;
+            this.index = index;
+            this.entry = entry;
+            this.target = target;
+        }
+    }
+
+    public static class ExtractedFile {
+        public final Path path;
+        public final String folder;
+        public final long size;
+        public final long crc;
+
+        public ExtractedFile(Path path, String folder, long size, long crc) {
+            this.path = path;
+            this.folder = folder;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        public String getFileName() {
+            return path.getFileName().toString();
+        }
+    }
 }
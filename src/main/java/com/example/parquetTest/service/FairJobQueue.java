@@ -0,0 +1,100 @@
+package com.example.parquetTest.service;
+
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+
+/**
+ * Hands the jobs of all sources to the job executor, taking the sources in turn so a source
+ * with a long backlog never delays the next job of another, and never running more jobs of
+ * a source at once than its limit. Jobs wait here rather than in the executor's queue, so
+ * the executor only ever holds jobs that can start.
+ */
+class FairJobQueue {
+
+    private final ThreadPoolExecutor executor;
+    // Waiting jobs of each source, the sources in the order they first submitted
+    private final Map<String, Deque<Queued>> waiting = new LinkedHashMap<>();
+    private final Map<String, Integer> running = new HashMap<>();
+    private int inFlight;
+    private String lastServed;
+
+    FairJobQueue(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Queues the job of the source, at most maxRunning of which (0 for no limit) run at once.
+     * onRejected is called instead of the job when the executor is shut down.
+     */
+    synchronized void submit(String source, int maxRunning, Runnable job, Consumer<RejectedExecutionException> onRejected) {
+        waiting.computeIfAbsent(source, k -> new ArrayDeque<>()).add(new Queued(job, maxRunning, onRejected));
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (inFlight < executor.getMaximumPoolSize()) {
+            String source = next();
+            if (source == null) {
+                return;
+            }
+            Queued queued = waiting.get(source).poll();
+            running.merge(source, 1, Integer::sum);
+            inFlight++;
+            lastServed = source;
+            try {
+                executor.execute(() -> {
+                    try {
+                        queued.job.run();
+                    } finally {
+                        done(source);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.merge(source, -1, Integer::sum);
+                inFlight--;
+                if (!executor.isShutdown()) {
+                    // The finishing jobs still hold their threads; the next one done dispatches again
+                    waiting.get(source).addFirst(queued);
+                    return;
+                }
+                queued.onRejected.accept(e);
+            }
+        }
+    }
+
+    /**
+     * The first source after the one served last that has a waiting job and is below its limit.
+     */
+    private String next() {
+        List<String> sources = new ArrayList<>(waiting.keySet());
+        int start = lastServed != null ? sources.indexOf(lastServed) + 1 : 0;
+        for (int i = 0; i < sources.size(); i++) {
+            String source = sources.get((start + i) % sources.size());
+            Queued head = waiting.get(source).peek();
+            if (head != null && (head.maxRunning <= 0 || running.getOrDefault(source, 0) < head.maxRunning)) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void done(String source) {
+        running.merge(source, -1, Integer::sum);
+        inFlight--;
+        dispatch();
+    }
+
+    private static class Queued {
+        final Runnable job;
+        final int maxRunning;
+        final Consumer<RejectedExecutionException> onRejected;
+
+        Queued(Runnable job, int maxRunning, Consumer<RejectedExecutionException> onRejected) {
+            this.job = job;
+            this.maxRunning = maxRunning;
+            this.onRejected = onRejected;
+        }
+    }
+}
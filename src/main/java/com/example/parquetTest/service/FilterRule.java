@@ -0,0 +1,79 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.utils.DuckDBUtil;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How the delta pipeline selects a day of a folder: the date column, the time zone whose
+ * calendar day is selected, days of lookback before it and extra SQL predicates. The WHERE
+ * clause is compiled once, with the window bounds as its two parameters. Timestamps are stored
+ * in UTC, so the window is the zone's day converted to UTC.
+ */
+public class FilterRule {
+
+    private final String folder;
+    private final String dateColumn;
+    private final ZoneId zone;
+    private final int lookbackDays;
+    private final List<String> predicates;
+    private final String where;
+
+    public FilterRule(String folder, String dateColumn, ZoneId zone, int lookbackDays, List<String> predicates) {
+        this.folder = folder;
+        this.dateColumn = dateColumn;
+        this.zone = zone;
+        this.lookbackDays = lookbackDays;
+        this.predicates = Collections.unmodifiableList(new ArrayList<>(predicates));
+        String column = DuckDBUtil.quoteIdentifier(dateColumn);
+        StringBuilder where = new StringBuilder(column + " >= ? AND " + column + " < ?");
+        for (String predicate : predicates) {
+            where.append(" AND (").append(predicate).append(")");
+        }
+        this.where = where.toString();
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public String getDateColumn() {
+        return dateColumn;
+    }
+
+    /**
+     * The WHERE clause of the rule, binding windowStart and windowEnd.
+     */
+    public String getWhere() {
+        return where;
+    }
+
+    /**
+     * The first instant selected for the days from..to, in UTC.
+     */
+    public LocalDateTime windowStart(LocalDate from) {
+        return toUtc(from.minusDays(lookbackDays));
+    }
+
+    /**
+     * The end (exclusive) of the days from..to, in UTC.
+     */
+    public LocalDateTime windowEnd(LocalDate to) {
+        return toUtc(to.plusDays(1));
+    }
+
+    private LocalDateTime toUtc(LocalDate day) {
+        return day.atStartOfDay(zone).withZoneSameInstant(ZoneOffset.UTC).toLocalDateTime();
+    }
+
+    @Override
+    public String toString() {
+        return folder + "{" + dateColumn + "," + zone + ",lookback=" + lookbackDays + "," + predicates + "}";
+    }
+}
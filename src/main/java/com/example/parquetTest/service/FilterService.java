@@ -1,95 +1,188 @@
 package com.example.parquetTest.service;
 
 
+import com.example.parquetTest.config.FilterRuleConfig;
+import com.example.parquetTest.config.IncrementalConfig;
+import com.example.parquetTest.config.OutputConfig;
+import com.example.parquetTest.config.ProjectionConfig;
 import com.example.parquetTest.utils.DuckDBUtil;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 
 @Service
 public class FilterService {
 
-    public Map<String, ProcessService.FilterResult> filterParquetFiles(Map<String, List<byte[]>> files) {
+    private static final String JSON_DIR = "Json_filtered";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Autowired
+    private FolderScheduler folderScheduler;
+
+    @Autowired
+    private IncrementalConfig incrementalConfig;
+
+    @Autowired
+    private IncrementalService incrementalService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private OutputConfig outputConfig;
+
+    @Autowired
+    private ParquetFooterIndex parquetFooterIndex;
+
+    @Autowired
+    private ProjectionConfig projectionConfig;
+
+    @Autowired
+    private FilterRuleConfig filterRuleConfig;
+
+    @Autowired
+    private DuckDBService duckDBService;
+
+    public Map<String, ProcessService.FilterResult> filterParquetFiles(Map<String, List<ExtractionService.ExtractedFile>> files,
+                                                                       JobContext ctx, Consumer<File> onOutputFile) throws InterruptedException {
         Map<String, ProcessService.FilterResult> folderResults = new HashMap<>();
-        String editedDate = LocalDate.now().minusDays(4).toString(); // SYSDATE-1
-
-        try (Connection conn = DuckDBUtil.getConnection();
-             Statement stmt = conn.createStatement()) {
-
-            for (Map.Entry<String, List<byte[]>> entry : files.entrySet()) {
-                String folder = entry.getKey();
-                ProcessService.FilterResult filterResult = new ProcessService.FilterResult(folder, editedDate);
-
-                // Setting "edited_date" for all except "view_events", which uses "event_time"
-                String dateColumn = folder.equals("view_events") ? "event_time" : "edited_date";
-
-                for (byte[] parquetBytes : entry.getValue()) {
-                    // Step 1: Saving the Parquet file to a temporary location
-                    File tempParquetFile = saveTempParquetFile(parquetBytes);
-
-                    // Step 2: Loading the parquet files into DuckDB
-                    String tempTable = "temp_parquet_" + UUID.randomUUID().toString().replace("-", "_");
-                    stmt.execute(String.format("CREATE TEMP TABLE %s AS SELECT * FROM read_parquet('%s');",
-                            tempTable, tempParquetFile.getAbsolutePath()));
-
-                    // Step 3: Converting the datetime to YYYY-MM-DD
-                    stmt.execute(String.format("ALTER TABLE %s ADD COLUMN filter_date STRING;", tempTable));
-                    stmt.execute(String.format("UPDATE %s SET filter_date = strftime('%%Y-%%m-%%d', CAST(%s AS TIMESTAMP));",
-                            tempTable, dateColumn));
-
-                    // Step 4: Filtering the Data using edited_date condition
-                    String filterQuery = String.format("SELECT * FROM %s WHERE filter_date = '%s';", tempTable, editedDate);
-                    try (ResultSet rs = stmt.executeQuery(filterQuery)) {
-                        while (rs.next()) {
-                            Map<String, Object> row = new HashMap<>();
-                            int columnCount = rs.getMetaData().getColumnCount();
-                            for (int i = 1; i <= columnCount; i++) {
-                                row.put(rs.getMetaData().getColumnName(i), rs.getObject(i));
-                            }
-                            filterResult.addData(row);
-                        }
-                    }
-
-                    // Step 5: Counting the rows and adding the File Details
-                    String countQuery = String.format("SELECT COUNT(*) AS cnt FROM %s WHERE filter_date = '%s';",
-                            tempTable, editedDate);
-                    try (ResultSet rs = stmt.executeQuery(countQuery)) {
-                        if (rs.next()) {
-                            int rowCount = rs.getInt("cnt");
-                            filterResult.addFile(tempParquetFile.getName(), rowCount);
-                        }
-                    }
-
-                    // Step 6: Dropping the temporarily created table
-                    stmt.execute("DROP TABLE " + tempTable);
-                    tempParquetFile.delete();
-                }
-
-                // Step 7: Adding the generated results to map
-                folderResults.put(folder, filterResult);
+        LocalDate editedDate = ctx.getSnapshotDate();
+
+        // Folders run concurrently, largest first, each on its own pooled connection.
+        // A failing folder is logged by the scheduler, cancellation propagates to the job.
+        // Each output file is handed to onOutputFile as soon as its folder is complete.
+        folderResults.putAll(folderScheduler.runPerFolder(files, ctx, JobContext.FILTER,
+                (folderConn, folder, parquetFiles) -> filterFolder(folderConn, folder, parquetFiles, editedDate, ctx, onOutputFile)));
+
+        return folderResults;
+    }
+
+    /**
+     * Opens a filter run to which the extraction submits each folder as soon as it is on disk.
+     */
+    public FolderScheduler.Session<ProcessService.FilterResult> startFilter(JobContext ctx, Consumer<File> onOutputFile) {
+        return folderScheduler.open(ctx, JobContext.FILTER,
+                (folderConn, folder, parquetFiles) -> filterFolder(folderConn, folder, parquetFiles, ctx.getSnapshotDate(), ctx, onOutputFile));
+    }
+
+    /**
+     * The settings that shape the output of a run, so a changed setting never reuses a cached output.
+     */
+    public String describeSettings(JobContext ctx) {
+        return "incremental=" + incrementalConfig.isEnabled() + ";output=" + outputConfig.describe(ctx)
+                + ";projection=" + projectionConfig.describe() + ";filter=" + filterRuleConfig.describe()
+                + ";source=" + (ctx.getSource() != null ? ctx.getSource().describe() : Source.DEFAULT);
+    }
+
+    private ProcessService.FilterResult filterFolder(Connection conn, String folder,
+                                                     List<ExtractionService.ExtractedFile> parquetFiles,
+                                                     LocalDate editedDate, JobContext ctx,
+                                                     Consumer<File> onOutputFile) throws Exception {
+        long start = System.nanoTime();
+        ProcessService.FilterResult filterResult = new ProcessService.FilterResult(folder, editedDate.toString());
+
+        // The folder's rule from app.filter.*: its date column, the day's window and extra predicates
+        FilterRule rule = filterRuleConfig.ruleFor(folder);
+        String dateColumn = rule.getDateColumn();
+
+        // Step 1: Preparing the output file in the Json_filtered directory, in the folder's format
+        OutputFormat format = outputConfig.formatFor(folder, ctx);
+        filterResult.format = format.getName();
+        File jsonDir = ctx.outputFile(JSON_DIR);
+        jsonDir.mkdirs();
+        String jsonFilePath = jsonDir.getPath() + "/" + folder + "-" + editedDate.format(DATE_FORMATTER) + "." + format.getExtension();
+
+        // Step 2: Reading the footers; files with no row group that can hold the day are never opened by DuckDB
+        LocalDateTime from = rule.windowStart(editedDate);
+        LocalDateTime to = rule.windowEnd(editedDate);
+        ParquetFooterIndex.Pruned pruned = parquetFooterIndex.prune(parquetFiles, dateColumn, from, to);
+        pipelineMetrics.recordPruning(JobService.PROCESS, folder, pruned.skippedFiles, pruned.skippedRowGroups);
+
+        int rowCount;
+        long rowsScanned;
+        if (incrementalConfig.isEnabled()) {
+            // Step 3: Merging the snapshot into the persisted folder table, then exporting the day from it.
+            // The merge window starts at the folder's watermark, so every file takes part.
+            List<String> parquetPaths = new ArrayList<>();
+            for (ExtractionService.ExtractedFile parquetFile : parquetFiles) {
+                parquetPaths.add(parquetFile.path.toAbsolutePath().toString());
+            }
+            incrementalService.merge(conn, folder, dateColumn, parquetPaths, ctx);
+            rowCount = incrementalService.exportRange(conn, folder, editedDate, editedDate, jsonFilePath, format, ctx);
+            rowsScanned = pruned.totalRows;
+        } else {
+            // Step 3: One scan over the remaining parquet files of the folder, exported by DuckDB itself.
+            // The half-open typed range on the raw date column lets DuckDB skip the remaining
+            // row groups outside the day by the same statistics, and COPY reports the number of rows written.
+            // The folder's projection is the select list, so only its column chunks are read.
+            List<String> parquetPaths = new ArrayList<>();
+            for (ExtractionService.ExtractedFile parquetFile : pruned.files) {
+                parquetPaths.add(parquetFile.path.toAbsolutePath().toString());
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            FolderProjection projection = projectionConfig.forFolder(folder);
+            String selectList = projection.isAll() ? "*" : projection.selectList(DuckDBUtil.describe(conn,
+                    "SELECT * FROM read_parquet(" + DuckDBUtil.toListLiteral(parquetPaths) + ", union_by_name=true)").keySet());
+            rowCount = copyDay(conn, folder, rule, selectList, parquetPaths, from, to, jsonFilePath, format, ctx);
+            rowsScanned = pruned.candidateRows;
         }
 
-        return folderResults;
+        // Step 4: Adding the File Details from the exported row count
+        filterResult.addFile(folder, rowCount);
+        ctx.stage(JobContext.FILTER).addRows(rowCount);
+        long parquetBytes = 0;
+        for (ExtractionService.ExtractedFile parquetFile : parquetFiles) {
+            parquetBytes += parquetFile.size;
+        }
+        pipelineMetrics.recordFolder(JobService.PROCESS, folder, parquetFiles.size(), parquetBytes,
+                rowsScanned, rowCount, System.nanoTime() - start);
+        onOutputFile.accept(new File(jsonFilePath));
+
+        return filterResult;
     }
 
     /**
-     * Saves Parquet byte array to a temporary file.
+     * Runs the folder's COPY as the connection's cached statement: the files and the window are
+     * bound as parameters and DuckDB writes to a staging file of the connection, which then
+     * replaces the output file. The statement text only changes with the rule, the projected
+     * schema and the format, so it is parsed once per connection for every snapshot and day.
      */
-    private File saveTempParquetFile(byte[] parquetBytes) throws IOException {
-        File tempFile = File.createTempFile("parquet_temp_", ".parquet");
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            fos.write(parquetBytes);
+    private int copyDay(Connection conn, String folder, FilterRule rule, String selectList, List<String> parquetPaths,
+                        LocalDateTime from, LocalDateTime to, String jsonFilePath, OutputFormat format,
+                        JobContext ctx) throws SQLException, IOException {
+        StatementCache statements = duckDBService.statements(conn);
+        File staging = new File(ctx.outputFile(JSON_DIR), ".staging-" + statements.getId() + "-" + folder + "." + format.getExtension());
+        String copyQuery = String.format("COPY (SELECT %s FROM read_parquet(%s, union_by_name=true) WHERE %s) TO %s (%s)",
+                selectList, DuckDBUtil.FILE_LIST_PARAMETER, rule.getWhere(),
+                DuckDBUtil.quoteLiteral(staging.getPath()), format.getCopyOptions());
+
+        int rowCount;
+        PreparedStatement stmt = statements.prepare(copyQuery);
+        try (JobContext.TrackedStatement tracked = ctx.track(stmt)) {
+            stmt.setString(1, DuckDBUtil.joinFileList(parquetPaths));
+            stmt.setObject(2, from);
+            stmt.setObject(3, to);
+            rowCount = stmt.executeUpdate();
+        } catch (SQLException | RuntimeException e) {
+            // A bad predicate or a cancelled run; the next run prepares the statement afresh
+            statements.invalidate(copyQuery);
+            FileUtils.deleteQuietly(staging);
+            throw e;
         }
-        return tempFile;
+        Files.move(staging.toPath(), new File(jsonFilePath).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rowCount;
     }
 }
@@ -0,0 +1,93 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.utils.DuckDBUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * The columns written for one folder: which are kept, under which name and as which type.
+ * Rendered as the select list of the folder's scan, so DuckDB reads only the column chunks
+ * the output needs.
+ */
+public class FolderProjection {
+    private static final Logger logger = LoggerFactory.getLogger(FolderProjection.class);
+
+    private final String folder;
+    // Empty keeps every column of the scan
+    private final Set<String> included = new LinkedHashSet<>();
+    private final Set<String> excluded = new LinkedHashSet<>();
+    private final Map<String, String> renames = new LinkedHashMap<>();
+    private final Map<String, String> casts = new LinkedHashMap<>();
+
+    public FolderProjection(String folder) {
+        this.folder = folder;
+    }
+
+    public void include(String column) {
+        included.add(column);
+    }
+
+    public void exclude(String column) {
+        excluded.add(column);
+    }
+
+    public void rename(String column, String name) {
+        renames.put(column, name);
+    }
+
+    public void cast(String column, String type) {
+        casts.put(column, type);
+    }
+
+    /**
+     * True when nothing is configured, the scan is then written as SELECT *.
+     */
+    public boolean isAll() {
+        return included.isEmpty() && excluded.isEmpty() && renames.isEmpty() && casts.isEmpty();
+    }
+
+    /**
+     * The select list over a scan with the given columns, e.g. "id", CAST("size" AS BIGINT) AS "size_bytes".
+     * Configured columns the scan lacks are skipped with a warning, so a column dropped upstream
+     * does not fail the folder.
+     */
+    public String selectList(Collection<String> scanColumns) {
+        if (isAll()) {
+            return "*";
+        }
+        List<String> columns = new ArrayList<>();
+        for (String column : included.isEmpty() ? scanColumns : included) {
+            if (!scanColumns.contains(column)) {
+                logger.warn("Column {} of the projection of {} is not in its snapshot, skipping it", column, folder);
+            } else if (!excluded.contains(column)) {
+                columns.add(column);
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalStateException("The projection of " + folder + " leaves no column of " + scanColumns);
+        }
+
+        List<String> items = new ArrayList<>();
+        for (String column : columns) {
+            String item = DuckDBUtil.quoteIdentifier(column);
+            if (casts.containsKey(column)) {
+                item = "CAST(" + item + " AS " + casts.get(column) + ")";
+            }
+            if (renames.containsKey(column) || casts.containsKey(column)) {
+                item += " AS " + DuckDBUtil.quoteIdentifier(renames.getOrDefault(column, column));
+            }
+            items.add(item);
+        }
+        return String.join(", ", items);
+    }
+
+    /**
+     * The configuration in a stable form, e.g. for the cache key of outputs.
+     */
+    @Override
+    public String toString() {
+        return folder + "{include=" + included + ", exclude=" + excluded + ", rename=" + renames + ", cast=" + casts + "}";
+    }
+}
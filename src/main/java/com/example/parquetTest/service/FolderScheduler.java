@@ -0,0 +1,231 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.PipelineConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fans the folders of one snapshot out over the bounded folder executor.
+ * Every folder borrows its own pooled DuckDB connection, so all folders share
+ * one database instance while running their statements concurrently.
+ */
+@Service
+public class FolderScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(FolderScheduler.class);
+
+    @Autowired
+    private ThreadPoolExecutor folderExecutor;
+
+    @Autowired
+    private DuckDBService duckDBService;
+
+    @Autowired
+    private ResourceGovernor resourceGovernor;
+
+    @Autowired
+    private PipelineConfig pipelineConfig;
+
+    @FunctionalInterface
+    public interface FolderTask<R> {
+        R run(Connection folderConn, String folder, List<ExtractionService.ExtractedFile> files) throws Exception;
+    }
+
+    /**
+     * Runs the task for every folder, largest folder first, and collects the results by folder.
+     * A failing folder is logged and left out of the result, the other folders still complete.
+     * The stage's byte progress advances as folders finish; once the job is cancelled no
+     * further folder is started.
+     */
+    public <R> Map<String, R> runPerFolder(Map<String, List<ExtractionService.ExtractedFile>> files,
+                                           JobContext ctx, String stage, FolderTask<R> task) throws InterruptedException {
+        List<String> folders = largestFirst(files);
+        // Every folder is known up front, so all of them may wait for a slot
+        try (Session<R> session = open(ctx, stage, task, folders.size(), folders.size())) {
+            for (String folder : folders) {
+                session.submit(folder, files.get(folder));
+            }
+            return session.finish();
+        }
+    }
+
+    /**
+     * Opens a session to which folders are submitted as they become available, e.g. as the
+     * extraction finishes them, so the folder stage overlaps with the stage feeding it.
+     * At most app.pipeline.folder-queue-capacity folders wait for a free slot; beyond that
+     * submit blocks, which holds the feeding stage back.
+     */
+    public <R> Session<R> open(JobContext ctx, String stage, FolderTask<R> task) {
+        return open(ctx, stage, task, Integer.MAX_VALUE, pipelineConfig.getFolderQueueCapacity());
+    }
+
+    private <R> Session<R> open(JobContext ctx, String stage, FolderTask<R> task, int folderCount, int queueCapacity) {
+        // DuckDB's thread setting is global to the database instance; its scheduler shares
+        // these threads between the folder queries running concurrently on it.
+        int threadBudget = resourceGovernor.getThreads();
+        int concurrency = Math.max(1, Math.min(Math.min(folderExecutor.getMaximumPoolSize(), folderCount), threadBudget));
+        ResourceGovernor.Share share = resourceGovernor.join();
+        logger.info("Processing {} with up to {} concurrent folders ({} while sharing the budget) over {} DuckDB threads",
+                folderCount == Integer.MAX_VALUE ? "folders as they arrive" : folderCount + " folders",
+                concurrency, Math.min(concurrency, share.getFolderSlots()), threadBudget);
+        return new Session<>(ctx, ctx.stage(stage), task, concurrency, queueCapacity, share);
+    }
+
+    /**
+     * The folders of one stage run: submitted folders start in submission order, never more
+     * than the concurrency at once, nor more than the run's share of the resource budget while
+     * other runs are active. Closing an unfinished session stops its folders.
+     */
+    public class Session<R> implements AutoCloseable {
+        private final JobContext ctx;
+        private final JobContext.StageProgress progress;
+        private final FolderTask<R> task;
+        // Permits for submitted folders that have not started yet
+        private final Semaphore queued;
+        private final Deque<String> waiting = new ArrayDeque<>();
+        private final Map<String, List<ExtractionService.ExtractedFile>> files = new HashMap<>();
+        private final Map<String, CompletableFuture<R>> results = new LinkedHashMap<>();
+        private final Map<String, Future<?>> running = new HashMap<>();
+        private final int concurrency;
+        private final ResourceGovernor.Share share;
+        private boolean finished;
+
+        private Session(JobContext ctx, JobContext.StageProgress progress, FolderTask<R> task, int concurrency,
+                        int queueCapacity, ResourceGovernor.Share share) {
+            this.ctx = ctx;
+            this.progress = progress;
+            this.task = task;
+            this.queued = new Semaphore(Math.max(1, queueCapacity));
+            this.concurrency = concurrency;
+            this.share = share;
+            progress.start(0);
+        }
+
+        /**
+         * Starts the folder once a slot is free, blocking while the queue of waiting folders is full.
+         */
+        public void submit(String folder, List<ExtractionService.ExtractedFile> folderFiles) throws InterruptedException {
+            ctx.checkCancelled();
+            queued.acquire();
+            progress.addTotalBytes(totalBytes(folderFiles));
+            synchronized (this) {
+                files.put(folder, folderFiles);
+                results.put(folder, new CompletableFuture<>());
+                if (running.size() < allowedSlots()) {
+                    start(folder);
+                } else {
+                    waiting.add(folder);
+                }
+            }
+        }
+
+        /**
+         * Waits for every submitted folder and returns the results of those that succeeded.
+         */
+        public Map<String, R> finish() throws InterruptedException {
+            List<Map.Entry<String, CompletableFuture<R>>> submitted;
+            synchronized (this) {
+                submitted = new ArrayList<>(results.entrySet());
+            }
+            Map<String, R> folderResults = new HashMap<>();
+            for (Map.Entry<String, CompletableFuture<R>> entry : submitted) {
+                try {
+                    folderResults.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    if (ctx.isCancelled()) {
+                        throw new CancellationException("Job cancelled");
+                    }
+                    logger.error("Processing failed for folder {}: {}", entry.getKey(), e.getCause().getMessage(), e.getCause());
+                }
+            }
+            synchronized (this) {
+                finished = true;
+            }
+            share.close();
+            progress.complete();
+            return folderResults;
+        }
+
+        /**
+         * Stops the folders of a session that did not finish, e.g. after the feeding stage
+         * failed or the job was cancelled; their running statements are cancelled by the job.
+         */
+        @Override
+        public synchronized void close() {
+            share.close();
+            if (finished) {
+                return;
+            }
+            finished = true;
+            waiting.clear();
+            running.values().forEach(future -> future.cancel(true));
+            results.values().forEach(result -> result.cancel(false));
+        }
+
+        // Re-read on every start, so the share follows the runs joining and leaving
+        private int allowedSlots() {
+            return Math.min(concurrency, share.getFolderSlots());
+        }
+
+        // Called holding the session's lock
+        private void start(String folder) {
+            List<ExtractionService.ExtractedFile> folderFiles = files.get(folder);
+            CompletableFuture<R> result = results.get(folder);
+            queued.release();
+            running.put(folder, folderExecutor.submit(() -> {
+                R value = null;
+                Throwable failure = null;
+                try (Connection folderConn = duckDBService.getConnection()) {
+                    ctx.checkCancelled();
+                    value = task.run(folderConn, folder, folderFiles);
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                // The folder's slot and progress are handed on before finish() can see its result
+                progress.addBytes(totalBytes(folderFiles));
+                release(folder);
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(value);
+                }
+            }));
+        }
+
+        private synchronized void release(String folder) {
+            running.remove(folder);
+            if (finished || ctx.isCancelled()) {
+                waiting.forEach(folderName -> results.get(folderName).completeExceptionally(new CancellationException("Job cancelled")));
+                waiting.clear();
+                return;
+            }
+            while (!waiting.isEmpty() && running.size() < allowedSlots()) {
+                start(waiting.poll());
+            }
+        }
+    }
+
+    /**
+     * Orders the folders by their total parquet size, largest first, so the long
+     * running folders start straight away and the small ones fill in around them.
+     */
+    public static List<String> largestFirst(Map<String, List<ExtractionService.ExtractedFile>> files) {
+        List<String> folders = new ArrayList<>(files.keySet());
+        folders.sort(Comparator.comparingLong((String folder) -> totalBytes(files.get(folder))).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        return folders;
+    }
+
+    private static long totalBytes(List<ExtractionService.ExtractedFile> files) {
+        long total = 0;
+        for (ExtractionService.ExtractedFile file : files) {
+            total += file.size;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.utils.DuckDBUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the last seen column schema of every folder and reports drift: columns missing from
+ * some files of a snapshot, and columns added, removed or retyped since the folder's previous
+ * snapshot. Only the parquet footers are read, never the data.
+ */
+@Service
+public class FolderSchemaCache {
+    private static final Logger logger = LoggerFactory.getLogger(FolderSchemaCache.class);
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    // Column name to DuckDB type, in file order, of the union of the folder's last snapshot
+    private final Map<String, Map<String, String>> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * Reads the union-by-name schema of the files, compares it with the cached one and caches
+     * it. Returns the drift found, empty when the schema is stable.
+     */
+    public List<String> check(Connection conn, String pipeline, String folder, List<String> parquetPaths) throws SQLException {
+        String files = DuckDBUtil.toListLiteral(parquetPaths);
+        List<String> drift = new ArrayList<>();
+
+        // Step 1: The schema the scan will see, with union_by_name filling missing columns with NULL
+        Map<String, String> schema = DuckDBUtil.describe(conn, "SELECT * FROM read_parquet(" + files + ", union_by_name=true)");
+
+        // Step 2: Columns that only part of the snapshot's files have
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name, count(DISTINCT file_name) FROM parquet_schema(" + files + ") GROUP BY name")) {
+            while (rs.next()) {
+                int present = rs.getInt(2);
+                if (schema.containsKey(rs.getString(1)) && present < parquetPaths.size()) {
+                    drift.add(String.format("column %s missing from %d of %d files",
+                            rs.getString(1), parquetPaths.size() - present, parquetPaths.size()));
+                }
+            }
+        }
+
+        // Step 3: Changes since the folder's previous snapshot
+        Map<String, String> previous = schemas.put(folder, schema);
+        if (previous != null) {
+            for (Map.Entry<String, String> column : schema.entrySet()) {
+                String before = previous.get(column.getKey());
+                if (before == null) {
+                    drift.add("column " + column.getKey() + " added as " + column.getValue());
+                } else if (!before.equals(column.getValue())) {
+                    drift.add("column " + column.getKey() + " changed from " + before + " to " + column.getValue());
+                }
+            }
+            for (String column : previous.keySet()) {
+                if (!schema.containsKey(column)) {
+                    drift.add("column " + column + " removed");
+                }
+            }
+        }
+
+        if (!drift.isEmpty()) {
+            Collections.sort(drift);
+            logger.warn("Schema drift in folder {}: {}", folder, String.join("; ", drift));
+            pipelineMetrics.recordSchemaDrift(pipeline, folder, drift.size());
+        }
+        return drift;
+    }
+
+    /**
+     * The schema cached for the folder, empty before its first snapshot.
+     */
+    public Map<String, String> getSchema(String folder) {
+        return Collections.unmodifiableMap(schemas.getOrDefault(folder, Collections.emptyMap()));
+    }
+}
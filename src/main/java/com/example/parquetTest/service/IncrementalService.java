@@ -0,0 +1,365 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.FilterRuleConfig;
+import com.example.parquetTest.config.IncrementalConfig;
+import com.example.parquetTest.config.OutputConfig;
+import com.example.parquetTest.config.ProjectionConfig;
+import com.example.parquetTest.utils.DuckDBUtil;
+import jakarta.annotation.PostConstruct;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps one persistent DuckDB table per folder together with a high watermark on its date
+ * column. Each snapshot only merges the rows from the watermark (minus the lookback window)
+ * onwards, and delta output for any day or date range is a query over the persisted tables
+ * instead of a scan over the snapshot files.
+ */
+@Service
+public class IncrementalService {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalService.class);
+
+    private static final String SCHEMA = "ingest";
+    private static final String WATERMARKS = "ingest_watermarks";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Autowired
+    private DuckDBService duckDBService;
+
+    @Autowired
+    private IncrementalConfig incrementalConfig;
+
+    @Autowired
+    private ZipPackager zipPackager;
+
+    @Autowired
+    private AppConfig appConfig;
+
+    @Autowired
+    private OutputConfig outputConfig;
+
+    @Autowired
+    private ProjectionConfig projectionConfig;
+
+    @Autowired
+    private FilterRuleConfig filterRuleConfig;
+
+    // One merge at a time per folder, e.g. for the days of a date range job running concurrently;
+    // DuckDB would otherwise abort the conflicting transactions
+    private final Map<String, ReentrantLock> folderLocks = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void createStateTables() throws SQLException {
+        try (Connection conn = duckDBService.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE SCHEMA IF NOT EXISTS " + SCHEMA);
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + WATERMARKS + " (" +
+                    "folder VARCHAR PRIMARY KEY, date_column VARCHAR NOT NULL, high_watermark TIMESTAMP, " +
+                    "snapshot_date DATE, row_count BIGINT, updated_at TIMESTAMP)");
+        }
+    }
+
+    /**
+     * Merges the folder's snapshot files into its persistent table in one transaction.
+     * Rows on or after the watermark minus the lookback window are replaced by the snapshot's,
+     * older rows are kept as they are. A snapshot older than the last merged one is skipped,
+     * so backfills leave the newer state untouched.
+     */
+    public MergeResult merge(Connection conn, String folder, String dateColumn, List<String> parquetPaths,
+                             JobContext ctx) throws SQLException {
+        ReentrantLock folderLock = folderLocks.computeIfAbsent(folder, k -> new ReentrantLock());
+        try {
+            folderLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to merge " + folder, e);
+        }
+        try {
+            return mergeSnapshot(conn, folder, dateColumn, parquetPaths, ctx);
+        } finally {
+            folderLock.unlock();
+        }
+    }
+
+    private MergeResult mergeSnapshot(Connection conn, String folder, String dateColumn, List<String> parquetPaths,
+                                      JobContext ctx) throws SQLException {
+        Watermark state = getWatermark(conn, folder);
+        LocalDate snapshotDate = ctx.getSnapshotDate();
+        if (state != null && state.snapshotDate != null && snapshotDate.isBefore(state.snapshotDate)) {
+            logger.info("Skipping merge of {} for {}, the table already holds the {} snapshot", folder, snapshotDate, state.snapshotDate);
+            return new MergeResult(folder, 0, 0, state.highWatermark, true);
+        }
+
+        String table = tableName(folder);
+        String scan = "read_parquet(" + DuckDBUtil.toListLiteral(parquetPaths) + ", union_by_name=true)";
+        String column = DuckDBUtil.quoteIdentifier(dateColumn);
+        // Only the window from the watermark on is read from the snapshot; a new table takes everything
+        LocalDateTime from = state == null || state.highWatermark == null
+                ? null
+                : state.highWatermark.toLocalDate().minusDays(incrementalConfig.getLookbackDays()).atStartOfDay();
+        String window = from == null ? "" : " WHERE " + column + " >= ?";
+
+        conn.setAutoCommit(false);
+        try {
+            // Step 1: Creating the table from the snapshot schema, and adding columns new in this snapshot
+            execute(conn, ctx, "CREATE TABLE IF NOT EXISTS " + table + " AS SELECT * FROM " + scan + " LIMIT 0");
+            Set<String> tableColumns = addMissingColumns(conn, ctx, folder, scan);
+
+            // Step 2: Removing the rows the snapshot window replaces, and older versions of its keys
+            int deleted = 0;
+            if (from != null) {
+                deleted += update(conn, ctx, "DELETE FROM " + table + " WHERE " + column + " >= ?", from);
+            }
+            String keyColumn = incrementalConfig.getKeyColumn();
+            if (!keyColumn.isBlank() && tableColumns.contains(keyColumn)) {
+                String key = DuckDBUtil.quoteIdentifier(keyColumn);
+                deleted += update(conn, ctx, "DELETE FROM " + table + " WHERE " + key + " IN (SELECT " + key +
+                        " FROM " + scan + window + ")", from);
+            }
+
+            // Step 3: Inserting the window by column name, so the column order of the files doesn't matter
+            int inserted = update(conn, ctx, "INSERT INTO " + table + " BY NAME SELECT * FROM " + scan + window, from);
+
+            // Step 4: Moving the watermark to the newest merged row
+            update(conn, ctx, "INSERT INTO " + WATERMARKS + " SELECT ?, ?, CAST(max(" + column + ") AS TIMESTAMP), " +
+                            "CAST(? AS DATE), count(*), CAST(now() AS TIMESTAMP) FROM " + table +
+                            " ON CONFLICT (folder) DO UPDATE SET date_column = excluded.date_column, " +
+                            "high_watermark = excluded.high_watermark, snapshot_date = excluded.snapshot_date, " +
+                            "row_count = excluded.row_count, updated_at = excluded.updated_at",
+                    folder, dateColumn, snapshotDate.toString());
+            conn.commit();
+
+            Watermark merged = getWatermark(conn, folder);
+            logger.info("Merged {} rows into {} ({} replaced), watermark {}", inserted, folder, deleted, merged.highWatermark);
+            return new MergeResult(folder, inserted, deleted, merged.highWatermark, false);
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Writes the folder's persisted rows dated from..to (inclusive) in the format and returns the row count.
+     * The table keeps every column, the folder's projection and filter rule apply to what is written.
+     */
+    public int exportRange(Connection conn, String folder, LocalDate from, LocalDate to, String jsonFilePath,
+                           OutputFormat format, JobContext ctx) throws SQLException {
+        Watermark state = getWatermark(conn, folder);
+        if (state == null) {
+            throw new SQLException("No persisted table for folder " + folder);
+        }
+        FilterRule rule = filterRuleConfig.ruleFor(folder);
+        FolderProjection projection = projectionConfig.forFolder(folder);
+        String selectList = projection.isAll() ? "*"
+                : projection.selectList(DuckDBUtil.describe(conn, "SELECT * FROM " + tableName(folder)).keySet());
+        String copyQuery = String.format("COPY (SELECT %s FROM %s WHERE %s) TO %s (%s)",
+                selectList, tableName(folder), rule.getWhere(), DuckDBUtil.quoteLiteral(jsonFilePath), format.getCopyOptions());
+        return update(conn, ctx, copyQuery, rule.windowStart(from), rule.windowEnd(to));
+    }
+
+    /**
+     * Packages the delta of every persisted folder for from..to (inclusive) into a ZIP with a
+     * manifest, in its own scratch directory; the caller deletes the ZIP's parent directory.
+     * A null format leaves each folder's format to the configuration.
+     */
+    public File packageRange(LocalDate from, LocalDate to, OutputFormat format) throws IOException, SQLException {
+        Path base = Paths.get(appConfig.getScratchDir());
+        Files.createDirectories(base);
+        Path workDir = Files.createTempDirectory(base, "delta_");
+        String range = from.format(DATE_FORMATTER) + "-" + to.format(DATE_FORMATTER);
+        File zipFile = workDir.resolve("Json_delta-" + range + ".zip").toFile();
+        JobContext ctx = new JobContext(to, format);
+
+        try (Connection conn = duckDBService.getConnection();
+             ZipPackager.Archive archive = zipPackager.open(zipFile, ctx.stage(JobContext.PACKAGE))) {
+            File manifestFile = workDir.resolve("manifest-" + range + ".txt").toFile();
+            try (FileWriter writer = new FileWriter(manifestFile)) {
+                for (Watermark watermark : getWatermarks(conn)) {
+                    OutputFormat folderFormat = outputConfig.formatFor(watermark.folder, ctx);
+                    File jsonFile = workDir.resolve(watermark.folder + "-" + range + "." + folderFormat.getExtension()).toFile();
+                    int rowCount = exportRange(conn, watermark.folder, from, to, jsonFile.getPath(), folderFormat, ctx);
+                    archive.add(jsonFile);
+                    writer.write(watermark.folder + "|" + range + "|" + rowCount + "|" + folderFormat.getName() + "\n");
+                }
+            }
+            archive.add(manifestFile);
+            archive.finish();
+            return zipFile;
+        } catch (IOException | SQLException | RuntimeException e) {
+            FileUtils.deleteQuietly(workDir.toFile());
+            throw e;
+        }
+    }
+
+    public List<Watermark> getWatermarks() throws SQLException {
+        try (Connection conn = duckDBService.getConnection()) {
+            return getWatermarks(conn);
+        }
+    }
+
+    private List<Watermark> getWatermarks(Connection conn) throws SQLException {
+        List<Watermark> watermarks = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(watermarkQuery("") + " ORDER BY folder")) {
+            while (rs.next()) {
+                watermarks.add(toWatermark(rs));
+            }
+        }
+        return watermarks;
+    }
+
+    private Watermark getWatermark(Connection conn, String folder) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(watermarkQuery(" WHERE folder = ?"))) {
+            stmt.setString(1, folder);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? toWatermark(rs) : null;
+            }
+        }
+    }
+
+    private static String watermarkQuery(String where) {
+        return "SELECT folder, date_column, high_watermark, CAST(snapshot_date AS VARCHAR), row_count FROM " + WATERMARKS + where;
+    }
+
+    private static Watermark toWatermark(ResultSet rs) throws SQLException {
+        Timestamp highWatermark = rs.getTimestamp(3);
+        String snapshotDate = rs.getString(4);
+        return new Watermark(rs.getString(1), rs.getString(2),
+                highWatermark == null ? null : highWatermark.toLocalDateTime(),
+                snapshotDate == null ? null : LocalDate.parse(snapshotDate), rs.getLong(5));
+    }
+
+    /**
+     * Adds the snapshot columns the table doesn't have yet and returns the table's columns.
+     */
+    private Set<String> addMissingColumns(Connection conn, JobContext ctx, String folder, String scan) throws SQLException {
+        Set<String> tableColumns = new HashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT column_name FROM duckdb_columns() WHERE schema_name = ? AND table_name = ?")) {
+            stmt.setString(1, SCHEMA);
+            stmt.setString(2, folder);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    tableColumns.add(rs.getString(1));
+                }
+            }
+        }
+
+        Map<String, String> missing = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement();
+             JobContext.TrackedStatement tracked = ctx.track(stmt);
+             ResultSet rs = stmt.executeQuery("DESCRIBE SELECT * FROM " + scan)) {
+            while (rs.next()) {
+                if (!tableColumns.contains(rs.getString("column_name"))) {
+                    missing.put(rs.getString("column_name"), rs.getString("column_type"));
+                }
+            }
+        }
+        for (Map.Entry<String, String> column : missing.entrySet()) {
+            logger.info("Adding column {} {} to persisted folder {}", column.getKey(), column.getValue(), folder);
+            execute(conn, ctx, "ALTER TABLE " + tableName(folder) + " ADD COLUMN " +
+                    DuckDBUtil.quoteIdentifier(column.getKey()) + " " + column.getValue());
+            tableColumns.add(column.getKey());
+        }
+        return tableColumns;
+    }
+
+    private static String tableName(String folder) {
+        return SCHEMA + "." + DuckDBUtil.quoteIdentifier(folder);
+    }
+
+    private static void execute(Connection conn, JobContext ctx, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             JobContext.TrackedStatement tracked = ctx.track(stmt)) {
+            stmt.execute(sql);
+        }
+    }
+
+    /**
+     * Runs the statement with the non-null parameters bound in order and returns the affected row count.
+     */
+    private static int update(Connection conn, JobContext ctx, String sql, Object... params) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             JobContext.TrackedStatement tracked = ctx.track(stmt)) {
+            int index = 1;
+            for (Object param : params) {
+                if (param != null) {
+                    stmt.setObject(index++, param);
+                }
+            }
+            return stmt.executeUpdate();
+        }
+    }
+
+    public static class MergeResult {
+        public final String folder;
+        public final int insertedRows;
+        public final int deletedRows;
+        public final LocalDateTime highWatermark;
+        public final boolean skipped;
+
+        public MergeResult(String folder, int insertedRows, int deletedRows, LocalDateTime highWatermark, boolean skipped) {
+            this.folder = folder;
+            this.insertedRows = insertedRows;
+            this.deletedRows = deletedRows;
+            this.highWatermark = highWatermark;
+            this.skipped = skipped;
+        }
+    }
+
+    public static class Watermark {
+        private final String folder;
+        private final String dateColumn;
+        private final LocalDateTime highWatermark;
+        private final LocalDate snapshotDate;
+        private final long rowCount;
+
+        public Watermark(String folder, String dateColumn, LocalDateTime highWatermark, LocalDate snapshotDate, long rowCount) {
+            this.folder = folder;
+            this.dateColumn = dateColumn;
+            this.highWatermark = highWatermark;
+            this.snapshotDate = snapshotDate;
+            this.rowCount = rowCount;
+        }
+
+        public String getFolder() {
+            return folder;
+        }
+
+        public String getDateColumn() {
+            return dateColumn;
+        }
+
+        public LocalDateTime getHighWatermark() {
+            return highWatermark;
+        }
+
+        public LocalDate getSnapshotDate() {
+            return snapshotDate;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+    }
+}
@@ -1,189 +1,138 @@
 package com.example.parquetTest.service;
 
+import com.example.parquetTest.config.OutputConfig;
+import com.example.parquetTest.config.ProjectionConfig;
 import com.example.parquetTest.utils.DuckDBUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 
 @Service
 public class InitialLoadService {
 
-    public Map<String, ProcessInitialLoadService.FilterResult> filterParquetFiles(Map<String, List<byte[]>> files) {
+    private static final Logger logger = LoggerFactory.getLogger(InitialLoadService.class);
+
+    @Autowired
+    private FolderScheduler folderScheduler;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private OutputConfig outputConfig;
+
+    @Autowired
+    private FolderSchemaCache folderSchemaCache;
+
+    @Autowired
+    private ParquetFooterIndex parquetFooterIndex;
+
+    @Autowired
+    private ProjectionConfig projectionConfig;
+
+    public Map<String, ProcessInitialLoadService.FilterResult> filterParquetFiles(Map<String, List<ExtractionService.ExtractedFile>> files,
+                                                                                  JobContext ctx, Consumer<File> onOutputFile) throws InterruptedException {
         Map<String, ProcessInitialLoadService.FilterResult> folderResults = new HashMap<>();
-        String editedDate = LocalDate.now().minusDays(4).toString(); // SYSDATE-1
+        String editedDate = ctx.getSnapshotDate().toString();
 
-        try (Connection conn = DuckDBUtil.getConnection()) {
-            // Configure DuckDB for better performance - only use memory_limit and threads
-            try (Statement configStmt = conn.createStatement()) {
-                configStmt.execute("PRAGMA memory_limit='4GB'");
-                configStmt.execute("PRAGMA threads=8");
-            }
+        // Folders run concurrently, largest first, each on its own pooled connection.
+        // A failing folder is logged by the scheduler, cancellation propagates to the job.
+        // Each output file is handed to onOutputFile as soon as its folder is complete.
+        folderResults.putAll(folderScheduler.runPerFolder(files, ctx, JobContext.FILTER,
+                (folderConn, folder, parquetFiles) -> loadFolder(folderConn, folder, parquetFiles, editedDate, ctx, onOutputFile)));
+
+        return folderResults;
+    }
 
-            for (Map.Entry<String, List<byte[]>> entry : files.entrySet()) {
-                String folder = entry.getKey();
-                ProcessInitialLoadService.FilterResult filterResult = new ProcessInitialLoadService.FilterResult(folder, editedDate);
-
-                // Create the JSON directory if it doesn't exist
-                new File("Json_InitialLoad").mkdirs();
-
-                // Generate the output file path
-                String jsonFilePath = "Json_InitialLoad/" + folder + "-" + LocalDate.parse(editedDate).format(
-                        java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd")) + ".json";
-
-                // Delete the JSON file if it exists
-                new File(jsonFilePath).delete();
-
-                // Direct parquet to JSON export for this folder
-                // Process all parquet files together for maximum speed
-                // 1. Save all parquet bytes to temporary files
-                List<File> tempParquetFiles = new ArrayList<>();
-                for (byte[] parquetBytes : entry.getValue()) {
-                    tempParquetFiles.add(saveTempParquetFile(parquetBytes));
-                }
-
-                try (Statement stmt = conn.createStatement()) {
-                    // For smaller number of files, use direct UNION ALL
-                    if (tempParquetFiles.size() <= 10) {
-                        // Build the query to union all parquet files
-                        StringBuilder unionQuery = new StringBuilder();
-                        unionQuery.append("COPY (");
-
-                        for (int i = 0; i < tempParquetFiles.size(); i++) {
-                            if (i > 0) {
-                                unionQuery.append(" UNION ALL ");
-                            }
-                            unionQuery.append("SELECT * FROM read_parquet('").append(tempParquetFiles.get(i).getAbsolutePath()).append("')");
-                        }
-
-                        unionQuery.append(") TO '").append(jsonFilePath).append("' (FORMAT JSON, ARRAY true)");
-
-                        // Execute the export with a single SQL statement
-                        stmt.execute(unionQuery.toString());
-
-                        // Count the number of rows in the exports
-                        StringBuilder countQuery = new StringBuilder();
-                        countQuery.append("SELECT COUNT(*) FROM (");
-
-                        for (int i = 0; i < tempParquetFiles.size(); i++) {
-                            if (i > 0) {
-                                countQuery.append(" UNION ALL ");
-                            }
-                            countQuery.append("SELECT * FROM read_parquet('").append(tempParquetFiles.get(i).getAbsolutePath()).append("')");
-                        }
-
-                        countQuery.append(")");
-
-                        // Get the accurate count
-                        try (ResultSet rs = stmt.executeQuery(countQuery.toString())) {
-                            if (rs.next()) {
-                                int count = rs.getInt(1);
-                                // Use the accurate count from the SQL query
-                                filterResult.files.clear();
-                                filterResult.totalFilteredRows = 0;
-                                filterResult.addFile(folder, count);
-                            }
-                        }
-                    } else {
-                        // For a large number of files, create a temporary table and bulk insert
-                        // First file defines schema
-                        String tempTable = "temp_combined_" + UUID.randomUUID().toString().replace("-", "_");
-                        stmt.execute(String.format("CREATE TEMP TABLE %s AS SELECT * FROM read_parquet('%s');",
-                                tempTable, tempParquetFiles.get(0).getAbsolutePath()));
-
-                        // Insert data from all other files
-                        for (int i = 1; i < tempParquetFiles.size(); i++) {
-                            stmt.execute(String.format("INSERT INTO %s SELECT * FROM read_parquet('%s');",
-                                    tempTable, tempParquetFiles.get(i).getAbsolutePath()));
-                        }
-
-                        // Export to JSON
-                        stmt.execute(String.format("COPY (SELECT * FROM %s) TO '%s' (FORMAT JSON, ARRAY true);",
-                                tempTable, jsonFilePath));
-
-                        // Count
-                        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tempTable)) {
-                            if (rs.next()) {
-                                int count = rs.getInt(1);
-                                filterResult.files.clear();
-                                filterResult.totalFilteredRows = 0;
-                                filterResult.addFile(folder, count);
-                            }
-                        }
-
-                        // Drop temp table
-                        stmt.execute("DROP TABLE " + tempTable);
-                    }
-                } catch (Exception e) {
-                    // If the UNION ALL approach fails, fall back to processing files individually
-                    System.err.println("UNION ALL approach failed for " + folder + ": " + e.getMessage());
-
-                    try {
-                        // Delete failed JSON file
-                        new File(jsonFilePath).delete();
-
-                        // Process each file individually
-                        int totalCount = 0;
-                        boolean first = true;
-                        for (File tempFile : tempParquetFiles) {
-                            try (Statement stmt = conn.createStatement()) {
-                                String mode = first ? "w" : "a";
-                                first = false;
-
-                                // Count records in this file
-                                int fileCount = 0;
-                                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM read_parquet('" + tempFile.getAbsolutePath() + "')")) {
-                                    if (rs.next()) {
-                                        fileCount = rs.getInt(1);
-                                        totalCount += fileCount;
-                                    }
-                                }
-
-                                // Export to JSON (append mode after first file)
-                                stmt.execute(String.format(
-                                        "COPY (SELECT * FROM read_parquet('%s')) TO '%s' (FORMAT JSON, ARRAY true, ARRAY_FORMAT '%s');",
-                                        tempFile.getAbsolutePath(), jsonFilePath, mode));
-                            }
-                        }
-
-                        // Set the count
-                        filterResult.files.clear();
-                        filterResult.totalFilteredRows = 0;
-                        filterResult.addFile(folder, totalCount);
-                    } catch (Exception fallbackException) {
-                        System.err.println("Fallback approach also failed: " + fallbackException.getMessage());
-                        e.printStackTrace();
-                        fallbackException.printStackTrace();
-                    }
-                }
-
-                // Clean up temp files
-                for (File tempFile : tempParquetFiles) {
-                    tempFile.delete();
-                }
-
-                // Add to results
-                folderResults.put(folder, filterResult);
+    /**
+     * Opens a load run to which the extraction submits each folder as soon as it is on disk.
+     */
+    public FolderScheduler.Session<ProcessInitialLoadService.FilterResult> startLoad(JobContext ctx, Consumer<File> onOutputFile) {
+        String editedDate = ctx.getSnapshotDate().toString();
+        return folderScheduler.open(ctx, JobContext.FILTER,
+                (folderConn, folder, parquetFiles) -> loadFolder(folderConn, folder, parquetFiles, editedDate, ctx, onOutputFile));
+    }
+
+    /**
+     * The settings that shape the output of a run, so a changed setting never reuses a cached output.
+     */
+    public String describeSettings(JobContext ctx) {
+        return "output=" + outputConfig.describe(ctx) + ";projection=" + projectionConfig.describe()
+                + ";source=" + (ctx.getSource() != null ? ctx.getSource().describe() : Source.DEFAULT);
+    }
+
+    private ProcessInitialLoadService.FilterResult loadFolder(Connection conn, String folder,
+                                                              List<ExtractionService.ExtractedFile> parquetFiles,
+                                                              String editedDate, JobContext ctx,
+                                                              Consumer<File> onOutputFile) throws SQLException, IOException {
+        long start = System.nanoTime();
+        ProcessInitialLoadService.FilterResult filterResult = new ProcessInitialLoadService.FilterResult(folder, editedDate);
+
+        // Step 1: Preparing the output file in the Json_InitialLoad directory, in the folder's format
+        File jsonDir = ctx.outputFile("Json_InitialLoad");
+        jsonDir.mkdirs();
+        OutputFormat format = outputConfig.formatFor(folder, ctx);
+        filterResult.format = format.getName();
+        String jsonFilePath = jsonDir.getPath() + "/" + folder + "-" + LocalDate.parse(editedDate).format(
+                java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd")) + "." + format.getExtension();
+        new File(jsonFilePath).delete();
+
+        // Parquet files were already spilled to the scratch directory by extraction
+        List<String> parquetPaths = new ArrayList<>();
+        long parquetBytes = 0;
+        for (ExtractionService.ExtractedFile parquetFile : parquetFiles) {
+            parquetPaths.add(parquetFile.path.toAbsolutePath().toString());
+            parquetBytes += parquetFile.size;
+        }
+
+        // Step 2: Reporting columns that drifted within the snapshot or since the last one, from the footers
+        folderSchemaCache.check(conn, JobService.INITIAL_LOAD, folder, parquetPaths);
+
+        // Step 3: Every row is exported, so the footer row counts are the manifest's counts
+        long footerRows = parquetFooterIndex.countRows(parquetFiles);
+        filterResult.addFile(folder, Math.toIntExact(footerRows));
+
+        // Step 4: One scan over every file of the folder; files missing a column get NULLs for it.
+        // The folder's projection is the select list, so only its column chunks are read.
+        FolderProjection projection = projectionConfig.forFolder(folder);
+        String selectList = projection.isAll() ? "*" : projection.selectList(DuckDBUtil.describe(conn,
+                "SELECT * FROM read_parquet(" + DuckDBUtil.toListLiteral(parquetPaths) + ", union_by_name=true)").keySet());
+        try (Statement stmt = conn.createStatement();
+             JobContext.TrackedStatement tracked = ctx.track(stmt)) {
+            int written = exportFolder(stmt, parquetPaths, selectList, jsonFilePath, format);
+            if (written != footerRows) {
+                logger.warn("Exported {} rows for {} but its parquet footers count {}", written, folder, footerRows);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (SQLException e) {
+            new File(jsonFilePath).delete();
+            throw e;
         }
 
-        return folderResults;
+        ctx.stage(JobContext.FILTER).addRows(filterResult.totalFilteredRows);
+        // Every row of the folder is exported, so the rows scanned are the rows emitted
+        pipelineMetrics.recordFolder(JobService.INITIAL_LOAD, folder, parquetFiles.size(), parquetBytes,
+                filterResult.totalFilteredRows, filterResult.totalFilteredRows, System.nanoTime() - start);
+        onOutputFile.accept(new File(jsonFilePath));
+        return filterResult;
     }
 
     /**
-     * Saves Parquet byte array to a temporary file.
+     * Exports every file with one union-by-name scan; COPY reports the rows it wrote, so the
+     * data is read once whatever the number of files.
      */
-    private File saveTempParquetFile(byte[] parquetBytes) throws IOException {
-        File tempFile = File.createTempFile("parquet_temp_", ".parquet");
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            fos.write(parquetBytes);
-        }
-        return tempFile;
+    int exportFolder(Statement stmt, List<String> parquetPaths, String selectList, String jsonFilePath,
+                     OutputFormat format) throws SQLException {
+        return stmt.executeUpdate(String.format("COPY (SELECT %s FROM read_parquet(%s, union_by_name=true)) TO %s (%s)",
+                selectList, DuckDBUtil.toListLiteral(parquetPaths), DuckDBUtil.quoteLiteral(jsonFilePath), format.getCopyOptions()));
     }
-}
\ No newline at end of file
+}
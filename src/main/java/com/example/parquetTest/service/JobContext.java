@@ -0,0 +1,202 @@
+package com.example.parquetTest.service;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one pipeline run that is shared by all stages: the snapshot date and source, per-stage
+ * progress, and the cancellation flag together with the DuckDB statements to interrupt.
+ */
+public class JobContext {
+
+    public static final String DOWNLOAD = "download";
+    public static final String EXTRACT = "extract";
+    public static final String FILTER = "filter";
+    public static final String PACKAGE = "package";
+
+    private final LocalDate snapshotDate;
+    // Requested for every folder of the run, null leaves the choice to the configuration
+    private final OutputFormat outputFormat;
+    // The source the snapshot comes from, null for the default source
+    private final Source source;
+    private final Map<String, StageProgress> stages = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Set<Statement> runningStatements = ConcurrentHashMap.newKeySet();
+    // Contexts of the days of a date range job, cancelled together with this one
+    private final List<JobContext> days = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    public JobContext(LocalDate snapshotDate) {
+        this(snapshotDate, null);
+    }
+
+    public JobContext(LocalDate snapshotDate, OutputFormat outputFormat) {
+        this(snapshotDate, outputFormat, null);
+    }
+
+    public JobContext(LocalDate snapshotDate, OutputFormat outputFormat, Source source) {
+        this.snapshotDate = snapshotDate;
+        this.outputFormat = outputFormat;
+        this.source = source;
+        for (String stage : Arrays.asList(DOWNLOAD, EXTRACT, FILTER, PACKAGE)) {
+            stages.put(stage, new StageProgress(stage));
+        }
+    }
+
+    public LocalDate getSnapshotDate() {
+        return snapshotDate;
+    }
+
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public String getSourceName() {
+        return source == null ? Source.DEFAULT : source.getName();
+    }
+
+    public boolean includesFolder(String folder) {
+        return source == null || source.includes(folder);
+    }
+
+    /**
+     * A path of the run's outputs, under the output directory of its source.
+     */
+    public File outputFile(String path) {
+        return source == null ? new File(path) : source.resolve(path);
+    }
+
+    public StageProgress stage(String name) {
+        return stages.computeIfAbsent(name, StageProgress::new);
+    }
+
+    public List<StageProgress> getStages() {
+        synchronized (stages) {
+            return new ArrayList<>(stages.values());
+        }
+    }
+
+    /**
+     * Creates the context of one day of a date range job, with the job's output format and source.
+     */
+    public JobContext forDay(LocalDate date) {
+        JobContext day = new JobContext(date, outputFormat, source);
+        days.add(day);
+        if (cancelled) {
+            day.cancel();
+        }
+        return day;
+    }
+
+    public List<JobContext> getDays() {
+        return days;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws when the job was cancelled, stages call this between units of work.
+     */
+    public void checkCancelled() {
+        if (cancelled || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Job cancelled");
+        }
+    }
+
+    /**
+     * Registers a running statement so cancel() can interrupt it; close the returned handle when it completes.
+     */
+    public TrackedStatement track(Statement stmt) throws SQLException {
+        runningStatements.add(stmt);
+        if (cancelled) {
+            stmt.cancel();
+        }
+        return () -> runningStatements.remove(stmt);
+    }
+
+    public void cancel() {
+        cancelled = true;
+        for (Statement stmt : runningStatements) {
+            try {
+                stmt.cancel();
+            } catch (SQLException e) {
+                // The statement finished or its connection closed in the meantime
+            }
+        }
+        for (JobContext day : days) {
+            day.cancel();
+        }
+    }
+
+    @FunctionalInterface
+    public interface TrackedStatement extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    public static class StageProgress {
+        private final String name;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong totalBytes = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private volatile String status = "PENDING";
+
+        public StageProgress(String name) {
+            this.name = name;
+        }
+
+        public void start(long totalBytes) {
+            this.totalBytes.set(totalBytes);
+            this.status = "RUNNING";
+        }
+
+        public void addTotalBytes(long delta) {
+            totalBytes.addAndGet(delta);
+            status = "RUNNING";
+        }
+
+        public void complete() {
+            this.status = "COMPLETED";
+        }
+
+        public void addBytes(long delta) {
+            bytes.addAndGet(delta);
+        }
+
+        public void addRows(long delta) {
+            rows.addAndGet(delta);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getTotalBytes() {
+            return totalBytes.get();
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.InsightsAppConfig;
+import com.example.parquetTest.config.PipelineConfig;
+import com.example.parquetTest.config.ScheduleConfig;
+import com.example.parquetTest.config.SourceConfig;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the pipelines as asynchronous jobs on the bounded job executor.
+ * Requests for a pipeline, source, snapshot date and output format that is already queued or running attach to
+ * that job instead of starting a second run. Jobs of the same pipeline and source share their output
+ * directory, so each one is only handed to the executor once the previous job of its
+ * pipeline has finished; waiting jobs never hold an executor thread. The sources take turns
+ * on the executor, each within its own app.sources limit of running jobs.
+ * A date range job runs its days concurrently on the range executor, each day writing its own
+ * ZIP and manifest, with all days sharing the DuckDB engine and the folder pool. A day built
+ * that way before, e.g. by the PipelineScheduler, is published straight away instead of run.
+ */
+@Service
+public class JobService {
+    private static final Logger logger = LoggerFactory.getLogger(JobService.class);
+
+    public static final String PROCESS = "process";
+    public static final String INITIAL_LOAD = "initialLoad";
+
+    // Finished jobs kept for status polling
+    private static final int MAX_FINISHED_JOBS = 100;
+
+    @Autowired
+    private ProcessService processService;
+
+    @Autowired
+    private ProcessInitialLoadService processInitialLoadService;
+
+    @Autowired
+    private ThreadPoolExecutor jobExecutor;
+
+    @Autowired
+    private ThreadPoolExecutor rangeExecutor;
+
+    @Autowired
+    private InsightsAppConfig insightsAppConfig;
+
+    @Autowired
+    private PipelineConfig pipelineConfig;
+
+    @Autowired
+    private SourceConfig sourceConfig;
+
+    @Autowired
+    private ScheduleConfig scheduleConfig;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Job> activeJobs = new ConcurrentHashMap<>();
+    // Completes when the last job submitted for the pipeline of a source has released it, by source|type
+    private final Map<String, CompletableFuture<Void>> pipelineTails = new ConcurrentHashMap<>();
+    private FairJobQueue jobQueue;
+
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+    /**
+     * Submits the pipeline for the snapshot date (app.date.frequency days back when null),
+     * or returns the job already queued or running for the same pipeline and date.
+     *
+     * @throws RejectedExecutionException when the job queue is full
+     */
+    public Job submit(String type, LocalDate snapshotDate) {
+        return submit(type, snapshotDate, null);
+    }
+
+    /**
+     * Submits the pipeline writing every folder in the output format; a null format leaves
+     * each folder's format to the configuration.
+     *
+     * @throws RejectedExecutionException when the job queue is full
+     */
+    public Job submit(String type, LocalDate snapshotDate, OutputFormat format) {
+        return submit(type, snapshotDate, format, null);
+    }
+
+    /**
+     * Submits the pipeline for the snapshot of the named source; a null source is the default one.
+     *
+     * @throws IllegalArgumentException for an unknown source
+     * @throws RejectedExecutionException when the job queue is full
+     */
+    public Job submit(String type, LocalDate snapshotDate, OutputFormat format, String source) {
+        LocalDate date = snapshotDate != null ? snapshotDate : LocalDate.now().minusDays(insightsAppConfig.getDateOffset());
+        return submit(type, null, date, format, sourceConfig.getSource(source));
+    }
+
+    /**
+     * Submits one job running the pipeline for every snapshot date from..to (inclusive),
+     * or returns the job already queued or running for the same range.
+     *
+     * @throws RejectedExecutionException when the job queue is full
+     */
+    public Job submitRange(String type, LocalDate from, LocalDate to, OutputFormat format) {
+        return submitRange(type, from, to, format, null);
+    }
+
+    /**
+     * Submits the date range job for the snapshots of the named source; a null source is the default one.
+     *
+     * @throws IllegalArgumentException for an unknown source
+     * @throws RejectedExecutionException when the job queue is full
+     */
+    public Job submitRange(String type, LocalDate from, LocalDate to, OutputFormat format, String source) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("to must not be before from");
+        }
+        return submit(type, from, to, format, sourceConfig.getSource(source));
+    }
+
+    private Job submit(String type, LocalDate from, LocalDate date, OutputFormat format, Source source) {
+        if (!PROCESS.equals(type) && !INITIAL_LOAD.equals(type)) {
+            throw new IllegalArgumentException("Unknown job type: " + type);
+        }
+        if (from == null && format == null && scheduleConfig.isServeBuiltOutputs()) {
+            Job built = publishBuilt(type, date, source);
+            if (built != null) {
+                return built;
+            }
+        }
+        String key = key(type, source.getName(), from, date, format);
+
+        boolean[] attached = {false};
+        List<CompletableFuture<Void>> previous = new ArrayList<>(1);
+        Job job = activeJobs.compute(key, (k, existing) -> {
+            if (existing != null && !existing.isDone()) {
+                attached[0] = true;
+                existing.attachedRequests.incrementAndGet();
+                return existing;
+            }
+            if (activeJobs.size() >= pipelineConfig.getJobParallelism() + pipelineConfig.getJobQueueCapacity()) {
+                throw new RejectedExecutionException("Job queue is full");
+            }
+            Job created = new Job(UUID.randomUUID().toString(), type, from, new JobContext(date, format, source));
+            jobs.put(created.id, created);
+            CompletableFuture<Void> tail = pipelineTails.put(source.getName() + "|" + type, created.released);
+            previous.add(tail != null ? tail : CompletableFuture.completedFuture(null));
+            return created;
+        });
+        if (!attached[0]) {
+            // Chaining behind the previous job of the pipeline, it starts once that one released it
+            previous.get(0).whenComplete((ignored, failure) -> start(job));
+        }
+        logger.info(attached[0] ? "Attached request to {} job {} for {} of source {}" : "Submitted {} job {} for {} of source {}",
+                type, job.id, from != null ? from + ".." + date : date, source.getName());
+        evictFinishedJobs();
+        return job;
+    }
+
+    /**
+     * A finished job for a day whose output was built ahead, published without running the
+     * pipeline; null when the day was never built.
+     */
+    private Job publishBuilt(String type, LocalDate date, Source source) {
+        JobContext ctx = new JobContext(date, null, source);
+        try {
+            boolean published = PROCESS.equals(type) ? processService.publishDay(ctx) : processInitialLoadService.publishDay(ctx);
+            if (!published) {
+                return null;
+            }
+        } catch (IOException e) {
+            logger.warn("Could not publish the built {} output for {}, running the pipeline: {}", type, date, e.getMessage());
+            return null;
+        }
+        Job job = new Job(UUID.randomUUID().toString(), type, null, ctx);
+        job.started.set(true);
+        job.startedAt = Instant.now();
+        job.finish(Status.SUCCEEDED, null);
+        jobs.put(job.id, job);
+        logger.info("Served {} job {} for {} of source {} from its built output", type, job.id, date, source.getName());
+        evictFinishedJobs();
+        return job;
+    }
+
+    public Optional<Job> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public List<Job> getJobs() {
+        List<Job> result = new ArrayList<>(jobs.values());
+        result.sort(Comparator.comparing(Job::getSubmittedAt).reversed());
+        return result;
+    }
+
+    /**
+     * Cancels the job: running DuckDB statements are interrupted, the job thread is
+     * interrupted and no further stage starts.
+     */
+    public Optional<Job> cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return Optional.empty();
+        }
+        if (!job.isDone()) {
+            logger.info("Cancelling {} job {}", job.type, job.id);
+            job.context.cancel();
+            synchronized (job) {
+                if (job.task != null) {
+                    job.task.cancel(true);
+                }
+                if (job.started.compareAndSet(false, true)) {
+                    // The job never ran, so run() will not finish it
+                    finish(job, Status.CANCELLED, null);
+                }
+            }
+        }
+        return Optional.of(job);
+    }
+
+    private void start(Job job) {
+        synchronized (job) {
+            if (job.started.get()) {
+                return;
+            }
+            FutureTask<Void> task = new FutureTask<>(() -> run(job), null);
+            job.task = task;
+            Source source = job.context.getSource();
+            jobQueue().submit(source.getName(), source.getMaxConcurrentJobs(), task, e -> {
+                if (job.started.compareAndSet(false, true)) {
+                    finish(job, Status.FAILED, "Job executor rejected the job");
+                }
+            });
+        }
+    }
+
+    private synchronized FairJobQueue jobQueue() {
+        if (jobQueue == null) {
+            jobQueue = new FairJobQueue(jobExecutor);
+        }
+        return jobQueue;
+    }
+
+    private void run(Job job) {
+        if (!job.started.compareAndSet(false, true)) {
+            return;
+        }
+        Status status = Status.SUCCEEDED;
+        String error = null;
+        try {
+            job.context.checkCancelled();
+            job.status = Status.RUNNING;
+            job.startedAt = Instant.now();
+            if (job.from != null) {
+                runRange(job);
+            } else if (PROCESS.equals(job.type)) {
+                processService.process(job.context);
+            } else {
+                processInitialLoadService.process(job.context);
+            }
+        } catch (CancellationException e) {
+            status = Status.CANCELLED;
+        } catch (Exception e) {
+            if (job.context.isCancelled()) {
+                status = Status.CANCELLED;
+            } else {
+                logger.error("{} job {} failed: {}", job.type, job.id, e.getMessage(), e);
+                status = Status.FAILED;
+                error = e.getMessage();
+            }
+        } finally {
+            finish(job, status, error);
+        }
+        logger.info("{} job {} finished with status {}", job.type, job.id, job.status);
+    }
+
+    /**
+     * Runs every day of the range job on the range executor, so up to app.range.parallelism
+     * snapshots download at once and the downloaded days filter side by side. A failing day
+     * does not stop the others; the job fails once they are done, naming the failed days.
+     */
+    private void runRange(Job job) throws Exception {
+        Map<LocalDate, Future<?>> days = new LinkedHashMap<>();
+        try {
+            for (LocalDate date = job.from; !date.isAfter(job.context.getSnapshotDate()); date = date.plusDays(1)) {
+                JobContext dayCtx = job.context.forDay(date);
+                days.put(date, rangeExecutor.submit(() -> {
+                    if (PROCESS.equals(job.type)) {
+                        processService.processDay(dayCtx);
+                    } else {
+                        processInitialLoadService.processDay(dayCtx);
+                    }
+                    return null;
+                }));
+            }
+
+            List<String> failures = new ArrayList<>();
+            for (Map.Entry<LocalDate, Future<?>> day : days.entrySet()) {
+                try {
+                    day.getValue().get();
+                } catch (ExecutionException e) {
+                    job.context.checkCancelled();
+                    logger.error("{} job {} failed for {}: {}", job.type, job.id, day.getKey(), e.getCause().getMessage(), e.getCause());
+                    failures.add(day.getKey() + ": " + e.getCause().getMessage());
+                }
+            }
+            if (!failures.isEmpty()) {
+                throw new IllegalStateException(failures.size() + " of " + days.size() + " days failed: " + String.join("; ", failures));
+            }
+        } finally {
+            // Cancelled or interrupted while waiting, the days still running are interrupted too
+            for (Future<?> day : days.values()) {
+                day.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Completes the job and releases its pipeline for the next job.
+     */
+    private void finish(Job job, Status status, String error) {
+        activeJobs.remove(job.key(), job);
+        job.finish(status, error);
+        job.released.complete(null);
+    }
+
+    private static String key(String type, String source, LocalDate from, LocalDate date, OutputFormat format) {
+        return type + "|" + source + "|" + (from != null ? from + ".." : "") + date + "|" + format;
+    }
+
+    private void evictFinishedJobs() {
+        List<Job> finished = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (job.isDone()) {
+                finished.add(job);
+            }
+        }
+        if (finished.size() > MAX_FINISHED_JOBS) {
+            finished.sort(Comparator.comparing(Job::getFinishedAt));
+            for (Job job : finished.subList(0, finished.size() - MAX_FINISHED_JOBS)) {
+                jobs.remove(job.id);
+            }
+        }
+    }
+
+    public static class Job {
+        private final String id;
+        private final String type;
+        // First day of a date range job, whose context holds the last day; null for a single day
+        private final LocalDate from;
+        private final JobContext context;
+        private final Instant submittedAt = Instant.now();
+        private final AtomicInteger attachedRequests = new AtomicInteger();
+        private final CompletableFuture<Job> completion = new CompletableFuture<>();
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private volatile Status status = Status.QUEUED;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile String error;
+        private volatile Future<?> task;
+
+        public Job(String id, String type, LocalDate from, JobContext context) {
+            this.id = id;
+            this.type = type;
+            this.from = from;
+            this.context = context;
+        }
+
+        private synchronized void finish(Status finalStatus, String failure) {
+            if (completion.isDone()) {
+                return;
+            }
+            status = finalStatus;
+            error = failure;
+            finishedAt = Instant.now();
+            completion.complete(this);
+        }
+
+        private String key() {
+            return JobService.key(type, context.getSourceName(), from, context.getSnapshotDate(), context.getOutputFormat());
+        }
+
+        public boolean isDone() {
+            return completion.isDone();
+        }
+
+        /**
+         * Completes with the job once it succeeded, failed or was cancelled.
+         */
+        @JsonIgnore
+        public CompletableFuture<Job> getCompletion() {
+            return completion;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public LocalDate getFrom() {
+            return from;
+        }
+
+        public String getSource() {
+            return context.getSourceName();
+        }
+
+        public LocalDate getSnapshotDate() {
+            return context.getSnapshotDate();
+        }
+
+        public OutputFormat getOutputFormat() {
+            return context.getOutputFormat();
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public Instant getSubmittedAt() {
+            return submittedAt;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getFinishedAt() {
+            return finishedAt;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public int getAttachedRequests() {
+            return attachedRequests.get();
+        }
+
+        public List<JobContext.StageProgress> getStages() {
+            return context.getStages();
+        }
+
+        /**
+         * Snapshot date and stage progress of each day of a date range job.
+         */
+        public List<JobContext> getDays() {
+            return context.getDays();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.parquetTest.service;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * The file formats the pipelines can write a folder's rows in, each rendered by DuckDB's COPY.
+ */
+public enum OutputFormat {
+    // The JSON array written before output formats were configurable
+    JSON("json", "json", "FORMAT JSON, ARRAY true"),
+    NDJSON("ndjson", "ndjson", "FORMAT JSON"),
+    NDJSON_GZIP("ndjson-gzip", "ndjson.gz", "FORMAT JSON, COMPRESSION GZIP"),
+    NDJSON_ZSTD("ndjson-zstd", "ndjson.zst", "FORMAT JSON, COMPRESSION ZSTD"),
+    // DuckDB writes min/max statistics for every column chunk
+    PARQUET("parquet", "parquet", "FORMAT PARQUET, COMPRESSION ZSTD");
+
+    private final String name;
+    private final String extension;
+    private final String copyOptions;
+
+    OutputFormat(String name, String extension, String copyOptions) {
+        this.name = name;
+        this.extension = extension;
+        this.copyOptions = copyOptions;
+    }
+
+    /**
+     * The name used in configuration, requests and the manifest, e.g. "ndjson-gzip".
+     */
+    @JsonValue
+    public String getName() {
+        return name;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * The options of a COPY ... TO statement writing this format, without the parentheses.
+     */
+    public String getCopyOptions() {
+        return copyOptions;
+    }
+
+    public static OutputFormat fromName(String name) {
+        String normalized = name.trim().toLowerCase(Locale.ROOT).replace('_', '-');
+        for (OutputFormat format : values()) {
+            if (format.name.equals(normalized)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown output format: " + name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.parquetTest.service;
+
+import org.apache.parquet.format.*;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the footers of extracted parquet files: row counts, and the min/max statistics of a
+ * date column per row group. Files whose row groups all lie outside a date range are pruned
+ * before DuckDB ever opens them. Only the footer bytes at the end of each file are read.
+ */
+@Service
+public class ParquetFooterIndex {
+
+    private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Reads the footer of one file, with the statistics of dateColumn when it has them.
+     */
+    public FileFooter read(Path file, String dateColumn) throws IOException {
+        FileMetaData metaData = readMetaData(file);
+        SchemaElement column = findColumn(metaData, dateColumn);
+        List<RowGroupStats> rowGroups = new ArrayList<>();
+        for (RowGroup rowGroup : metaData.getRow_groups()) {
+            rowGroups.add(rowGroupStats(rowGroup, column));
+        }
+        return new FileFooter(file, metaData.getNum_rows(), rowGroups);
+    }
+
+    /**
+     * Keeps the files with a row group that may hold a dateColumn value in [from, to). At least
+     * one file is kept, so the output still gets the folder's columns when no row matches.
+     */
+    public Pruned prune(List<ExtractionService.ExtractedFile> files, String dateColumn,
+                        LocalDateTime from, LocalDateTime to) throws IOException {
+        Pruned pruned = new Pruned();
+        ExtractionService.ExtractedFile smallest = null;
+        for (ExtractionService.ExtractedFile file : files) {
+            FileFooter footer = read(file.path, dateColumn);
+            pruned.totalRows += footer.rowCount;
+            int matching = 0;
+            for (RowGroupStats rowGroup : footer.rowGroups) {
+                if (rowGroup.mayContain(from, to)) {
+                    matching++;
+                    pruned.candidateRows += rowGroup.rowCount;
+                }
+            }
+            pruned.skippedRowGroups += footer.rowGroups.size() - matching;
+            if (matching > 0) {
+                pruned.files.add(file);
+            } else {
+                pruned.skippedFiles++;
+                if (smallest == null || file.size < smallest.size) {
+                    smallest = file;
+                }
+            }
+        }
+        if (pruned.files.isEmpty() && smallest != null) {
+            // DuckDB's own zone maps skip this file's row groups, only its footer is read
+            pruned.files.add(smallest);
+            pruned.skippedFiles--;
+        }
+        return pruned;
+    }
+
+    /**
+     * Sums the footer row counts of the files.
+     */
+    public long countRows(List<ExtractionService.ExtractedFile> files) throws IOException {
+        long rows = 0;
+        for (ExtractionService.ExtractedFile file : files) {
+            rows += readMetaData(file.path).getNum_rows();
+        }
+        return rows;
+    }
+
+    private static FileMetaData readMetaData(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            // The file ends with the footer length and the magic bytes
+            long size = channel.size();
+            ByteBuffer tail = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            if (size < 12 || channel.read(tail, size - 8) != 8) {
+                throw new IOException("Not a parquet file, too short: " + file);
+            }
+            tail.flip();
+            int footerLength = tail.getInt();
+            byte[] magic = new byte[4];
+            tail.get(magic);
+            if (!Arrays.equals(MAGIC, magic) || footerLength <= 0 || footerLength > size - 12) {
+                throw new IOException("Not a parquet file, no footer: " + file);
+            }
+            channel.position(size - 8 - footerLength);
+            InputStream in = Channels.newInputStream(channel);
+            return Util.readFileMetaData(in);
+        }
+    }
+
+    /**
+     * The top-level leaf column of that name, null when the file has none.
+     */
+    private static SchemaElement findColumn(FileMetaData metaData, String name) {
+        if (name == null) {
+            return null;
+        }
+        for (SchemaElement element : metaData.getSchema()) {
+            if (name.equals(element.getName()) && element.isSetType() && element.getNum_children() == 0) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static RowGroupStats rowGroupStats(RowGroup rowGroup, SchemaElement column) {
+        if (column == null) {
+            return new RowGroupStats(rowGroup.getNum_rows(), null, null, false);
+        }
+        for (ColumnChunk chunk : rowGroup.getColumns()) {
+            ColumnMetaData meta = chunk.getMeta_data();
+            if (meta == null || meta.getPath_in_schema().size() != 1
+                    || !meta.getPath_in_schema().get(0).equals(column.getName())) {
+                continue;
+            }
+            Statistics stats = meta.getStatistics();
+            if (stats == null) {
+                break;
+            }
+            if (stats.isSetNull_count() && stats.getNull_count() == meta.getNum_values()) {
+                // NULL never passes the date filter
+                return new RowGroupStats(rowGroup.getNum_rows(), null, null, true);
+            }
+            byte[] min = stats.isSetMin_value() ? stats.getMin_value() : stats.isSetMin() ? stats.getMin() : null;
+            byte[] max = stats.isSetMax_value() ? stats.getMax_value() : stats.isSetMax() ? stats.getMax() : null;
+            LocalDateTime minValue = decode(column, min);
+            LocalDateTime maxValue = decode(column, max);
+            if (minValue != null && maxValue != null && isAdjustedToUtc(column)) {
+                // The filter compares instants in the session's time zone, a day either side covers any zone
+                minValue = minValue.minusDays(1);
+                maxValue = maxValue.plusDays(1);
+            }
+            return new RowGroupStats(rowGroup.getNum_rows(), minValue, maxValue, false);
+        }
+        return new RowGroupStats(rowGroup.getNum_rows(), null, null, false);
+    }
+
+    /**
+     * Decodes a DATE or TIMESTAMP statistic; null for any other type, which disables pruning.
+     */
+    private static LocalDateTime decode(SchemaElement column, byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+        LogicalType logicalType = column.isSetLogicalType() ? column.getLogicalType() : null;
+        if (column.getType() == Type.INT32 && value.length == 4
+                && (column.getConverted_type() == ConvertedType.DATE || (logicalType != null && logicalType.isSetDATE()))) {
+            return LocalDate.ofEpochDay(buffer.getInt()).atStartOfDay();
+        }
+        if (column.getType() != Type.INT64 || value.length != 8) {
+            return null;
+        }
+        long raw = buffer.getLong();
+        long micros;
+        if (logicalType != null && logicalType.isSetTIMESTAMP()) {
+            TimeUnit unit = logicalType.getTIMESTAMP().getUnit();
+            micros = unit.isSetMILLIS() ? raw * 1000 : unit.isSetNANOS() ? Math.floorDiv(raw, 1000) : raw;
+        } else if (column.getConverted_type() == ConvertedType.TIMESTAMP_MICROS) {
+            micros = raw;
+        } else if (column.getConverted_type() == ConvertedType.TIMESTAMP_MILLIS) {
+            micros = raw * 1000;
+        } else {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1000, ZoneOffset.UTC);
+    }
+
+    private static boolean isAdjustedToUtc(SchemaElement column) {
+        if (column.isSetLogicalType() && column.getLogicalType().isSetTIMESTAMP()) {
+            return column.getLogicalType().getTIMESTAMP().isIsAdjustedToUTC();
+        }
+        // Converted types alone mark instants in UTC
+        return column.getType() == Type.INT64;
+    }
+
+    public static class FileFooter {
+        public final Path path;
+        public final long rowCount;
+        public final List<RowGroupStats> rowGroups;
+
+        public FileFooter(Path path, long rowCount, List<RowGroupStats> rowGroups) {
+            this.path = path;
+            this.rowCount = rowCount;
+            this.rowGroups = Collections.unmodifiableList(rowGroups);
+        }
+    }
+
+    public static class RowGroupStats {
+        public final long rowCount;
+        // Bounds of the date column, null when the row group has no usable statistics
+        public final LocalDateTime min;
+        public final LocalDateTime max;
+        public final boolean allNull;
+
+        public RowGroupStats(long rowCount, LocalDateTime min, LocalDateTime max, boolean allNull) {
+            this.rowCount = rowCount;
+            this.min = min;
+            this.max = max;
+            this.allNull = allNull;
+        }
+
+        /**
+         * Whether a value in [from, to) may be in the row group, true whenever the statistics can't tell.
+         */
+        public boolean mayContain(LocalDateTime from, LocalDateTime to) {
+            if (allNull || rowCount == 0) {
+                return false;
+            }
+            if (min == null || max == null) {
+                return true;
+            }
+            return max.compareTo(from) >= 0 && min.isBefore(to);
+        }
+    }
+
+    public static class Pruned {
+        public final List<ExtractionService.ExtractedFile> files = new ArrayList<>();
+        // Rows of all files, and of the row groups that may match
+        public long totalRows;
+        public long candidateRows;
+        public int skippedFiles;
+        public int skippedRowGroups;
+    }
+}
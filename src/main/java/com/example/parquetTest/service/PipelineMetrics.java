@@ -0,0 +1,160 @@
+package com.example.parquetTest.service;
+
+import io.micrometer.core.instrument.*;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micrometer instrumentation of the pipelines, exposed through the actuator's metrics and
+ * prometheus endpoints. Every meter is tagged with the pipeline ("process" or "initialLoad"),
+ * per-folder meters also with the folder.
+ */
+@Service
+public class PipelineMetrics {
+
+    private final MeterRegistry registry;
+    // Bytes of extracted parquet files currently held in scratch directories
+    private final AtomicLong scratchBytes = new AtomicLong();
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("pipeline.scratch.bytes", scratchBytes, AtomicLong::get)
+                .description("Bytes of extracted parquet files held in scratch directories")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @FunctionalInterface
+    public interface StageCall<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * Starts timing one run of the pipeline; close the returned run when the pipeline returns.
+     */
+    public Run startRun(String pipeline, JobContext ctx) {
+        // The heap peak is JVM wide, so it also covers runs overlapping with this one
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+        }
+        return new Run(pipeline, ctx);
+    }
+
+    /**
+     * Records the work of one folder: files and bytes read, rows scanned from the parquet
+     * files and rows written to the output.
+     */
+    public void recordFolder(String pipeline, String folder, int files, long bytes, long rowsScanned,
+                             long rowsEmitted, long elapsedNanos) {
+        Tags tags = Tags.of("pipeline", pipeline, "folder", folder);
+        registry.counter("pipeline.folder.files", tags).increment(files);
+        Counter.builder("pipeline.folder.bytes.scanned").baseUnit("bytes").tags(tags).register(registry).increment(bytes);
+        registry.counter("pipeline.folder.rows.scanned", tags).increment(rowsScanned);
+        registry.counter("pipeline.folder.rows.emitted", tags).increment(rowsEmitted);
+        registry.timer("pipeline.folder.duration", tags).record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if (elapsedNanos > 0) {
+            DistributionSummary.builder("pipeline.folder.rows.per.second").tags(tags).register(registry)
+                    .record(rowsScanned * 1_000_000_000d / elapsedNanos);
+        }
+    }
+
+    /**
+     * Counts the parquet files and row groups the footer statistics ruled out before the scan.
+     */
+    public void recordPruning(String pipeline, String folder, int files, int rowGroups) {
+        Tags tags = Tags.of("pipeline", pipeline, "folder", folder);
+        registry.counter("pipeline.folder.files.pruned", tags).increment(files);
+        registry.counter("pipeline.folder.rowgroups.pruned", tags).increment(rowGroups);
+    }
+
+    /**
+     * Counts the schema changes found in a folder's snapshot.
+     */
+    public void recordSchemaDrift(String pipeline, String folder, int changes) {
+        registry.counter("pipeline.folder.schema.drift", "pipeline", pipeline, "folder", folder).increment(changes);
+    }
+
+    /**
+     * Records one request of the query endpoint against a folder's output.
+     */
+    public void recordQuery(String pipeline, String folder, long rows, long elapsedNanos) {
+        Tags tags = Tags.of("pipeline", pipeline, "folder", folder);
+        registry.counter("pipeline.query.rows", tags).increment(rows);
+        registry.timer("pipeline.query.duration", tags).record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void addScratchBytes(long delta) {
+        scratchBytes.addAndGet(delta);
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+    }
+
+    public class Run implements AutoCloseable {
+        private final String pipeline;
+        private final JobContext ctx;
+        private final long startNanos = System.nanoTime();
+        private String outcome = "failure";
+
+        private Run(String pipeline, JobContext ctx) {
+            this.pipeline = pipeline;
+            this.ctx = ctx;
+        }
+
+        /**
+         * Runs one stage of the pipeline, timing it by outcome.
+         */
+        public <T> T time(String stage, StageCall<T> call) throws Exception {
+            long start = System.nanoTime();
+            String stageOutcome = "failure";
+            try {
+                T result = call.call();
+                stageOutcome = "success";
+                return result;
+            } finally {
+                if (ctx.isCancelled()) {
+                    stageOutcome = "cancelled";
+                }
+                registry.timer("pipeline.stage.duration", "pipeline", pipeline, "stage", stage, "outcome", stageOutcome)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        public void recordExtracted(int files, long bytes) {
+            registry.counter("pipeline.extract.files", "pipeline", pipeline).increment(files);
+            Counter.builder("pipeline.extract.bytes").baseUnit("bytes").tag("pipeline", pipeline).register(registry)
+                    .increment(bytes);
+        }
+
+        public void succeeded() {
+            outcome = "success";
+        }
+
+        @Override
+        public void close() {
+            if (ctx.isCancelled()) {
+                outcome = "cancelled";
+            }
+            registry.timer("pipeline.run.duration", "pipeline", pipeline, "outcome", outcome)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            Counter.builder("pipeline.download.bytes").baseUnit("bytes").tag("pipeline", pipeline).register(registry)
+                    .increment(ctx.stage(JobContext.DOWNLOAD).getBytes());
+
+            long heapPeak = 0;
+            for (MemoryPoolMXBean pool : heapPools()) {
+                heapPeak += pool.getPeakUsage().getUsed();
+            }
+            DistributionSummary.builder("pipeline.heap.peak").baseUnit("bytes").tag("pipeline", pipeline)
+                    .register(registry).record(heapPeak);
+        }
+    }
+}
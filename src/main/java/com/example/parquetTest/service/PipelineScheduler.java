@@ -0,0 +1,158 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.InsightsAppConfig;
+import com.example.parquetTest.config.ScheduleConfig;
+import com.example.parquetTest.config.SourceConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Builds each day's outputs of every source ahead of demand, on the cron of each pipeline.
+ * Every run looks back app.schedule.catch-up-days from the latest snapshot date, so the days
+ * missed while the application was down, or whose run failed or left out a folder, are built
+ * too, oldest first.
+ * The days run as one-day range jobs, writing the dated ZIP that JobService then publishes
+ * for a request of that day; at most app.schedule.max-concurrent-runs of them at once.
+ */
+@Service
+public class PipelineScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(PipelineScheduler.class);
+
+    @Autowired
+    private ScheduleConfig scheduleConfig;
+
+    @Autowired
+    private SourceConfig sourceConfig;
+
+    @Autowired
+    private InsightsAppConfig insightsAppConfig;
+
+    @Autowired
+    private JobService jobService;
+
+    // Days waiting for a run slot, and the keys of those waiting or running
+    private final Deque<Day> pending = new ArrayDeque<>();
+    private final Set<String> scheduled = new HashSet<>();
+    private int running;
+
+    @Scheduled(cron = "${app.schedule.process-cron:-}", zone = "${app.schedule.zone:UTC}")
+    public void scheduleProcess() {
+        catchUp(JobService.PROCESS);
+    }
+
+    @Scheduled(cron = "${app.schedule.initial-load-cron:-}", zone = "${app.schedule.zone:UTC}")
+    public void scheduleInitialLoad() {
+        catchUp(JobService.INITIAL_LOAD);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void catchUpOnStartup() {
+        if (!scheduleConfig.isCatchUpOnStartup()) {
+            return;
+        }
+        if (isScheduled(scheduleConfig.getProcessCron())) {
+            catchUp(JobService.PROCESS);
+        }
+        if (isScheduled(scheduleConfig.getInitialLoadCron())) {
+            catchUp(JobService.INITIAL_LOAD);
+        }
+    }
+
+    /**
+     * Queues every day of the catch-up window of every source that has no built output and is
+     * not queued yet, and starts as many as the run limit allows. Returns the days queued.
+     */
+    public synchronized int catchUp(String type) {
+        LocalDate latest = LocalDate.now(scheduleConfig.getZone()).minusDays(insightsAppConfig.getDateOffset());
+        LocalDate first = latest.minusDays(scheduleConfig.getCatchUpDays() - 1);
+        int queued = 0;
+        for (LocalDate date = first; !date.isAfter(latest); date = date.plusDays(1)) {
+            for (Source source : sourceConfig.getSources()) {
+                Day day = new Day(type, source, date);
+                if (!scheduled.contains(day.key()) && !isBuilt(day)) {
+                    pending.add(day);
+                    scheduled.add(day.key());
+                    queued++;
+                }
+            }
+        }
+        if (queued > 0) {
+            logger.info("Scheduled {} {} days from {} to {}", queued, type, first, latest);
+        }
+        dispatch();
+        return queued;
+    }
+
+    private void dispatch() {
+        while (running < scheduleConfig.getMaxConcurrentRuns() && !pending.isEmpty()) {
+            Day day = pending.poll();
+            JobService.Job job;
+            try {
+                job = jobService.submitRange(day.type, day.date, day.date, null, day.source.getName());
+            } catch (RejectedExecutionException e) {
+                // The job queue is full of requests, the next scheduled run tries again
+                pending.addFirst(day);
+                logger.warn("Job queue full, {} {} of source {} waits for the next schedule", day.type, day.date, day.source.getName());
+                return;
+            } catch (RuntimeException e) {
+                // Dropped for now, the next scheduled run queues the day again
+                scheduled.remove(day.key());
+                logger.error("Could not submit scheduled {} job for {} of source {}: {}", day.type, day.date,
+                        day.source.getName(), e.getMessage(), e);
+                continue;
+            }
+            running++;
+            job.getCompletion().whenComplete((done, failure) -> finished(day, done));
+        }
+    }
+
+    private synchronized void finished(Day day, JobService.Job job) {
+        running--;
+        scheduled.remove(day.key());
+        if (job != null && job.getStatus() != JobService.Status.SUCCEEDED) {
+            // Without its output the day is scheduled again by the next run
+            logger.warn("Scheduled {} job {} for {} of source {} ended {}: {}", day.type, job.getId(), day.date,
+                    day.source.getName(), job.getStatus(), job.getError());
+        }
+        dispatch();
+    }
+
+    /**
+     * Whether a run in which every folder succeeded built the day; a partial ZIP is built again.
+     */
+    private static boolean isBuilt(Day day) {
+        String marker = JobService.PROCESS.equals(day.type)
+                ? ProcessService.dayCompleteName(day.date)
+                : ProcessInitialLoadService.dayCompleteName(day.date);
+        return day.source.resolve(marker).isFile();
+    }
+
+    private static boolean isScheduled(String cron) {
+        return !Scheduled.CRON_DISABLED.equals(cron.trim());
+    }
+
+    private static class Day {
+        final String type;
+        final Source source;
+        final LocalDate date;
+
+        Day(String type, Source source, LocalDate date) {
+            this.type = type;
+            this.source = source;
+            this.date = date;
+        }
+
+        String key() {
+            return type + "|" + source.getName() + "|" + date;
+        }
+    }
+}
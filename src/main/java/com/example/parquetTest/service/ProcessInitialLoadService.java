@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,8 +15,6 @@ import java.nio.file.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @Service
 public class ProcessInitialLoadService {
@@ -27,6 +26,15 @@ public class ProcessInitialLoadService {
     @Autowired
     private ExtractionService extractionService;
 
+    @Autowired
+    private ZipPackager zipPackager;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private SnapshotCache snapshotCache;
+
     @Autowired
     private InitialLoadService initialLoadService;
 
@@ -43,30 +51,148 @@ public class ProcessInitialLoadService {
         objectMapper.setSerializationInclusion(JsonInclude.Include.ALWAYS);
     }
 
-    public void process() throws Exception {
-        // Step 1: Download ZIP file
-        File zipFile = downloadService.downloadZip();
-
-        // Step 2: Extract Parquet files into memory (byte arrays)
-        Map<String, List<byte[]>> parquetFiles = extractionService.extractParquetFromZip(zipFile);
+    /**
+     * Runs the pipeline for the snapshot date of the job, reporting progress to it and
+     * stopping between stages once it is cancelled.
+     */
+    public void process(JobContext ctx) throws Exception {
+        process(ctx, ZIP_FILE_NAME);
+    }
 
-        // Step 3: Filter data using DuckDB (writing directly to files)
-        Map<String, FilterResult> filteredResults = initialLoadService.filterParquetFiles(parquetFiles);
+    /**
+     * Runs the pipeline for one day of a date range, writing its own ZIP, e.g. Json_InitialLoad-20250301.zip,
+     * so the days of the range can run concurrently.
+     */
+    public void processDay(JobContext ctx) throws Exception {
+        // The day counts as built only once a run in which every folder succeeded marks it complete
+        File marker = ctx.outputFile(dayCompleteName(ctx.getSnapshotDate()));
+        Files.deleteIfExists(marker.toPath());
+        if (process(ctx, dayZipName(ctx.getSnapshotDate()))) {
+            Files.createFile(marker.toPath());
+        } else {
+            logger.warn("{} for {} is incomplete, it is not served and the scheduler builds it again",
+                    dayZipName(ctx.getSnapshotDate()), ctx.getSnapshotDate());
+        }
+    }
 
-        // Step 4: Ensure Json_filtered directory exists
-        File jsonDir = new File(JSON_DIR);
-        if (!jsonDir.exists() && jsonDir.mkdirs()) {
-            logger.info("Json_InitialLoad directory created: {}", jsonDir.getAbsolutePath());
+    /**
+     * Publishes the ZIP processDay built for the job's date, e.g. by the scheduler, as the
+     * pipeline's Json_InitialLoad.zip; false when the day was never built completely.
+     */
+    public boolean publishDay(JobContext ctx) throws IOException {
+        File dayZip = ctx.outputFile(dayZipName(ctx.getSnapshotDate()));
+        if (!dayZip.isFile() || !ctx.outputFile(dayCompleteName(ctx.getSnapshotDate())).isFile()) {
+            return false;
+        }
+        File zipFile = ctx.outputFile(ZIP_FILE_NAME);
+        // A temp file of its own, so concurrent publishes never move each other's partial copy
+        Path tmp = Files.createTempFile(zipFile.getAbsoluteFile().getParentFile().toPath(), zipFile.getName(), ".tmp");
+        try {
+            Files.copy(dayZip.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
         }
+        logger.info("Published {} built earlier as {}", dayZip.getPath(), zipFile.getPath());
+        return true;
+    }
+
+    /**
+     * The ZIP of one day, e.g. Json_InitialLoad-20250301.zip, under the output directory of its source.
+     */
+    static String dayZipName(LocalDate date) {
+        return JSON_DIR + "-" + date.format(DATE_FORMATTER) + ".zip";
+    }
+
+    /**
+     * The marker processDay writes next to the ZIP of a day once every folder of it succeeded.
+     */
+    static String dayCompleteName(LocalDate date) {
+        return dayZipName(date) + ".complete";
+    }
+
+    /**
+     * Runs the pipeline into the ZIP of that name; true when every folder succeeded.
+     */
+    private boolean process(JobContext ctx, String zipFileName) throws Exception {
+        try (PipelineMetrics.Run run = pipelineMetrics.startRun(JobService.INITIAL_LOAD, ctx)) {
+            // Step 1: Download ZIP file
+            File zipFile = run.time(JobContext.DOWNLOAD, () -> downloadService.downloadZip(ctx));
+            ctx.checkCancelled();
+
+            // A completed run over the same snapshot content and settings is restored instead of rerun
+            String cacheKey = snapshotCache.outputKey(JobService.INITIAL_LOAD, zipFile, initialLoadService.describeSettings(ctx));
+            // Outputs go under the output directory of the job's source
+            File outputZip = ctx.outputFile(zipFileName);
+            File jsonDir = ctx.outputFile(JSON_DIR);
+            if (snapshotCache.restore(cacheKey, outputZip, jsonDir, ctx)) {
+                run.succeeded();
+                return true;
+            }
+
+            boolean complete;
+            // Output files are compressed into the ZIP while the remaining folders are still running
+            try (SnapshotCache.Pin pin = snapshotCache.pin(zipFile);
+                 ZipPackager.Archive archive = zipPackager.open(outputZip, ctx.stage(JobContext.PACKAGE))) {
+                // Step 2: Ensure Json_InitialLoad directory exists
+                if (!jsonDir.exists() && jsonDir.mkdirs()) {
+                    logger.info("Json_InitialLoad directory created: {}", jsonDir.getAbsolutePath());
+                }
+
+                // Step 3: Stream Parquet files into a per-run scratch directory. Each folder is
+                // filtered as soon as its last file is on disk, and each JSON file is packaged once
+                // written, so extraction, filtering and packaging overlap. The folder queue is
+                // bounded, a full queue pauses the extraction.
+                Path scratchDir = extractionService.createScratchDirectory();
+                long scratchBytes = 0;
+                Map<String, FilterResult> filteredResults;
+                int folderCount;
+                try (FolderScheduler.Session<FilterResult> filter = initialLoadService.startLoad(ctx, archive::add)) {
+                    Map<String, List<ExtractionService.ExtractedFile>> parquetFiles = run.time(JobContext.EXTRACT,
+                            () -> extractionService.extractParquetToDirectory(zipFile, scratchDir, ctx, filter::submit));
+                    int fileCount = 0;
+                    for (List<ExtractionService.ExtractedFile> folderFiles : parquetFiles.values()) {
+                        for (ExtractionService.ExtractedFile file : folderFiles) {
+                            scratchBytes += file.size;
+                        }
+                        fileCount += folderFiles.size();
+                    }
+                    folderCount = parquetFiles.size();
+                    run.recordExtracted(fileCount, scratchBytes);
+                    pipelineMetrics.addScratchBytes(scratchBytes);
+
+                    // Step 4: Wait for the folders still filtering with DuckDB
+                    filteredResults = run.time(JobContext.FILTER, filter::finish);
+                } finally {
+                    FileUtils.deleteQuietly(scratchDir.toFile());
+                    pipelineMetrics.addScratchBytes(-scratchBytes);
+                }
+                ctx.checkCancelled();
+
+                // Step 5: Generate manifest.txt
+                File manifestFile = generateManifest(jsonDir, filteredResults);
+                if (manifestFile != null) {
+                    archive.add(manifestFile);
+                }
 
-        // Step 5: Generate manifest.txt
-        generateManifest(filteredResults);
+                // Step 6: Write the ZIP once every entry is compressed
+                run.time(JobContext.PACKAGE, () -> {
+                    archive.finish();
+                    return null;
+                });
 
-        // Step 6: Zip the Json_filtered directory
-        zipJsonFilteredDirectory();
+                // Step 7: Caching the output of a run in which every folder succeeded
+                complete = filteredResults.size() == folderCount && manifestFile != null;
+                if (complete) {
+                    snapshotCache.store(cacheKey, outputZip, manifestFile);
+                }
+            }
+            run.succeeded();
+            return complete;
+        }
     }
 
-    private void generateManifest(Map<String, FilterResult> filteredResults) {
+    private File generateManifest(File jsonDir, Map<String, FilterResult> filteredResults) {
         Optional<String> optionalEditedDate = filteredResults.values().stream()
                 .map(result -> result.editedDate)
                 .filter(Objects::nonNull)
@@ -75,49 +201,30 @@ public class ProcessInitialLoadService {
         if (optionalEditedDate.isPresent()) {
             String formattedDate = LocalDate.parse(optionalEditedDate.get()).format(DATE_FORMATTER);
             String manifestFileName = "manifest-" + formattedDate + ".txt";
-            File manifestFile = new File(JSON_DIR, manifestFileName);
+            File manifestFile = new File(jsonDir, manifestFileName);
 
             try (FileWriter writer = new FileWriter(manifestFile)) {
                 for (Map.Entry<String, FilterResult> entry : filteredResults.entrySet()) {
                     FilterResult result = entry.getValue();
-                    writer.write(result.folderName + "|" + formattedDate + "|" + result.totalFilteredRows + "\n");
+                    writer.write(result.folderName + "|" + formattedDate + "|" + result.totalFilteredRows + "|" + result.format + "\n");
                 }
                 logger.info("Manifest file saved: {}", manifestFile.getAbsolutePath());
+                return manifestFile;
             } catch (IOException e) {
                 logger.error("Error writing {}: {}", manifestFileName, e.getMessage());
             }
         } else {
             logger.error("Error: No valid edited_date found for manifest naming.");
         }
-    }
-
-    private void zipJsonFilteredDirectory() {
-        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(ZIP_FILE_NAME))) {
-            Path sourceDirPath = Paths.get(JSON_DIR);
-            Files.walk(sourceDirPath).forEach(path -> {
-                try {
-                    String fileName = sourceDirPath.relativize(path).toString();
-                    if (!fileName.isEmpty()) {
-                        zipOut.putNextEntry(new ZipEntry(fileName));
-                        if (!Files.isDirectory(path)) {
-                            Files.copy(path, zipOut);
-                        }
-                        zipOut.closeEntry();
-                    }
-                } catch (IOException e) {
-                    logger.error("Error zipping file: {} - {}", path, e.getMessage());
-                }
-            });
-            logger.info("Zipped JSON directory: " + ZIP_FILE_NAME);
-        } catch (IOException e) {
-            logger.error("Error creating ZIP file: {}", e.getMessage());
-        }
+        return null;
     }
 
     public static class FilterResult {
         public String folderName;
         public String editedDate;
         public int totalFilteredRows;
+        // Name of the OutputFormat the folder was written in
+        public String format = OutputFormat.JSON.getName();
         public List<FileDetail> files = new ArrayList<>();
 
         public FilterResult(String folderName, String editedDate) {
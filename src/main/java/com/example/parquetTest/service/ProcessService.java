@@ -1,9 +1,6 @@
 package com.example.parquetTest.service;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,8 +11,6 @@ import java.nio.file.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @Service
 public class ProcessService {
@@ -27,74 +22,165 @@ public class ProcessService {
     @Autowired
     private ExtractionService extractionService;
 
+    @Autowired
+    private ZipPackager zipPackager;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private SnapshotCache snapshotCache;
+
     @Autowired
     private FilterService filterService;
 
     private static final String JSON_DIR = "Json_filtered";
     private static final String MANIFEST_FILE = "manifest.txt";
     private static final String ZIP_FILE_NAME = JSON_DIR + ".zip";
-    private final ObjectMapper objectMapper;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
 
-    public ProcessService() {
-        this.objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
-        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-        objectMapper.setSerializationInclusion(JsonInclude.Include.ALWAYS);
+    /**
+     * Runs the pipeline for the snapshot date of the job, reporting progress to it and
+     * stopping between stages once it is cancelled.
+     */
+    public void process(JobContext ctx) throws Exception {
+        process(ctx, ZIP_FILE_NAME);
     }
 
-    public void process() throws Exception {
-        // Step 1: Download ZIP file
-        File zipFile = downloadService.downloadZip();
-
-        // Step 2: Extract Parquet files into memory (byte arrays)
-        Map<String, List<byte[]>> parquetFiles = extractionService.extractParquetFromZip(zipFile);
-
-        // Step 3: Filter data using DuckDB (directly from memory)
-        Map<String, FilterResult> filteredResults = filterService.filterParquetFiles(parquetFiles);
+    /**
+     * Runs the pipeline for one day of a date range, writing its own ZIP, e.g. Json_filtered-20250301.zip,
+     * so the days of the range can run concurrently.
+     */
+    public void processDay(JobContext ctx) throws Exception {
+        // The day counts as built only once a run in which every folder succeeded marks it complete
+        File marker = ctx.outputFile(dayCompleteName(ctx.getSnapshotDate()));
+        Files.deleteIfExists(marker.toPath());
+        if (process(ctx, dayZipName(ctx.getSnapshotDate()))) {
+            Files.createFile(marker.toPath());
+        } else {
+            logger.warn("{} for {} is incomplete, it is not served and the scheduler builds it again",
+                    dayZipName(ctx.getSnapshotDate()), ctx.getSnapshotDate());
+        }
+    }
 
-        // Step 4: Ensure Json_filtered directory exists
-        File jsonDir = new File(JSON_DIR);
-        if (!jsonDir.exists() && jsonDir.mkdirs()) {
-            logger.info("Json_filtered directory created: {}", jsonDir.getAbsolutePath());
+    /**
+     * Publishes the ZIP processDay built for the job's date, e.g. by the scheduler, as the
+     * pipeline's Json_filtered.zip; false when the day was never built completely.
+     */
+    public boolean publishDay(JobContext ctx) throws IOException {
+        File dayZip = ctx.outputFile(dayZipName(ctx.getSnapshotDate()));
+        if (!dayZip.isFile() || !ctx.outputFile(dayCompleteName(ctx.getSnapshotDate())).isFile()) {
+            return false;
         }
+        File zipFile = ctx.outputFile(ZIP_FILE_NAME);
+        // A temp file of its own, so concurrent publishes never move each other's partial copy
+        Path tmp = Files.createTempFile(zipFile.getAbsoluteFile().getParentFile().toPath(), zipFile.getName(), ".tmp");
+        try {
+            Files.copy(dayZip.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        logger.info("Published {} built earlier as {}", dayZip.getPath(), zipFile.getPath());
+        return true;
+    }
 
-        // Step 5: Save JSON output and generate manifest.txt
-        saveJsonOutput(filteredResults);
-        generateManifest(filteredResults);
+    /**
+     * The ZIP of one day, e.g. Json_filtered-20250301.zip, under the output directory of its source.
+     */
+    static String dayZipName(LocalDate date) {
+        return JSON_DIR + "-" + date.format(DATE_FORMATTER) + ".zip";
+    }
 
-        // Step 6: Zip the Json_filtered directory
-        zipJsonFilteredDirectory();
+    /**
+     * The marker processDay writes next to the ZIP of a day once every folder of it succeeded.
+     */
+    static String dayCompleteName(LocalDate date) {
+        return dayZipName(date) + ".complete";
     }
 
-    private void saveJsonOutput(Map<String, FilterResult> filteredResults) {
-        for (Map.Entry<String, FilterResult> entry : filteredResults.entrySet()) {
-            String folderName = entry.getKey();
-            FilterResult result = entry.getValue();
-            String formattedDate = LocalDate.parse(result.editedDate).format(DATE_FORMATTER);
-            File jsonOutputFile = new File(JSON_DIR, folderName + "-" + formattedDate + ".json");
-
-            try (FileWriter writer = new FileWriter(jsonOutputFile)) {
-                if (!result.data.isEmpty()) {
-                    List<Map<String, Object>> removeData = new ArrayList<>();
-                    for (Map<String, Object> row : result.data) {
-                        Map<String, Object> removedRow = new HashMap<>(row);
-                        removedRow.remove("filter_date");
-                        removeData.add(removedRow);
+    /**
+     * Runs the pipeline into the ZIP of that name; true when every folder succeeded.
+     */
+    private boolean process(JobContext ctx, String zipFileName) throws Exception {
+        try (PipelineMetrics.Run run = pipelineMetrics.startRun(JobService.PROCESS, ctx)) {
+            // Step 1: Download ZIP file
+            File zipFile = run.time(JobContext.DOWNLOAD, () -> downloadService.downloadZip(ctx));
+            ctx.checkCancelled();
+
+            // A completed run over the same snapshot content and settings is restored instead of rerun
+            String cacheKey = snapshotCache.outputKey(JobService.PROCESS, zipFile, filterService.describeSettings(ctx));
+            // Outputs go under the output directory of the job's source
+            File outputZip = ctx.outputFile(zipFileName);
+            File jsonDir = ctx.outputFile(JSON_DIR);
+            if (snapshotCache.restore(cacheKey, outputZip, jsonDir, ctx)) {
+                run.succeeded();
+                return true;
+            }
+
+            boolean complete;
+            // Output files are compressed into the ZIP while the remaining folders are still running
+            try (SnapshotCache.Pin pin = snapshotCache.pin(zipFile);
+                 ZipPackager.Archive archive = zipPackager.open(outputZip, ctx.stage(JobContext.PACKAGE))) {
+                // Step 2: Ensure Json_filtered directory exists
+                if (!jsonDir.exists() && jsonDir.mkdirs()) {
+                    logger.info("Json_filtered directory created: {}", jsonDir.getAbsolutePath());
+                }
+
+                // Step 3: Stream Parquet files into a per-run scratch directory. Each folder is
+                // filtered as soon as its last file is on disk, and each JSON file is packaged once
+                // written, so extraction, filtering and packaging overlap. The folder queue is
+                // bounded, a full queue pauses the extraction.
+                Path scratchDir = extractionService.createScratchDirectory();
+                long scratchBytes = 0;
+                Map<String, FilterResult> filteredResults;
+                int folderCount;
+                try (FolderScheduler.Session<FilterResult> filter = filterService.startFilter(ctx, archive::add)) {
+                    Map<String, List<ExtractionService.ExtractedFile>> parquetFiles = run.time(JobContext.EXTRACT,
+                            () -> extractionService.extractParquetToDirectory(zipFile, scratchDir, ctx, filter::submit));
+                    int fileCount = 0;
+                    for (List<ExtractionService.ExtractedFile> folderFiles : parquetFiles.values()) {
+                        for (ExtractionService.ExtractedFile file : folderFiles) {
+                            scratchBytes += file.size;
+                        }
+                        fileCount += folderFiles.size();
                     }
-                    writer.write(objectMapper.writeValueAsString(removeData));
-                } else {
-                    writer.write("");
+                    folderCount = parquetFiles.size();
+                    run.recordExtracted(fileCount, scratchBytes);
+                    pipelineMetrics.addScratchBytes(scratchBytes);
+
+                    // Step 4: Wait for the folders still filtering with DuckDB
+                    filteredResults = run.time(JobContext.FILTER, filter::finish);
+                } finally {
+                    FileUtils.deleteQuietly(scratchDir.toFile());
+                    pipelineMetrics.addScratchBytes(-scratchBytes);
+                }
+                ctx.checkCancelled();
+
+                // Step 5: Generate manifest.txt
+                File manifestFile = generateManifest(jsonDir, filteredResults);
+                if (manifestFile != null) {
+                    archive.add(manifestFile);
+                }
+
+                // Step 6: Write the ZIP once every entry is compressed
+                run.time(JobContext.PACKAGE, () -> {
+                    archive.finish();
+                    return null;
+                });
+
+                // Step 7: Caching the output of a run in which every folder succeeded
+                complete = filteredResults.size() == folderCount && manifestFile != null;
+                if (complete) {
+                    snapshotCache.store(cacheKey, outputZip, manifestFile);
                 }
-                logger.info("JSON saved: {}", jsonOutputFile.getAbsolutePath());
-            } catch (IOException e) {
-                logger.error("Error writing JSON file: {} - {}", jsonOutputFile.getName(), e.getMessage());
             }
+            run.succeeded();
+            return complete;
         }
     }
 
-    private void generateManifest(Map<String, FilterResult> filteredResults) {
+    private File generateManifest(File jsonDir, Map<String, FilterResult> filteredResults) {
         Optional<String> optionalEditedDate = filteredResults.values().stream()
                 .map(result -> result.editedDate)
                 .filter(Objects::nonNull)
@@ -102,50 +188,30 @@ public class ProcessService {
         if (optionalEditedDate.isPresent()) {
             String formattedDate = LocalDate.parse(optionalEditedDate.get()).format(DATE_FORMATTER);
             String manifestFileName = "manifest-" + formattedDate + ".txt";
-            File manifestFile = new File(JSON_DIR, manifestFileName);
+            File manifestFile = new File(jsonDir, manifestFileName);
 
             try (FileWriter writer = new FileWriter(manifestFile)) {
                 for (Map.Entry<String, FilterResult> entry : filteredResults.entrySet()) {
                     FilterResult result = entry.getValue();
-                    writer.write(result.folderName + "|" + formattedDate + "|" + result.totalFilteredRows + "\n");
+                    writer.write(result.folderName + "|" + formattedDate + "|" + result.totalFilteredRows + "|" + result.format + "\n");
                 }
                 logger.info("Manifest file saved: {}", manifestFile.getAbsolutePath());
+                return manifestFile;
             } catch (IOException e) {
                 logger.error("Error writing {}: {}", manifestFileName, e.getMessage());
             }
         } else {
             logger.error("Error: No valid edited_date found for manifest naming.");
         }
-    }
-
-    private void zipJsonFilteredDirectory() {
-        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(ZIP_FILE_NAME))) {
-            Path sourceDirPath = Paths.get(JSON_DIR);
-            Files.walk(sourceDirPath).forEach(path -> {
-                try {
-                    String fileName = sourceDirPath.relativize(path).toString();
-                    if (!fileName.isEmpty()) {
-                        zipOut.putNextEntry(new ZipEntry(fileName));
-                        if (!Files.isDirectory(path)) {
-                            Files.copy(path, zipOut);
-                        }
-                        zipOut.closeEntry();
-                    }
-                } catch (IOException e) {
-                    logger.error("Error zipping file: {} - {}", path, e.getMessage());
-                }
-            });
-            logger.info("Zipped JSON directory: " + ZIP_FILE_NAME);
-        } catch (IOException e) {
-            logger.error("Error creating ZIP file: {}", e.getMessage());
-        }
+        return null;
     }
 
     public static class FilterResult {
         public String folderName;
         public String editedDate;
         public int totalFilteredRows;
-        public List<Map<String, Object>> data = new ArrayList<>();
+        // Name of the OutputFormat the folder was written in
+        public String format = OutputFormat.JSON.getName();
         public List<FileDetail> files = new ArrayList<>();
 
         public FilterResult(String folderName, String editedDate) {
@@ -154,10 +220,6 @@ public class ProcessService {
             this.totalFilteredRows = 0;
         }
 
-        public void addData(Map<String, Object> row) {
-            this.data.add(row);
-        }
-
         public void addFile(String fileName, int recordCount) {
             this.files.add(new FileDetail(fileName, recordCount));
             this.totalFilteredRows += recordCount;
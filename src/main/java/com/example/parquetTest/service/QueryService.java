@@ -0,0 +1,399 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.QueryConfig;
+import com.example.parquetTest.config.SourceConfig;
+import com.example.parquetTest.utils.DuckDBUtil;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowReader;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.duckdb.DuckDBResultSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.file.NoSuchFileException;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Targeted reads of the processed output files: one folder and date, a projection of its
+ * columns, simple predicates and keyset pagination, streamed as NDJSON straight from DuckDB,
+ * or as an Arrow IPC stream of DuckDB's own record batches for columnar consumers.
+ */
+@Service
+public class QueryService {
+    private static final Logger logger = LoggerFactory.getLogger(QueryService.class);
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Pattern FOLDER_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final Pattern NUMERIC_TYPE = Pattern.compile("U?(TINYINT|SMALLINT|INTEGER|BIGINT)|HUGEINT|FLOAT|DOUBLE|DECIMAL.*");
+    private static final Map<String, String> OPERATORS = Map.of(
+            "eq", "=", "ne", "<>", "lt", "<", "le", "<=", "gt", ">", "ge", ">=", "like", "LIKE");
+    private static final int FLUSH_ROWS = 1000;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Autowired
+    private DuckDBService duckDBService;
+
+    @Autowired
+    private AppConfig appConfig;
+
+    @Autowired
+    private QueryConfig queryConfig;
+
+    @Autowired
+    private SourceConfig sourceConfig;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    /**
+     * Validates the query against the output file's schema and renders it, so a bad request
+     * fails before anything is streamed. Throws IllegalArgumentException for a bad request and
+     * NoSuchFileException when the folder has no output for the date.
+     */
+    public PreparedQuery prepare(Query query) throws IOException, SQLException {
+        return prepare(query, false);
+    }
+
+    /**
+     * Like prepare, for streamArrow: the columns keep their DuckDB types, and without a limit
+     * or after the whole output is returned in file order.
+     */
+    public PreparedQuery prepareColumnar(Query query) throws IOException, SQLException {
+        return prepare(query, true);
+    }
+
+    private PreparedQuery prepare(Query query, boolean columnar) throws IOException, SQLException {
+        // Step 1: Finding the output file of the folder and date, in whichever format it was written
+        if (!FOLDER_NAME.matcher(query.folder).matches()) {
+            throw new IllegalArgumentException("Invalid folder: " + query.folder);
+        }
+        File file = outputFile(query.pipeline, sourceConfig.getSource(query.source), query.folder, query.date);
+        String scan = file.getName().endsWith("." + OutputFormat.PARQUET.getExtension())
+                ? "read_parquet(" + DuckDBUtil.quoteLiteral(file.getPath()) + ")"
+                : "read_json_auto(" + DuckDBUtil.quoteLiteral(file.getPath()) + ")";
+
+        try (Connection conn = duckDBService.getConnection()) {
+            // Step 2: Checking every column the query names against the file's schema
+            Map<String, String> schema = DuckDBUtil.describe(conn, "SELECT * FROM " + scan);
+            // Rows sharing the last key of a page would be skipped by the next one, so only a key
+            // the caller knows to be unique pages; without one a single page is read in file order
+            String key = query.key;
+            if (key == null && query.after != null) {
+                throw new IllegalArgumentException("after needs the unique key the pages are ordered by");
+            }
+            List<String> columns = new ArrayList<>(query.columns.isEmpty() ? schema.keySet() : query.columns);
+            if (key != null && !columns.contains(key)) {
+                // The key is always returned, the last row's key is the cursor of the next page
+                columns.add(0, key);
+            }
+            for (String column : columns) {
+                requireColumn(schema, column);
+            }
+
+            // Step 3: Rendering the statement, every value a parameter cast to its column's type
+            List<String> parameters = new ArrayList<>();
+            List<String> conditions = new ArrayList<>();
+            for (Filter filter : query.filters) {
+                requireColumn(schema, filter.column);
+                String column = DuckDBUtil.quoteIdentifier(filter.column);
+                if (filter.operator.equals("like")) {
+                    conditions.add("CAST(" + column + " AS VARCHAR) LIKE ?");
+                } else {
+                    conditions.add(column + " " + OPERATORS.get(filter.operator) + " CAST(? AS " + schema.get(filter.column) + ")");
+                }
+                parameters.add(filter.value);
+            }
+            if (query.after != null) {
+                conditions.add(DuckDBUtil.quoteIdentifier(key) + " > CAST(? AS " + schema.get(key) + ")");
+                parameters.add(query.after);
+            }
+            Integer limit = query.limit != null || columnar ? query.limit : Integer.valueOf(queryConfig.getDefaultLimit());
+            if (limit != null && (limit < 1 || limit > queryConfig.getMaxLimit())) {
+                throw new IllegalArgumentException("limit must be between 1 and " + queryConfig.getMaxLimit());
+            }
+
+            List<String> selected = new ArrayList<>();
+            Set<String> rawColumns = new HashSet<>();
+            for (String column : columns) {
+                String quoted = DuckDBUtil.quoteIdentifier(column);
+                String type = schema.get(column);
+                if (columnar) {
+                    // Arrow carries every DuckDB type as it is, nested ones included
+                    selected.add(quoted);
+                } else if (isNested(type)) {
+                    // Nested values are rendered as JSON by DuckDB and written as they are
+                    selected.add("CAST(to_json(" + quoted + ") AS VARCHAR) AS " + quoted);
+                    rawColumns.add(column);
+                } else if (type.equals("BOOLEAN") || NUMERIC_TYPE.matcher(type).matches()) {
+                    selected.add(quoted);
+                } else {
+                    // Dates, timestamps and the like as DuckDB renders them, as in the JSON outputs
+                    selected.add("CAST(" + quoted + " AS VARCHAR) AS " + quoted);
+                }
+            }
+            String sql = "SELECT " + String.join(", ", selected) + " FROM " + scan
+                    + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions))
+                    + (key != null && (limit != null || query.after != null) ? " ORDER BY " + DuckDBUtil.quoteIdentifier(key) : "")
+                    + (limit != null ? " LIMIT " + limit : "");
+
+            // Step 4: Casting the values once up front, a bad value is a bad request rather than a broken stream
+            checkValues(conn, query, schema, key);
+            return new PreparedQuery(query, sql, parameters, columns, rawColumns, columnar);
+        }
+    }
+
+    /**
+     * Runs a prepared query, writing one JSON object per row. Rows are written as DuckDB
+     * returns them and flushed every few rows, so the response is never held in memory.
+     */
+    public long stream(PreparedQuery prepared, OutputStream out) throws IOException, SQLException {
+        long start = System.nanoTime();
+        long rows = 0;
+        try (Connection conn = duckDBService.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(prepared.sql)) {
+            for (int i = 0; i < prepared.parameters.size(); i++) {
+                stmt.setString(i + 1, prepared.parameters.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery();
+                 JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+                json.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+                while (rs.next()) {
+                    writeRow(json, rs, prepared);
+                    json.writeRaw('\n');
+                    if (++rows % FLUSH_ROWS == 0) {
+                        json.flush();
+                    }
+                }
+            }
+        } finally {
+            pipelineMetrics.recordQuery(prepared.query.pipeline, prepared.query.folder, rows, System.nanoTime() - start);
+        }
+        logger.debug("Streamed {} rows of {} for {}", rows, prepared.query.folder, prepared.query.date);
+        return rows;
+    }
+
+    /**
+     * Runs a query prepared by prepareColumnar and writes it as an Arrow IPC stream. DuckDB
+     * exports its result as Arrow record batches of app.query.arrow-batch-rows rows, each is
+     * written as soon as DuckDB produced it, with no Java object per row or value.
+     */
+    public long streamArrow(PreparedQuery prepared, OutputStream out) throws IOException, SQLException {
+        if (!prepared.columnar) {
+            throw new IllegalStateException("Arrow streams need a query from prepareColumnar");
+        }
+        long start = System.nanoTime();
+        long rows = 0;
+        try (Connection conn = duckDBService.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(prepared.sql)) {
+            for (int i = 0; i < prepared.parameters.size(); i++) {
+                stmt.setString(i + 1, prepared.parameters.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery();
+                 BufferAllocator allocator = new RootAllocator();
+                 ArrowReader reader = (ArrowReader) rs.unwrap(DuckDBResultSet.class)
+                         .arrowExportStream(allocator, queryConfig.getArrowBatchRows())) {
+                VectorSchemaRoot root = reader.getVectorSchemaRoot();
+                // The response stream is closed by the caller, not by the writer
+                try (ArrowStreamWriter writer = new ArrowStreamWriter(root, null,
+                        Channels.newChannel(CloseShieldOutputStream.wrap(out)))) {
+                    writer.start();
+                    while (reader.loadNextBatch()) {
+                        writer.writeBatch();
+                        rows += root.getRowCount();
+                    }
+                    writer.end();
+                }
+            }
+        } finally {
+            pipelineMetrics.recordQuery(prepared.query.pipeline, prepared.query.folder, rows, System.nanoTime() - start);
+        }
+        logger.debug("Streamed {} rows of {} for {} as Arrow", rows, prepared.query.folder, prepared.query.date);
+        return rows;
+    }
+
+    private File outputFile(String pipeline, Source source, String folder, LocalDate date) throws NoSuchFileException {
+        String dir;
+        if (JobService.PROCESS.equals(pipeline)) {
+            dir = appConfig.getJsonDir1();
+        } else if (JobService.INITIAL_LOAD.equals(pipeline)) {
+            dir = appConfig.getJsonDir2();
+        } else {
+            throw new IllegalArgumentException("Unknown pipeline: " + pipeline);
+        }
+        // The outputs of a source are under its output directory
+        dir = source.resolve(dir).getPath();
+        // A folder written in several formats over time is read from its latest output
+        File latest = null;
+        for (OutputFormat format : OutputFormat.values()) {
+            File file = new File(dir, folder + "-" + date.format(DATE_FORMATTER) + "." + format.getExtension());
+            if (file.isFile() && (latest == null || file.lastModified() > latest.lastModified())) {
+                latest = file;
+            }
+        }
+        if (latest == null) {
+            throw new NoSuchFileException("No " + pipeline + " output of " + folder + " for " + date);
+        }
+        return latest;
+    }
+
+    private static void requireColumn(Map<String, String> schema, String column) {
+        if (!schema.containsKey(column)) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+    }
+
+    private static boolean isNested(String type) {
+        return type.endsWith("[]") || type.startsWith("STRUCT") || type.startsWith("MAP") || type.startsWith("UNION");
+    }
+
+    private static void checkValues(Connection conn, Query query, Map<String, String> schema, String key) {
+        List<String> casts = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        for (Filter filter : query.filters) {
+            if (!filter.operator.equals("like")) {
+                casts.add("CAST(? AS " + schema.get(filter.column) + ")");
+                values.add(filter.value);
+            }
+        }
+        if (query.after != null) {
+            casts.add("CAST(? AS " + schema.get(key) + ")");
+            values.add(query.after);
+        }
+        if (casts.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT " + String.join(", ", casts))) {
+            for (int i = 0; i < values.size(); i++) {
+                stmt.setString(i + 1, values.get(i));
+            }
+            stmt.executeQuery().close();
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("Invalid value: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeRow(JsonGenerator json, ResultSet rs, PreparedQuery prepared) throws SQLException, IOException {
+        json.writeStartObject();
+        for (int i = 0; i < prepared.columns.size(); i++) {
+            String column = prepared.columns.get(i);
+            json.writeFieldName(column);
+            Object value = rs.getObject(i + 1);
+            if (value == null) {
+                json.writeNull();
+            } else if (prepared.rawColumns.contains(column)) {
+                json.writeRawValue(value.toString());
+            } else if (value instanceof Boolean) {
+                json.writeBoolean((Boolean) value);
+            } else if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+                json.writeNumber(((Number) value).longValue());
+            } else if (value instanceof Float || value instanceof Double) {
+                json.writeNumber(((Number) value).doubleValue());
+            } else if (value instanceof BigDecimal) {
+                json.writeNumber((BigDecimal) value);
+            } else if (value instanceof BigInteger) {
+                json.writeNumber((BigInteger) value);
+            } else {
+                json.writeString(value.toString());
+            }
+        }
+        json.writeEndObject();
+    }
+
+    /**
+     * A read of one folder's output, e.g. columns=[id, name], filters=[status:eq:active], after="42".
+     */
+    public static class Query {
+        public final String pipeline;
+        // Source whose outputs are read, the default source when null
+        public final String source;
+        public final String folder;
+        public final LocalDate date;
+        public final List<String> columns;
+        public final List<Filter> filters;
+        // Unique column the pages are ordered by; when null the rows come in file order and only
+        // the first page can be read
+        public final String key;
+        // Key of the last row of the previous page
+        public final String after;
+        public final Integer limit;
+
+        public Query(String pipeline, String folder, LocalDate date, List<String> columns, List<Filter> filters,
+                     String key, String after, Integer limit) {
+            this(pipeline, null, folder, date, columns, filters, key, after, limit);
+        }
+
+        public Query(String pipeline, String source, String folder, LocalDate date, List<String> columns,
+                     List<Filter> filters, String key, String after, Integer limit) {
+            this.pipeline = pipeline;
+            this.source = source;
+            this.folder = folder;
+            this.date = date;
+            this.columns = columns != null ? columns : Collections.emptyList();
+            this.filters = filters != null ? filters : Collections.emptyList();
+            this.key = key;
+            this.after = after;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * One predicate, column:operator:value with operator eq, ne, lt, le, gt, ge or like.
+     */
+    public static class Filter {
+        public final String column;
+        public final String operator;
+        public final String value;
+
+        public Filter(String column, String operator, String value) {
+            this.column = column;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public static Filter parse(String filter) {
+            String[] parts = filter.split(":", 3);
+            if (parts.length != 3 || !OPERATORS.containsKey(parts[1])) {
+                throw new IllegalArgumentException("Expected column:operator:value with operator one of "
+                        + new TreeSet<>(OPERATORS.keySet()) + ": " + filter);
+            }
+            return new Filter(parts[0], parts[1], parts[2]);
+        }
+    }
+
+    public static class PreparedQuery {
+        public final Query query;
+        public final String sql;
+        private final List<String> parameters;
+        private final List<String> columns;
+        private final Set<String> rawColumns;
+        private final boolean columnar;
+
+        private PreparedQuery(Query query, String sql, List<String> parameters, List<String> columns,
+                              Set<String> rawColumns, boolean columnar) {
+            this.query = query;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.columns = columns;
+            this.rawColumns = rawColumns;
+            this.columnar = columnar;
+        }
+    }
+}
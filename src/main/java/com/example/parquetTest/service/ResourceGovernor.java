@@ -0,0 +1,210 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.DuckDBConfig;
+import com.example.parquetTest.config.ResourceConfig;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sizes DuckDB to the container it runs in. The memory limit is what the cgroup (or the host)
+ * leaves after the JVM's maximum heap and overhead, the thread count follows the CPU quota,
+ * and spilling goes to a directory below the scratch space. Explicit app.duckdb.memory-limit,
+ * threads and temp-directory settings win over the computed values.
+ * <p>
+ * DuckDB's settings are global to its one instance, so the budget is shared by every
+ * connection; the governor divides it between the folder runs that are active at the same
+ * time, and each run's share grows again as the others finish.
+ */
+@Service
+public class ResourceGovernor {
+    private static final Logger logger = LoggerFactory.getLogger(ResourceGovernor.class);
+
+    // DuckDB needs some memory to run at all, even in an overcommitted container
+    private static final long MIN_MEMORY_LIMIT = 256L * 1024 * 1024;
+
+    @Autowired
+    private DuckDBConfig duckDBConfig;
+
+    @Autowired
+    private ResourceConfig resourceConfig;
+
+    @Autowired
+    private AppConfig appConfig;
+
+    private long memoryLimitBytes;
+    private String memoryLimit;
+    private int threads;
+    private String tempDirectory;
+    private final AtomicInteger activeRuns = new AtomicInteger();
+
+    @PostConstruct
+    public void computeBudget() {
+        // Step 1: Reading the container limits, falling back to the host
+        Path cgroupRoot = Paths.get(resourceConfig.getCgroupRoot());
+        long containerMemory = Math.min(physicalMemory(), cgroupMemoryLimit(cgroupRoot));
+        int containerCpus = cgroupCpuLimit(cgroupRoot, Runtime.getRuntime().availableProcessors());
+
+        // Step 2: Memory: what is left after the JVM, minus headroom
+        if (!duckDBConfig.getMemoryLimit().isBlank()) {
+            memoryLimit = duckDBConfig.getMemoryLimit();
+            memoryLimitBytes = DataSize.parse(memoryLimit.replace(" ", "")).toBytes();
+        } else {
+            long jvmReservation = Runtime.getRuntime().maxMemory() + resourceConfig.getJvmOverheadBytes();
+            long available = (long) ((containerMemory - jvmReservation) * resourceConfig.getMemoryFraction());
+            if (available < MIN_MEMORY_LIMIT) {
+                logger.warn("Only {} MB left for DuckDB after the JVM reserved {} MB of {} MB; lower -Xmx or raise the container limit",
+                        Math.max(0, available) >> 20, jvmReservation >> 20, containerMemory >> 20);
+            }
+            memoryLimitBytes = Math.max(MIN_MEMORY_LIMIT, available);
+            memoryLimit = (memoryLimitBytes >> 20) + "MB";
+        }
+
+        // Step 3: Threads and the spill directory
+        threads = duckDBConfig.getThreads() > 0 ? duckDBConfig.getThreads() : containerCpus;
+        tempDirectory = !duckDBConfig.getTempDirectory().isBlank()
+                ? duckDBConfig.getTempDirectory()
+                : Paths.get(appConfig.getScratchDir(), "duckdb_spill").toString();
+
+        logger.info("DuckDB budget: memory_limit={} threads={} temp_directory={} (container: {} MB, {} CPUs; JVM max heap {} MB)",
+                memoryLimit, threads, tempDirectory, containerMemory >> 20, containerCpus, Runtime.getRuntime().maxMemory() >> 20);
+    }
+
+    /**
+     * The DuckDB memory_limit setting, e.g. "3686MB".
+     */
+    public String getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public long getMemoryLimitBytes() {
+        return memoryLimitBytes;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public String getTempDirectory() {
+        return tempDirectory;
+    }
+
+    /**
+     * Folders the budget can run at once across all runs: one per thread, as long as each
+     * gets app.resources.min-folder-memory.
+     */
+    public int getMaxConcurrentFolders() {
+        long byMemory = memoryLimitBytes / Math.max(1, resourceConfig.getMinFolderMemoryBytes());
+        return (int) Math.max(1, Math.min(threads, byMemory));
+    }
+
+    /**
+     * Registers a folder run; close the returned share when the run ends.
+     */
+    public Share join() {
+        activeRuns.incrementAndGet();
+        return new Share();
+    }
+
+    public class Share implements AutoCloseable {
+        private boolean closed;
+
+        private Share() {
+        }
+
+        /**
+         * The folders this run may currently have running, its part of the budget divided
+         * by the runs active right now.
+         */
+        public int getFolderSlots() {
+            return Math.max(1, getMaxConcurrentFolders() / Math.max(1, activeRuns.get()));
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                activeRuns.decrementAndGet();
+            }
+        }
+    }
+
+    private static long physicalMemory() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Reads memory.max (cgroup v2) or memory/memory.limit_in_bytes (cgroup v1); Long.MAX_VALUE when unlimited.
+     */
+    static long cgroupMemoryLimit(Path root) {
+        String limit = readFirst(root.resolve("memory.max"), root.resolve("memory").resolve("memory.limit_in_bytes"));
+        if (limit == null || limit.equals("max")) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(limit);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Reads cpu.max (cgroup v2) or cpu/cpu.cfs_quota_us and cpu.cfs_period_us (cgroup v1),
+     * rounding a fractional quota up; the fallback when there is no quota.
+     */
+    static int cgroupCpuLimit(Path root, int fallback) {
+        long quota = -1;
+        long period = 0;
+        try {
+            String cpuMax = readFirst(root.resolve("cpu.max"));
+            if (cpuMax != null) {
+                String[] parts = cpuMax.split("\\s+");
+                if (!parts[0].equals("max") && parts.length == 2) {
+                    quota = Long.parseLong(parts[0]);
+                    period = Long.parseLong(parts[1]);
+                }
+            } else {
+                String v1Quota = readFirst(root.resolve("cpu").resolve("cpu.cfs_quota_us"));
+                String v1Period = readFirst(root.resolve("cpu").resolve("cpu.cfs_period_us"));
+                if (v1Quota != null && v1Period != null) {
+                    quota = Long.parseLong(v1Quota);
+                    period = Long.parseLong(v1Period);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+        if (quota <= 0 || period <= 0) {
+            return fallback;
+        }
+        return (int) Math.max(1, Math.min(fallback, (quota + period - 1) / period));
+    }
+
+    private static String readFirst(Path... candidates) {
+        for (Path candidate : candidates) {
+            try {
+                if (Files.isReadable(candidate)) {
+                    return Files.readString(candidate).trim();
+                }
+            } catch (IOException e) {
+                // Not mounted or not readable in this container, try the next layout
+            }
+        }
+        return null;
+    }
+}
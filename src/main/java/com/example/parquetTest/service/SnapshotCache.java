@@ -0,0 +1,315 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.CacheConfig;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of downloaded snapshots and of the outputs of completed runs.
+ * <p>
+ * Every downloaded ZIP gets a ".meta" file with its ETag, Last-Modified and SHA-256, which the
+ * download turns into a conditional GET. The output ZIP and manifest of a run are stored under
+ * the hash of the snapshot's content, the pipeline and its settings, so a re-run over the same
+ * content restores them instead of running again. Snapshots and outputs share one disk budget,
+ * evicted least recently used first; files pinned by a running job are never evicted.
+ */
+@Service
+public class SnapshotCache {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotCache.class);
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String OUTPUT_ZIP = "output.zip";
+
+    @Autowired
+    private CacheConfig cacheConfig;
+
+    @Autowired
+    private AppConfig appConfig;
+
+    // Absolute paths in use by running jobs, with their pin count
+    private final Map<String, Integer> pins = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return cacheConfig.isEnabled();
+    }
+
+    /**
+     * The validators recorded for a downloaded snapshot, null when it has none or they no
+     * longer describe the file.
+     */
+    public Meta readMeta(File zipFile) {
+        Path metaFile = metaFile(zipFile);
+        if (!cacheConfig.isEnabled() || !zipFile.isFile() || !Files.isRegularFile(metaFile)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable {}: {}", metaFile, e.getMessage());
+            return null;
+        }
+        Meta meta = new Meta(properties.getProperty("etag"), properties.getProperty("last-modified"),
+                properties.getProperty("sha256"), Long.parseLong(properties.getProperty("length", "-1")));
+        return meta.length == zipFile.length() ? meta : null;
+    }
+
+    /**
+     * Records the validators of a freshly downloaded snapshot.
+     */
+    public void writeMeta(File zipFile, Meta meta) throws IOException {
+        if (!cacheConfig.isEnabled()) {
+            return;
+        }
+        Properties properties = new Properties();
+        setIfPresent(properties, "etag", meta.etag);
+        setIfPresent(properties, "last-modified", meta.lastModified);
+        setIfPresent(properties, "sha256", meta.sha256);
+        properties.setProperty("length", Long.toString(meta.length));
+        Path metaFile = metaFile(zipFile);
+        Path tmp = Path.of(metaFile + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(tmp, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Drops the validators before the snapshot is replaced, so they never describe another file.
+     */
+    public void deleteMeta(File zipFile) throws IOException {
+        Files.deleteIfExists(metaFile(zipFile));
+    }
+
+    /**
+     * Marks the file as just used, for the least recently used eviction.
+     */
+    public void touch(File file) {
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            logger.debug("Could not touch {}", file);
+        }
+    }
+
+    /**
+     * The key of the outputs a pipeline derives from the snapshot with the given settings,
+     * null when caching is disabled. The snapshot's SHA-256 is computed once and recorded
+     * when the server sent no digest.
+     */
+    public String outputKey(String pipeline, File zipFile, String settings) throws IOException {
+        if (!cacheConfig.isEnabled()) {
+            return null;
+        }
+        Meta meta = readMeta(zipFile);
+        String contentHash = meta != null ? meta.sha256 : null;
+        if (contentHash == null) {
+            contentHash = DownloadService.sha256(zipFile.toPath());
+            writeMeta(zipFile, meta != null
+                    ? new Meta(meta.etag, meta.lastModified, contentHash, meta.length)
+                    : new Meta(null, null, contentHash, zipFile.length()));
+        }
+        return sha256Hex(pipeline + "|" + contentHash + "|" + settings);
+    }
+
+    /**
+     * Copies the cached output ZIP and manifest of a completed run into place, the manifest under
+     * its original name into manifestDir, and completes the job's stages; false when there is no
+     * such run.
+     */
+    public boolean restore(String key, File outputZip, File manifestDir, JobContext ctx) throws IOException {
+        if (key == null) {
+            return false;
+        }
+        Path entry = Path.of(cacheConfig.getDir(), key);
+        if (!Files.isRegularFile(entry.resolve(OUTPUT_ZIP))) {
+            return false;
+        }
+        try (Pin pin = pin(entry.toFile())) {
+            copy(entry.resolve(OUTPUT_ZIP), outputZip.toPath());
+            try (DirectoryStream<Path> manifests = Files.newDirectoryStream(entry, "manifest-*.txt")) {
+                for (Path manifest : manifests) {
+                    copy(manifest, manifestDir.toPath().resolve(manifest.getFileName().toString()));
+                }
+            }
+            touch(entry.toFile());
+        } catch (NoSuchFileException e) {
+            // Evicted between the check and the copy
+            return false;
+        }
+        long size = outputZip.length();
+        for (JobContext.StageProgress stage : ctx.getStages()) {
+            if (!"COMPLETED".equals(stage.getStatus())) {
+                boolean packaged = stage.getName().equals(JobContext.PACKAGE);
+                stage.start(packaged ? size : 0);
+                stage.addBytes(packaged ? size : 0);
+                stage.complete();
+            }
+        }
+        logger.info("Reused the output of a completed run over the same snapshot for {}", outputZip);
+        return true;
+    }
+
+    /**
+     * Stores the output ZIP and manifest of a completed run under its key, then evicts
+     * whatever no longer fits the disk budget.
+     */
+    public void store(String key, File outputZip, File manifestFile) throws IOException {
+        if (key == null) {
+            return;
+        }
+        Path entry = Path.of(cacheConfig.getDir(), key);
+        if (!Files.isDirectory(entry)) {
+            Files.createDirectories(entry.getParent());
+            // Written aside and renamed, so a half-written entry is never restored
+            Path tmp = Files.createTempDirectory(entry.getParent(), key + ".tmp");
+            try {
+                Files.copy(outputZip.toPath(), tmp.resolve(OUTPUT_ZIP));
+                if (manifestFile != null && manifestFile.isFile()) {
+                    Files.copy(manifestFile.toPath(), tmp.resolve(manifestFile.getName()));
+                }
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // A concurrent run over the same content stored it first
+            } finally {
+                FileUtils.deleteQuietly(tmp.toFile());
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Protects a snapshot or cached output from eviction until the pin is closed.
+     */
+    public Pin pin(File file) {
+        String path = file.getAbsolutePath();
+        pins.merge(path, 1, Integer::sum);
+        return () -> pins.computeIfPresent(path, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Deletes the least recently used snapshots and outputs until they fit app.cache.max-size.
+     */
+    public synchronized void evict() throws IOException {
+        if (!cacheConfig.isEnabled()) {
+            return;
+        }
+        // Step 1: Collecting the downloaded snapshots and the cached outputs with their sizes
+        List<Entry> entries = new ArrayList<>();
+        // Sources download into subdirectories of app.download.dir by default, sharing its budget
+        File downloadDir = new File(appConfig.getDownloadDir());
+        File[] sourceDirs = downloadDir.listFiles(File::isDirectory);
+        List<File> dirs = new ArrayList<>(Collections.singletonList(downloadDir));
+        dirs.addAll(Arrays.asList(sourceDirs != null ? sourceDirs : new File[0]));
+        for (File dir : dirs) {
+            File[] snapshots = dir.listFiles((parent, name) -> name.startsWith("insights_") && name.endsWith(".zip"));
+            for (File snapshot : snapshots != null ? snapshots : new File[0]) {
+                entries.add(new Entry(snapshot, snapshot.length() + metaFile(snapshot).toFile().length()));
+            }
+        }
+        File[] outputs = new File(cacheConfig.getDir()).listFiles(
+                file -> file.isDirectory() && !file.getName().contains(".tmp"));
+        for (File output : outputs != null ? outputs : new File[0]) {
+            entries.add(new Entry(output, FileUtils.sizeOfDirectory(output)));
+        }
+
+        // Step 2: Deleting the oldest unpinned ones while over the budget
+        long total = entries.stream().mapToLong(entry -> entry.size).sum();
+        long budget = cacheConfig.getMaxSizeBytes();
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        for (Entry entry : entries) {
+            if (total <= budget) {
+                break;
+            }
+            if (pins.containsKey(entry.file.getAbsolutePath())) {
+                continue;
+            }
+            if (entry.file.isDirectory()) {
+                FileUtils.deleteDirectory(entry.file);
+            } else {
+                deleteMeta(entry.file);
+                Files.deleteIfExists(entry.file.toPath());
+            }
+            total -= entry.size;
+            logger.info("Evicted {} ({} bytes) from the cache", entry.file, entry.size);
+        }
+        if (total > budget) {
+            logger.warn("Cache holds {} bytes over its {} byte budget, the rest is in use", total - budget, budget);
+        }
+    }
+
+    private static Path metaFile(File zipFile) {
+        return Path.of(zipFile.getPath() + META_SUFFIX);
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path tmp = Path.of(target + ".tmp");
+        Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void setIfPresent(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Pin extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Validators of a downloaded snapshot; any of them may be null.
+     */
+    public static class Meta {
+        public final String etag;
+        public final String lastModified;
+        public final String sha256;
+        public final long length;
+
+        public Meta(String etag, String lastModified, String sha256, long length) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.length = length;
+        }
+    }
+
+    private static class Entry {
+        final File file;
+        final long size;
+        final long lastUsed;
+
+        Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+            this.lastUsed = file.lastModified();
+        }
+    }
+}
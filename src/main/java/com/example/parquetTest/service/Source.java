@@ -0,0 +1,175 @@
+package com.example.parquetTest.service;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One environment the pipelines ingest snapshots from: its URL template and credentials, the
+ * folders it ingests and the directories its snapshots and outputs go to. Every source shares
+ * the process's DuckDB engine and pools, bounded by its own job, request and request rate limits.
+ */
+public class Source {
+
+    public static final String DEFAULT = "default";
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final String name;
+    private final String urlTemplate;
+    private final String basicAuth;
+    private final String downloadDir;
+    private final String outputDir;
+    private final Set<String> folders;
+    private final int maxConcurrentJobs;
+    private final int maxConcurrentRequests;
+    private final double requestsPerSecond;
+    // Null when the source has no request limit of its own
+    private final Semaphore requestSlots;
+    private long nextRequestAt = System.nanoTime();
+
+    public Source(String name, String urlTemplate, String username, String password, String downloadDir,
+                  String outputDir, Set<String> folders, int maxConcurrentJobs, int maxConcurrentRequests,
+                  double requestsPerSecond) {
+        this.name = name;
+        this.urlTemplate = urlTemplate;
+        this.basicAuth = Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        this.downloadDir = downloadDir;
+        this.outputDir = outputDir;
+        this.folders = Collections.unmodifiableSet(new TreeSet<>(folders));
+        this.maxConcurrentJobs = maxConcurrentJobs;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.requestsPerSecond = requestsPerSecond;
+        this.requestSlots = maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests, true) : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDownloadDir() {
+        return downloadDir;
+    }
+
+    /**
+     * Directory the source's output directories and ZIPs are written to, empty for the working directory.
+     */
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * Folders the source ingests, empty for every folder of its snapshots.
+     */
+    public Set<String> getFolders() {
+        return folders;
+    }
+
+    /**
+     * Jobs of the source running at once, 0 for no limit besides app.jobs.parallelism.
+     */
+    public int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * The snapshot URL of the date: {date} in the template is replaced by it, a template
+     * without one ends in snapshotDate= as app.download.url does.
+     */
+    public String downloadUrl(LocalDate date) {
+        String formatted = date.format(DATE_FORMATTER);
+        return urlTemplate.contains("{date}")
+                ? urlTemplate.replace("{date}", formatted)
+                : urlTemplate + formatted + "&format=zip";
+    }
+
+    /**
+     * The Basic authorization credentials, base64 encoded.
+     */
+    public String getBasicAuth() {
+        return basicAuth;
+    }
+
+    public boolean includes(String folder) {
+        return folders.isEmpty() || folders.contains(folder);
+    }
+
+    /**
+     * A path of the source's outputs, e.g. resolve("Json_filtered").
+     */
+    public File resolve(String path) {
+        return outputDir.isEmpty() ? new File(path) : new File(outputDir, path);
+    }
+
+    /**
+     * Takes one of the source's concurrent request slots, waiting while all are in use; the
+     * slot is returned by closing it.
+     */
+    public RequestSlot acquireRequestSlot() throws InterruptedIOException {
+        if (requestSlots == null) {
+            return () -> { };
+        }
+        try {
+            requestSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot of source " + name);
+        }
+        return requestSlots::release;
+    }
+
+    /**
+     * Waits for the next request the source's rate allows; requests are spread evenly, without bursts.
+     */
+    public void awaitRequestRate() throws InterruptedIOException {
+        if (requestsPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextRequestAt - now < 0) {
+                nextRequestAt = now;
+            }
+            wait = nextRequestAt - now;
+            nextRequestAt += (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the request rate of source " + name);
+            }
+        }
+    }
+
+    /**
+     * The settings that shape the source's outputs, e.g. for the cache key of outputs.
+     */
+    public String describe() {
+        return name + folders;
+    }
+
+    @FunctionalInterface
+    public interface RequestSlot extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
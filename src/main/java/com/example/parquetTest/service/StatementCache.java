@@ -0,0 +1,96 @@
+package com.example.parquetTest.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The prepared statements of one pooled DuckDB connection by their SQL text, the least recently
+ * used closed first. They stay open while the connection is pooled, so a statement run for every
+ * folder of every snapshot is parsed once per connection. Only the borrower of the connection
+ * uses its cache, so it needs no locking.
+ */
+public class StatementCache {
+    private static final Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final int id = IDS.incrementAndGet();
+    private final Connection conn;
+    private final int maxSize;
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+
+    StatementCache(Connection conn, int maxSize) {
+        this.conn = conn;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Unique in the JVM, e.g. to give the connection's statements their own file names.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * The cached statement for the SQL, prepared on first use, with its parameters cleared.
+     * The cache owns it, callers must not close it.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt != null && !stmt.isClosed()) {
+            hits++;
+            stmt.clearParameters();
+            return stmt;
+        }
+        misses++;
+        stmt = conn.prepareStatement(sql);
+        statements.put(sql, stmt);
+        Iterator<PreparedStatement> eldest = statements.values().iterator();
+        while (statements.size() > maxSize) {
+            closeQuietly(eldest.next());
+            eldest.remove();
+        }
+        return stmt;
+    }
+
+    /**
+     * Drops the statement of a failed run, the next run prepares it afresh.
+     */
+    public void invalidate(String sql) {
+        PreparedStatement stmt = statements.remove(sql);
+        if (stmt != null) {
+            closeQuietly(stmt);
+        }
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    void close() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing cached statement: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.PipelineConfig;
+import org.apache.commons.compress.archivers.zip.DefaultBackingStoreSupplier;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.ZipEntry;
+
+/**
+ * Packages the output files of a run into one standard ZIP. Every file is deflated on its
+ * own packaging thread as soon as it is added, so finished folders are compressed while
+ * the others are still being filtered; the compressed entries are merged into the
+ * archive when it is finished.
+ */
+@Service
+public class ZipPackager {
+    private static final Logger logger = LoggerFactory.getLogger(ZipPackager.class);
+
+    @Autowired
+    private PipelineConfig pipelineConfig;
+
+    @Autowired
+    private AppConfig appConfig;
+
+    /**
+     * Opens an archive that is published at zipFile by finish(); closing it unfinished discards it.
+     */
+    public Archive open(File zipFile, JobContext.StageProgress progress) throws IOException {
+        Path base = Paths.get(appConfig.getScratchDir());
+        Files.createDirectories(base);
+        Path scratch = Files.createTempDirectory(base, "zip_scatter_");
+        ExecutorService pool = PipelineConfig.newFixedPool("zip-worker-", Math.max(1, pipelineConfig.getPackageParallelism()));
+        return new Archive(zipFile, progress, pool, pipelineConfig.getPackageCompressionLevel(), scratch);
+    }
+
+    public static class Archive implements Closeable {
+        private final File zipFile;
+        private final Path partFile;
+        private final JobContext.StageProgress progress;
+        private final ExecutorService pool;
+        private final Path scratch;
+        private final ParallelScatterZipCreator creator;
+        private final Set<String> entryNames = ConcurrentHashMap.newKeySet();
+        private boolean finished;
+
+        Archive(File zipFile, JobContext.StageProgress progress, ExecutorService pool,
+                int compressionLevel, Path scratch) {
+            this.zipFile = zipFile;
+            this.partFile = Paths.get(zipFile.getPath() + ".part");
+            this.progress = progress;
+            this.pool = pool;
+            this.scratch = scratch;
+            // The deflated entries wait in scratch files until they are merged into the archive
+            this.creator = new ParallelScatterZipCreator(pool, new DefaultBackingStoreSupplier(scratch), compressionLevel);
+        }
+
+        /**
+         * Starts compressing the file as a top-level entry; the file must not change afterwards.
+         */
+        public void add(File file) {
+            String entryName = file.getName();
+            if (!entryNames.add(entryName)) {
+                throw new IllegalArgumentException("Duplicate ZIP entry " + entryName);
+            }
+            ZipArchiveEntry entry = new ZipArchiveEntry(entryName);
+            entry.setMethod(ZipEntry.DEFLATED);
+            entry.setTime(file.lastModified());
+            progress.addTotalBytes(file.length());
+
+            creator.addArchiveEntry(entry, () -> {
+                try {
+                    return new ProxyInputStream(Files.newInputStream(file.toPath())) {
+                        @Override
+                        protected void afterRead(int bytesRead) {
+                            if (bytesRead > 0) {
+                                progress.addBytes(bytesRead);
+                            }
+                        }
+                    };
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        /**
+         * Waits for the remaining entries, writes the archive and moves it into place.
+         */
+        public void finish() throws IOException {
+            try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(partFile)) {
+                creator.writeTo(out);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while packaging " + zipFile, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Packaging " + zipFile + " failed: " + e.getCause().getMessage(), e.getCause());
+            }
+            Files.move(partFile, zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            progress.complete();
+            logger.info("Zipped {} entries into {} ({})", entryNames.size(), zipFile.getPath(), creator.getStatisticsMessage());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                pool.shutdownNow();
+                Files.deleteIfExists(partFile);
+            }
+            FileUtils.deleteQuietly(scratch.toFile());
+        }
+    }
+}
@@ -1,25 +1,75 @@
 package com.example.parquetTest.utils;
 
+import org.duckdb.DuckDBConnection;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class DuckDBUtil {
 
-    private static final String DUCKDB_URL = "jdbc:duckdb:duckdb_data.db";
+    /**
+     * A file list bound as one VARCHAR parameter, e.g. read_parquet(FILE_LIST_PARAMETER), so the
+     * statement text stays the same for any files; bind it with joinFileList.
+     */
+    public static final String FILE_LIST_PARAMETER = "string_split(?, chr(31))";
+
+    private static final String FILE_LIST_SEPARATOR = "\u001f";
+
+    /**
+     * Opens another connection to the same database instance as the given DuckDB connection.
+     */
+    public static Connection duplicate(Connection conn) throws SQLException {
+        DuckDBConnection duckDBConnection = conn instanceof DuckDBConnection
+                ? (DuckDBConnection) conn
+                : conn.unwrap(DuckDBConnection.class);
+        return duckDBConnection.duplicate();
+    }
+
+    /**
+     * Quotes a value as a DuckDB string literal.
+     */
+    public static String quoteLiteral(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
 
-    public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DUCKDB_URL);
+    /**
+     * Quotes a name as a DuckDB identifier, e.g. for a table named after a folder.
+     */
+    public static String quoteIdentifier(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
     }
 
-    public static void executeUpdate(String query) {
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.executeUpdate(query);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    /**
+     * The columns and types a query returns, in order, e.g. describe(conn, "SELECT * FROM read_parquet(...)").
+     */
+    public static Map<String, String> describe(Connection conn, String query) throws SQLException {
+        Map<String, String> columns = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("DESCRIBE " + query)) {
+            while (rs.next()) {
+                columns.put(rs.getString("column_name"), rs.getString("column_type"));
+            }
         }
+        return columns;
+    }
+
+    /**
+     * The value of a FILE_LIST_PARAMETER for the paths.
+     */
+    public static String joinFileList(Collection<String> paths) {
+        return String.join(FILE_LIST_SEPARATOR, paths);
     }
-}
 
+    /**
+     * Renders the values as a DuckDB list literal, e.g. for read_parquet(['a', 'b']).
+     */
+    public static String toListLiteral(Collection<String> values) {
+        return values.stream().map(DuckDBUtil::quoteLiteral).collect(Collectors.joining(", ", "[", "]"));
+    }
+}
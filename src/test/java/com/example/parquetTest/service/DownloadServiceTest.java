@@ -1,104 +1,457 @@
 package com.example.parquetTest.service;
 
 import com.example.parquetTest.config.AppConfig;
-import org.apache.hc.client5.http.classic.methods.HttpGet;
+import com.example.parquetTest.config.PipelineConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
-import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.MockedStatic;
-import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 public class DownloadServiceTest {
 
-    @Mock
-    private AppConfig appConfig;
-
-    @Mock
-    private CloseableHttpClient httpClient;
+    private static final String DOWNLOAD_PATH = "/rest/2.0/reporting/insights/directDownload";
 
     @Mock
-    private CloseableHttpResponse httpResponse;
+    private AppConfig appConfig;
 
     @InjectMocks
     private DownloadService downloadService;
 
     private String testUsername = "testUser";
     private String testPassword = "testPass";
-    private String testDownloadUrl = "http://test.url/download?snapshotDate=";
     private String testDownloadDir = "test_downloads";
 
+    private HttpServer server;
+    private CloseableHttpClient httpClient;
+    private ThreadPoolExecutor downloadExecutor;
+    private StubCollibra stub;
+    private String snapshotDate;
+    private JobContext ctx;
+    private File expectedZip;
+
     @BeforeEach
-    void setUp() {
-        when(appConfig.getUsername()).thenReturn(testUsername);
-        when(appConfig.getPassword()).thenReturn(testPassword);
-        when(appConfig.getDownloadUrl()).thenReturn(testDownloadUrl);
-        when(appConfig.getDownloadDir()).thenReturn(testDownloadDir);
-
-        File downloadDir = new File(testDownloadDir);
-        if (!downloadDir.exists()) {
-            downloadDir.mkdirs();
-        }
+    void setUp() throws IOException {
+        stub = new StubCollibra();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(DOWNLOAD_PATH, stub::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+
+        httpClient = HttpClients.createDefault();
+        downloadExecutor = PipelineConfig.newFixedPool("test-download-", 3);
+        ReflectionTestUtils.setField(downloadService, "httpClient", httpClient);
+        ReflectionTestUtils.setField(downloadService, "downloadExecutor", downloadExecutor);
+        ReflectionTestUtils.setField(downloadService, "snapshotCache", DuckDBTestSupport.snapshotCache(testDownloadDir, "1GB"));
+
+        String downloadUrl = "http://127.0.0.1:" + server.getAddress().getPort() + DOWNLOAD_PATH + "?snapshotDate=";
+        lenient().when(appConfig.getUsername()).thenReturn(testUsername);
+        lenient().when(appConfig.getPassword()).thenReturn(testPassword);
+        lenient().when(appConfig.getDownloadUrl()).thenReturn(downloadUrl);
+        lenient().when(appConfig.getDownloadDir()).thenReturn(testDownloadDir);
+        lenient().when(appConfig.getDownloadChunkSize()).thenReturn(1024L);
+        lenient().when(appConfig.getDownloadMaxRetries()).thenReturn(2);
+        lenient().when(appConfig.getDownloadRetryBackoffMs()).thenReturn(10L);
+        ReflectionTestUtils.setField(downloadService, "sourceConfig", DuckDBTestSupport.sourceConfig(appConfig, new MockEnvironment()));
+
+        ctx = new JobContext(LocalDate.now().minusDays(4));
+        snapshotDate = ctx.getSnapshotDate().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+        expectedZip = new File(testDownloadDir, "insights_" + snapshotDate + ".zip");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.stop(0);
+        httpClient.close();
+        downloadExecutor.shutdownNow();
+        FileUtils.deleteQuietly(new File(testDownloadDir));
     }
 
     @Test
     void testDownloadZipSuccess() throws IOException {
-        String yesterdayDate = LocalDate.now().minusDays(1).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-        String expectedZipPath = testDownloadDir + File.separator + "insights_" + yesterdayDate + ".zip";
-        byte[] zipContent = "test zip content".getBytes();
+        File result = downloadService.downloadZip(ctx);
+
+        assertNotNull(result);
+        assertEquals(expectedZip.getPath(), result.getPath());
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertFalse(new File(result.getPath() + ".part").exists());
+        assertFalse(new File(result.getPath() + ".part.state").exists());
 
-        try (MockedStatic<org.apache.hc.client5.http.impl.classic.HttpClients> httpClientsMocked = Mockito.mockStatic(org.apache.hc.client5.http.impl.classic.HttpClients.class)) {
-            httpClientsMocked.when(org.apache.hc.client5.http.impl.classic.HttpClients::createDefault).thenReturn(httpClient);
+        // One probe plus ten 1 KB ranges, all authenticated, for the requested snapshot date
+        assertEquals(11, stub.ranges.size());
+        assertTrue(stub.ranges.contains("bytes=9216-9999"));
+        assertEquals("Basic " + Base64.getEncoder().encodeToString((testUsername + ":" + testPassword).getBytes()),
+                stub.lastAuthorization);
+        assertEquals("snapshotDate=" + snapshotDate + "&format=zip", stub.lastQuery);
 
-            when(httpClient.execute(any(HttpGet.class))).thenReturn(httpResponse);
-            when(httpResponse.getCode()).thenReturn(200);
+        JobContext.StageProgress progress = ctx.stage(JobContext.DOWNLOAD);
+        assertEquals("COMPLETED", progress.getStatus());
+        assertEquals(stub.content.length, progress.getBytes());
+        assertEquals(stub.content.length, progress.getTotalBytes());
+    }
 
-            StringEntity entity = mock(StringEntity.class);
-            when(httpResponse.getEntity()).thenReturn(entity);
-            when(entity.getContent()).thenReturn(new ByteArrayInputStream(zipContent));
+    @Test
+    void testDownloadZipReusesUnmodifiedSnapshot() throws IOException {
+        downloadService.downloadZip(ctx);
+        stub.ranges.clear();
 
-            File result = downloadService.downloadZip();
+        JobContext again = new JobContext(ctx.getSnapshotDate());
+        File result = downloadService.downloadZip(again);
 
-            assertNotNull(result);
-            assertEquals(expectedZipPath, result.getPath());
-            assertTrue(result.exists());
+        // Only the conditional probe, answered with 304
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertEquals(Collections.singletonList("bytes=0-0"), stub.ranges);
+        assertEquals(stub.etag, stub.lastIfNoneMatch);
+        assertEquals(stub.lastModified, stub.lastIfModifiedSince);
+        assertEquals("COMPLETED", again.stage(JobContext.DOWNLOAD).getStatus());
+        assertEquals(stub.content.length, again.stage(JobContext.DOWNLOAD).getBytes());
+    }
+
+    @Test
+    void testDownloadZipRefetchesChangedSnapshot() throws IOException {
+        downloadService.downloadZip(ctx);
+        stub.ranges.clear();
+        new Random(7).nextBytes(stub.content);
+        stub.etag = "\"snapshot-v2\"";
+        stub.digest = null;
+
+        File result = downloadService.downloadZip(new JobContext(ctx.getSnapshotDate()));
+
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertEquals(11, stub.ranges.size());
+        assertTrue(Files.readString(Path.of(result.getPath() + ".meta")).contains("snapshot-v2"));
+    }
 
-            result.delete();
-            new File(testDownloadDir).delete();
+    @Test
+    void testDownloadZipWithoutRangeSupport() throws IOException {
+        stub.supportsRanges = false;
+
+        File result = downloadService.downloadZip(ctx);
+
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertEquals(1, stub.ranges.size());
+    }
+
+    @Test
+    void testDownloadZipRetriesFailedRange() throws IOException {
+        stub.failOnce.add("bytes=2048-3071");
+
+        File result = downloadService.downloadZip(ctx);
+
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertEquals(2, Collections.frequency(stub.ranges, "bytes=2048-3071"));
+    }
+
+    @Test
+    void testDownloadZipResumesPartialFile() throws IOException {
+        Files.createDirectories(Path.of(testDownloadDir));
+        Path partFile = Path.of(expectedZip.getPath() + ".part");
+        Files.write(partFile, Arrays.copyOf(stub.content, 2048));
+        Files.writeString(Path.of(expectedZip.getPath() + ".part.state"),
+                "length=" + stub.content.length + " chunk=1024 etag=" + stub.etag + "\n0\n1024\n");
+
+        File result = downloadService.downloadZip(ctx);
+
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertFalse(stub.ranges.contains("bytes=0-1023"));
+        assertFalse(stub.ranges.contains("bytes=1024-2047"));
+        assertEquals(9, stub.ranges.size());
+        assertEquals(stub.content.length, ctx.stage(JobContext.DOWNLOAD).getBytes());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testConcurrentDownloadsOfSameSnapshotShareOneTransfer() throws Exception {
+        stub.gate = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<File> first = callers.submit(() -> downloadService.downloadZip(ctx));
+            waitUntil(() -> stub.ranges.size() == 1);
+            Future<File> second = callers.submit(() -> downloadService.downloadZip(new JobContext(ctx.getSnapshotDate())));
+
+            // Holding the first transfer until the second job waits for the same target
+            Map<String, ReentrantLock> targetLocks = (Map<String, ReentrantLock>) ReflectionTestUtils.getField(downloadService, "targetLocks");
+            waitUntil(() -> targetLocks.get(expectedZip.getAbsolutePath()).hasQueuedThreads());
+            stub.gate.countDown();
+
+            assertEquals(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertArrayEquals(stub.content, Files.readAllBytes(expectedZip.toPath()));
+            assertEquals(1, Collections.frequency(stub.ranges, "bytes=0-0"));
+        } finally {
+            callers.shutdownNow();
         }
     }
 
     @Test
-    void testDownloadZipFailure() throws IOException {
-        try (MockedStatic<org.apache.hc.client5.http.impl.classic.HttpClients> httpClientsMocked = Mockito.mockStatic(org.apache.hc.client5.http.impl.classic.HttpClients.class)) {
-            httpClientsMocked.when(org.apache.hc.client5.http.impl.classic.HttpClients::createDefault).thenReturn(httpClient);
+    void testDownloadZipStopsWhenCancelled() {
+        ctx.cancel();
+
+        assertThrows(IOException.class, () -> downloadService.downloadZip(ctx));
+        // Only the probe was sent, no range was requested after the cancellation
+        assertEquals(1, stub.ranges.size());
+        assertFalse(expectedZip.exists());
+    }
+
+    @Test
+    void testDownloadZipDoesNotResumeWithDifferentChunkSize() throws IOException {
+        writePartialDownload("length=" + stub.content.length + " chunk=2048 etag=" + stub.etag + "\n0\n");
 
-            when(httpClient.execute(any(HttpGet.class))).thenReturn(httpResponse);
-            when(httpResponse.getCode()).thenReturn(404);
+        File result = downloadService.downloadZip(ctx);
 
-            StringEntity entity = mock(StringEntity.class);
-            when(httpResponse.getEntity()).thenReturn(entity);
-            when(entity.getContent()).thenReturn(new ByteArrayInputStream("Not found".getBytes()));
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertTrue(stub.ranges.contains("bytes=0-1023"));
+        assertEquals(11, stub.ranges.size());
+    }
+
+    @Test
+    void testDownloadZipDoesNotResumeWithoutETag() throws IOException {
+        stub.etag = null;
+        writePartialDownload("length=" + stub.content.length + " chunk=1024 etag=null\n0\n1024\n");
+
+        File result = downloadService.downloadZip(ctx);
+
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertTrue(stub.ranges.contains("bytes=0-1023"));
+        assertEquals(11, stub.ranges.size());
+    }
+
+    @Test
+    void testDownloadZipRestartsWhenSnapshotChangesBetweenRanges() throws IOException {
+        stub.digest = null;
+        stub.changeAtRequest = 4;
+
+        File result = downloadService.downloadZip(ctx);
+
+        // The ranges after the change were answered with the whole new file, so the download
+        // restarted from a new probe instead of splicing the two versions
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertTrue(stub.ifRanges.contains("\"snapshot-v1\""));
+        assertTrue(stub.ifRanges.contains("\"snapshot-v2\""));
+        assertEquals(2, Collections.frequency(stub.ranges, "bytes=0-0"));
+        assertTrue(Files.readString(Path.of(result.getPath() + ".meta")).contains("snapshot-v2"));
+        assertFalse(new File(result.getPath() + ".part.state").exists());
+        assertEquals(stub.content.length, ctx.stage(JobContext.DOWNLOAD).getBytes());
+    }
+
+    @Test
+    void testDownloadZipRestartsWhenRangeETagChanges() throws IOException {
+        stub.digest = null;
+        stub.honorsIfRange = false;
+        stub.changeAtRequest = 4;
+
+        File result = downloadService.downloadZip(ctx);
+
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertEquals(2, Collections.frequency(stub.ranges, "bytes=0-0"));
+    }
+
+    @Test
+    void testDownloadZipWithoutDigestVerifiesLength() throws IOException {
+        stub.digest = null;
+
+        File result = downloadService.downloadZip(ctx);
+
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+    }
+
+    @Test
+    void testDownloadZipRejectsDigestMismatch() {
+        stub.digest = Base64.getEncoder().encodeToString(new byte[32]);
 
-            assertThrows(IOException.class, () -> downloadService.downloadZip());
+        assertThrows(IOException.class, () -> downloadService.downloadZip(ctx));
+        assertFalse(expectedZip.exists());
+    }
+
+    @Test
+    void testDownloadZipFailure() {
+        stub.status = 404;
+
+        assertThrows(IOException.class, () -> downloadService.downloadZip(ctx));
+        // Client errors are not retried
+        assertEquals(1, stub.ranges.size());
+    }
+
+    @Test
+    void testDownloadZipFromNamedSourceWithinItsLimits() throws IOException {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("app.sources.names", "eu")
+                .withProperty("app.sources.eu.url", "http://127.0.0.1:" + server.getAddress().getPort() + DOWNLOAD_PATH
+                        + "?format=zip&snapshotDate={date}")
+                .withProperty("app.sources.eu.username", "euUser")
+                .withProperty("app.sources.eu.password", "euPass")
+                .withProperty("app.sources.eu.max-concurrent-requests", "1")
+                .withProperty("app.sources.eu.requests-per-second", "50");
+        Source eu = DuckDBTestSupport.sourceConfig(appConfig, environment).getSource("eu");
+        JobContext euCtx = new JobContext(ctx.getSnapshotDate(), null, eu);
+
+        long start = System.nanoTime();
+        File result = downloadService.downloadZip(euCtx);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The source's URL template, credentials and download directory
+        assertEquals(new File(testDownloadDir + "/eu", "insights_" + snapshotDate + ".zip").getPath(), result.getPath());
+        assertArrayEquals(stub.content, Files.readAllBytes(result.toPath()));
+        assertEquals("format=zip&snapshotDate=" + snapshotDate, stub.lastQuery);
+        assertEquals("Basic " + Base64.getEncoder().encodeToString("euUser:euPass".getBytes()), stub.lastAuthorization);
+        // Eleven requests one at a time, spaced 20 ms apart
+        assertEquals(11, stub.ranges.size());
+        assertEquals(1, stub.maxInFlight.get());
+        assertTrue(elapsedMs >= 190, "Requests were not rate limited: " + elapsedMs + " ms");
+    }
+
+    /**
+     * Leaves a part file whose first two ranges hold stale bytes, as a changed snapshot would.
+     */
+    private void writePartialDownload(String state) throws IOException {
+        Files.createDirectories(Path.of(testDownloadDir));
+        Files.write(Path.of(expectedZip.getPath() + ".part"), new byte[2048]);
+        Files.writeString(Path.of(expectedZip.getPath() + ".part.state"), state);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for condition");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Minimal stand-in for Collibra's directDownload endpoint with HTTP range support.
+     */
+    private static class StubCollibra {
+        volatile byte[] content = new byte[10_000];
+        volatile String etag = "\"snapshot-v1\"";
+        // Regenerates the snapshot when this request arrives, 0 for never
+        volatile int changeAtRequest;
+        volatile boolean honorsIfRange = true;
+        final List<String> ifRanges = new CopyOnWriteArrayList<>();
+        final AtomicInteger requests = new AtomicInteger();
+        final List<String> ranges = new CopyOnWriteArrayList<>();
+        final Set<String> failOnce = ConcurrentHashMap.newKeySet();
+        volatile boolean supportsRanges = true;
+        volatile int status = 200;
+        volatile String digest;
+        final String lastModified = "Wed, 01 Oct 2025 06:00:00 GMT";
+        volatile String lastIfNoneMatch;
+        volatile String lastIfModifiedSince;
+        volatile String lastAuthorization;
+        volatile String lastQuery;
+        volatile CountDownLatch gate;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        StubCollibra() {
+            new Random(42).nextBytes(content);
+            try {
+                digest = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void handle(HttpExchange exchange) throws IOException {
+            // Counted until the response starts, a client holding it may send its next request at once
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.add(String.valueOf(range));
+            if (requests.incrementAndGet() == changeAtRequest) {
+                byte[] changed = new byte[content.length];
+                new Random(7).nextBytes(changed);
+                content = changed;
+                etag = "\"snapshot-v2\"";
+            }
+            lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+            lastQuery = exchange.getRequestURI().getQuery();
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (status != 200) {
+                send(exchange, status, "Not found".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (range != null && failOnce.remove(range)) {
+                send(exchange, 503, "Try again".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            lastIfModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+            if (etag != null) {
+                exchange.getResponseHeaders().add("ETag", etag);
+            }
+            exchange.getResponseHeaders().add("Last-Modified", lastModified);
+            if (etag != null && etag.equals(lastIfNoneMatch)) {
+                inFlight.decrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            if (digest != null) {
+                exchange.getResponseHeaders().add("Digest", "sha-256=" + digest);
+            }
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange != null) {
+                ifRanges.add(ifRange);
+            }
+            if (range == null || !supportsRanges || honorsIfRange && ifRange != null && !ifRange.equals(etag) && !ifRange.equals(lastModified)) {
+                send(exchange, 200, content);
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            send(exchange, 206, Arrays.copyOfRange(content, start, end + 1));
+        }
 
-            new File(testDownloadDir).delete();
+        private void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+            inFlight.decrementAndGet();
+            exchange.sendResponseHeaders(code, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package com.example.parquetTest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DuckDBServiceTest {
+
+    private DuckDBService duckDBService;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        duckDBService = DuckDBTestSupport.inMemoryService(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        duckDBService.close();
+    }
+
+    @Test
+    void testConnectionsShareOneDatabase() throws SQLException {
+        try (Connection first = duckDBService.getConnection();
+             Statement stmt = first.createStatement()) {
+            stmt.execute("CREATE TABLE shared_check AS SELECT 42 AS answer");
+        }
+
+        try (Connection second = duckDBService.getConnection();
+             Statement stmt = second.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT answer FROM shared_check")) {
+            assertTrue(rs.next());
+            assertEquals(42, rs.getInt(1));
+        }
+    }
+
+    @Test
+    void testSettingsAreApplied() throws SQLException {
+        try (Connection conn = duckDBService.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT current_setting('threads')")) {
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+        }
+    }
+
+    @Test
+    void testClosedConnectionReturnsToPool() throws SQLException {
+        Connection first = duckDBService.getConnection();
+        Connection second = duckDBService.getConnection();
+        first.close();
+
+        assertTrue(first.isClosed());
+        assertThrows(SQLException.class, first::createStatement);
+
+        try (Connection third = duckDBService.getConnection()) {
+            assertFalse(third.isClosed());
+        }
+        second.close();
+    }
+
+    @Test
+    void testReturnedConnectionDropsTemporaryObjects() throws SQLException {
+        try (Connection conn = duckDBService.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE kept AS SELECT 1 AS id");
+            stmt.execute("CREATE TEMP TABLE temp_combined_left_over AS SELECT 1 AS id");
+            stmt.execute("CREATE TEMP VIEW temp_view_left_over AS SELECT 1 AS id");
+        }
+
+        // Every pooled connection, including the one returned above, is clean again
+        try (Connection first = duckDBService.getConnection();
+             Connection second = duckDBService.getConnection()) {
+            for (Connection conn : new Connection[]{first, second}) {
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(
+                             "SELECT (SELECT count(*) FROM duckdb_tables() WHERE temporary) + " +
+                             "(SELECT count(*) FROM duckdb_views() WHERE temporary AND NOT internal), " +
+                             "(SELECT count(*) FROM kept)")) {
+                    assertTrue(rs.next());
+                    assertEquals(0, rs.getInt(1));
+                    assertEquals(1, rs.getInt(2));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testPreparedStatementsOutliveTheBorrow() throws SQLException {
+        ReflectionTestUtils.setField(ReflectionTestUtils.getField(duckDBService, "duckDBConfig"), "statementCacheSize", 2);
+        StatementCache first;
+        PreparedStatement cached;
+        try (Connection conn = duckDBService.getConnection()) {
+            first = duckDBService.statements(conn);
+            cached = first.prepare("SELECT CAST(? AS INTEGER) + 1");
+            cached.setInt(1, 41);
+            try (ResultSet rs = cached.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals(42, rs.getInt(1));
+            }
+        }
+
+        // Both pooled connections are borrowed, one of them is the one returned above
+        try (Connection conn = duckDBService.getConnection();
+             Connection other = duckDBService.getConnection()) {
+            StatementCache statements = duckDBService.statements(conn) == first ? first : duckDBService.statements(other);
+            assertSame(first, statements);
+            assertSame(cached, statements.prepare("SELECT CAST(? AS INTEGER) + 1"));
+            assertEquals(1, statements.getHits());
+
+            // The least recently used statement is closed beyond the cache size
+            statements.prepare("SELECT 2");
+            statements.prepare("SELECT 3");
+            assertTrue(cached.isClosed());
+            assertEquals(3, statements.getMisses());
+        }
+    }
+
+        @Test
+    void testPoolTimesOutWhenExhausted() throws SQLException {
+        ReflectionTestUtils.setField(ReflectionTestUtils.getField(duckDBService, "duckDBConfig"), "poolTimeoutMs", 50L);
+        try (Connection first = duckDBService.getConnection();
+             Connection second = duckDBService.getConnection()) {
+            assertThrows(SQLException.class, () -> duckDBService.getConnection());
+        }
+    }
+}
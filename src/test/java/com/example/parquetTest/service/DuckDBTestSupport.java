@@ -0,0 +1,147 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.CacheConfig;
+import com.example.parquetTest.config.DuckDBConfig;
+import com.example.parquetTest.config.FilterRuleConfig;
+import com.example.parquetTest.config.IncrementalConfig;
+import com.example.parquetTest.config.OutputConfig;
+import com.example.parquetTest.config.ProjectionConfig;
+import com.example.parquetTest.config.ResourceConfig;
+import com.example.parquetTest.config.SourceConfig;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.SQLException;
+
+/**
+ * Builds an in-memory DuckDBService, and the configuration of what it writes, for tests that run real SQL.
+ */
+final class DuckDBTestSupport {
+
+    private DuckDBTestSupport() {
+    }
+
+    static DuckDBConfig inMemoryConfig(int poolSize) {
+        DuckDBConfig config = new DuckDBConfig();
+        ReflectionTestUtils.setField(config, "mode", "memory");
+        ReflectionTestUtils.setField(config, "file", "");
+        ReflectionTestUtils.setField(config, "memoryLimit", "");
+        ReflectionTestUtils.setField(config, "threads", 2);
+        ReflectionTestUtils.setField(config, "tempDirectory", "");
+        ReflectionTestUtils.setField(config, "preserveInsertionOrder", true);
+        ReflectionTestUtils.setField(config, "poolSize", poolSize);
+        ReflectionTestUtils.setField(config, "poolTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(config, "statementCacheSize", 8);
+        return config;
+    }
+
+    static DuckDBService inMemoryService(int poolSize) throws SQLException {
+        return inMemoryService(inMemoryConfig(poolSize));
+    }
+
+    static DuckDBService inMemoryService(DuckDBConfig config) throws SQLException {
+        DuckDBService duckDBService = new DuckDBService();
+        ReflectionTestUtils.setField(duckDBService, "duckDBConfig", config);
+        ReflectionTestUtils.setField(duckDBService, "resourceGovernor", governor(config));
+        duckDBService.open();
+        return duckDBService;
+    }
+
+    /**
+     * A governor sized from the host alone, the cgroup root pointing nowhere.
+     */
+    static ResourceGovernor governor(DuckDBConfig config) {
+        return governor(config, resourceConfig("/nonexistent-cgroup", "512MB"));
+    }
+
+    static ResourceGovernor governor(DuckDBConfig config, ResourceConfig resourceConfig) {
+        AppConfig appConfig = new AppConfig();
+        ReflectionTestUtils.setField(appConfig, "scratchDir", System.getProperty("java.io.tmpdir"));
+        ResourceGovernor governor = new ResourceGovernor();
+        ReflectionTestUtils.setField(governor, "duckDBConfig", config);
+        ReflectionTestUtils.setField(governor, "resourceConfig", resourceConfig);
+        ReflectionTestUtils.setField(governor, "appConfig", appConfig);
+        governor.computeBudget();
+        return governor;
+    }
+
+    /**
+     * A cache of the snapshots in downloadDir, its outputs in downloadDir/cache.
+     */
+    static SnapshotCache snapshotCache(String downloadDir, String maxSize) {
+        AppConfig appConfig = new AppConfig();
+        ReflectionTestUtils.setField(appConfig, "downloadDir", downloadDir);
+        CacheConfig cacheConfig = new CacheConfig();
+        ReflectionTestUtils.setField(cacheConfig, "enabled", true);
+        ReflectionTestUtils.setField(cacheConfig, "dir", downloadDir + "/cache");
+        ReflectionTestUtils.setField(cacheConfig, "maxSize", maxSize);
+        SnapshotCache snapshotCache = new SnapshotCache();
+        ReflectionTestUtils.setField(snapshotCache, "appConfig", appConfig);
+        ReflectionTestUtils.setField(snapshotCache, "cacheConfig", cacheConfig);
+        return snapshotCache;
+    }
+
+    static ResourceConfig resourceConfig(String cgroupRoot, String minFolderMemory) {
+        ResourceConfig config = new ResourceConfig();
+        ReflectionTestUtils.setField(config, "cgroupRoot", cgroupRoot);
+        ReflectionTestUtils.setField(config, "jvmOverhead", "512MB");
+        ReflectionTestUtils.setField(config, "memoryFraction", 0.8);
+        ReflectionTestUtils.setField(config, "minFolderMemory", minFolderMemory);
+        return config;
+    }
+
+    static ProjectionConfig projectionConfig(String include, String exclude, String rename, String cast) {
+        ProjectionConfig config = new ProjectionConfig();
+        ReflectionTestUtils.setField(config, "include", include);
+        ReflectionTestUtils.setField(config, "exclude", exclude);
+        ReflectionTestUtils.setField(config, "rename", rename);
+        ReflectionTestUtils.setField(config, "cast", cast);
+        config.parseProjections();
+        return config;
+    }
+
+    /**
+     * The default rules, edited_date and view_events by event_time, with folder=value overrides.
+     */
+    static FilterRuleConfig filterRuleConfig(String folderTimezones, String folderLookbackDays, String predicates) {
+        FilterRuleConfig config = new FilterRuleConfig();
+        ReflectionTestUtils.setField(config, "dateColumn", "edited_date");
+        ReflectionTestUtils.setField(config, "folderDateColumns", "view_events=event_time");
+        ReflectionTestUtils.setField(config, "timezone", "UTC");
+        ReflectionTestUtils.setField(config, "folderTimezones", folderTimezones);
+        ReflectionTestUtils.setField(config, "lookbackDays", 0);
+        ReflectionTestUtils.setField(config, "folderLookbackDays", folderLookbackDays);
+        ReflectionTestUtils.setField(config, "predicates", predicates);
+        config.parseRules();
+        return config;
+    }
+
+    static OutputConfig outputConfig(String format, String folderFormats) {
+        OutputConfig config = new OutputConfig();
+        ReflectionTestUtils.setField(config, "format", format);
+        ReflectionTestUtils.setField(config, "folderFormats", folderFormats);
+        config.parseFormats();
+        return config;
+    }
+
+    /**
+     * The default source of appConfig, with the app.sources.* properties of the environment.
+     */
+    static SourceConfig sourceConfig(AppConfig appConfig, MockEnvironment environment) {
+        SourceConfig config = new SourceConfig();
+        ReflectionTestUtils.setField(config, "appConfig", appConfig);
+        ReflectionTestUtils.setField(config, "incrementalConfig", new IncrementalConfig());
+        ReflectionTestUtils.setField(config, "environment", environment);
+        ReflectionTestUtils.setField(config, "names", environment.getProperty("app.sources.names", ""));
+        ReflectionTestUtils.setField(config, "folders", environment.getProperty("app.sources.folders", ""));
+        ReflectionTestUtils.setField(config, "maxConcurrentJobs",
+                environment.getProperty("app.sources.max-concurrent-jobs", Integer.class, 0));
+        ReflectionTestUtils.setField(config, "maxConcurrentRequests",
+                environment.getProperty("app.sources.max-concurrent-requests", Integer.class, 0));
+        ReflectionTestUtils.setField(config, "requestsPerSecond",
+                environment.getProperty("app.sources.requests-per-second", Double.class, 0.0));
+        config.parseSources();
+        return config;
+    }
+}
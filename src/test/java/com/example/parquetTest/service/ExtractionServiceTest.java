@@ -1,16 +1,29 @@
 package com.example.parquetTest.service;
 
+import com.example.parquetTest.config.PipelineConfig;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -24,8 +37,12 @@ public class ExtractionServiceTest {
 
     private File testZipFile;
 
+    private ThreadPoolExecutor extractionExecutor;
+
     @BeforeEach
     void setUp() throws IOException {
+        extractionExecutor = PipelineConfig.newFixedPool("test-extract-", 4);
+        ReflectionTestUtils.setField(extractionService, "extractionExecutor", extractionExecutor);
         testZipFile = File.createTempFile("test_zip", ".zip");
         try (FileOutputStream fos = new FileOutputStream(testZipFile);
              ZipOutputStream zos = new ZipOutputStream(fos)) {
@@ -47,6 +64,11 @@ public class ExtractionServiceTest {
         }
     }
 
+    @AfterEach
+    void tearDown() {
+        extractionExecutor.shutdownNow();
+    }
+
     @Test
     void testExtractParquetFromZip() throws IOException {
         Map<String, List<byte[]>> result = extractionService.extractParquetFromZip(testZipFile);
@@ -83,4 +105,176 @@ public class ExtractionServiceTest {
 
         emptyZipFile.delete();
     }
-}
\ No newline at end of file
+
+    @Test
+    void testExtractParquetToDirectory() throws IOException {
+        Path scratchDir = Files.createTempDirectory("scratch_test");
+        JobContext ctx = new JobContext(LocalDate.now());
+
+        Map<String, List<ExtractionService.ExtractedFile>> result =
+                extractionService.extractParquetToDirectory(testZipFile, scratchDir, ctx);
+
+        assertEquals(2, result.size());
+        assertFalse(result.containsKey("other"));
+
+        ExtractionService.ExtractedFile asset = result.get("asset").get(0);
+        byte[] expected = "Mock Asset Parquet Data".getBytes();
+        CRC32 crc = new CRC32();
+        crc.update(expected);
+
+        assertEquals("asset", asset.folder);
+        assertEquals(scratchDir.resolve("asset").resolve("test_asset.parquet"), asset.path);
+        assertEquals(expected.length, asset.size);
+        assertEquals(crc.getValue(), asset.crc);
+        assertArrayEquals(expected, Files.readAllBytes(asset.path));
+
+        ExtractionService.ExtractedFile viewEvents = result.get("view_events").get(0);
+        assertEquals("Mock View Events Parquet Data", Files.readString(viewEvents.path));
+        assertEquals("COMPLETED", ctx.stage(JobContext.EXTRACT).getStatus());
+        assertEquals(testZipFile.length(), ctx.stage(JobContext.EXTRACT).getTotalBytes());
+
+        FileUtils.deleteQuietly(scratchDir.toFile());
+        testZipFile.delete();
+    }
+
+    @Test
+    void testExtractParquetToDirectoryRejectsEscapingEntries() throws IOException {
+        File zipSlip = File.createTempFile("zip_slip", ".zip");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipSlip))) {
+            zos.putNextEntry(new ZipEntry("../evil.parquet"));
+            zos.write("evil".getBytes());
+            zos.closeEntry();
+        }
+        Path scratchDir = Files.createTempDirectory("scratch_test");
+
+        assertThrows(IOException.class, () -> extractionService.extractParquetToDirectory(zipSlip, scratchDir, new JobContext(LocalDate.now())));
+
+        FileUtils.deleteQuietly(scratchDir.toFile());
+        zipSlip.delete();
+    }
+
+    @Test
+    void testExtractParquetToDirectorySkipsRootLevelEntries() throws IOException {
+        File zip = createZip("root.parquet", "asset/a.parquet");
+        Path scratchDir = Files.createTempDirectory("scratch_test");
+
+        Map<String, List<ExtractionService.ExtractedFile>> result =
+                extractionService.extractParquetToDirectory(zip, scratchDir, new JobContext(LocalDate.now()));
+
+        assertEquals(1, result.size());
+        assertEquals(1, result.get("asset").size());
+
+        FileUtils.deleteQuietly(scratchDir.toFile());
+        zip.delete();
+    }
+
+    @Test
+    void testExtractParquetToDirectoryRejectsCollidingEntries() throws IOException {
+        File zip = createZip("asset/a/b.parquet", "asset/a_b.parquet");
+        Path scratchDir = Files.createTempDirectory("scratch_test");
+
+        IOException e = assertThrows(IOException.class,
+                () -> extractionService.extractParquetToDirectory(zip, scratchDir, new JobContext(LocalDate.now())));
+        assertTrue(e.getMessage().contains("asset/a_b.parquet"));
+
+        FileUtils.deleteQuietly(scratchDir.toFile());
+        zip.delete();
+    }
+
+    @Test
+    void testExtractParquetToDirectoryHandsOverCompleteFolders() throws IOException {
+        File zip = createZip("asset/1.parquet", "view_events/1.parquet", "asset/2.parquet", "attribute/1.parquet");
+        Path scratchDir = Files.createTempDirectory("scratch_test");
+        List<String> handedOver = new ArrayList<>();
+        // One entry at a time, so the hand-over order is the planned order
+        extractionExecutor.setCorePoolSize(1);
+        extractionExecutor.setMaximumPoolSize(1);
+
+        extractionService.extractParquetToDirectory(zip, scratchDir, new JobContext(LocalDate.now()), (folder, files) -> {
+            // Every file of the folder is already on disk
+            for (ExtractionService.ExtractedFile file : files) {
+                assertTrue(Files.exists(file.path));
+            }
+            handedOver.add(folder + ":" + files.size());
+        });
+
+        // Folders are extracted largest first, asset's two files before view_events and attribute
+        assertEquals(Arrays.asList("asset:2", "view_events:1", "attribute:1"), handedOver);
+
+        FileUtils.deleteQuietly(scratchDir.toFile());
+        zip.delete();
+    }
+
+    @Test
+    void testExtractParquetToDirectoryInflatesEntriesConcurrently() throws IOException {
+        File zip = File.createTempFile("many_entries", ".zip");
+        Map<String, byte[]> contents = new HashMap<>();
+        Random random = new Random(42);
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (int i = 0; i < 40; i++) {
+                String entryName = (i % 3 == 0 ? "asset" : "view_events") + "/part-" + i + ".parquet";
+                byte[] content = new byte[1_000 + random.nextInt(50_000)];
+                random.nextBytes(content);
+                contents.put(entryName, content);
+                zos.putNextEntry(new ZipEntry(entryName));
+                zos.write(content);
+                zos.closeEntry();
+            }
+        }
+        Path scratchDir = Files.createTempDirectory("scratch_test");
+        Map<String, Integer> handOvers = new HashMap<>();
+
+        Map<String, List<ExtractionService.ExtractedFile>> result = extractionService.extractParquetToDirectory(
+                zip, scratchDir, new JobContext(LocalDate.now()), (folder, files) -> handOvers.merge(folder, 1, Integer::sum));
+
+        assertEquals(Map.of("asset", 1, "view_events", 1), handOvers);
+        assertEquals(14, result.get("asset").size());
+        assertEquals(26, result.get("view_events").size());
+        // Files stay in central directory order within their folder
+        assertEquals("part-0.parquet", result.get("asset").get(0).getFileName());
+        assertEquals("part-39.parquet", result.get("asset").get(13).getFileName());
+        for (List<ExtractionService.ExtractedFile> files : result.values()) {
+            for (ExtractionService.ExtractedFile file : files) {
+                byte[] expected = contents.get(file.folder + "/" + file.getFileName());
+                CRC32 crc = new CRC32();
+                crc.update(expected);
+                assertArrayEquals(expected, Files.readAllBytes(file.path));
+                assertEquals(crc.getValue(), file.crc);
+            }
+        }
+
+        FileUtils.deleteQuietly(scratchDir.toFile());
+        zip.delete();
+    }
+
+    @Test
+    void testPlanFoldersReadsSizesFromCentralDirectory() throws IOException {
+        File zip = createZip("asset/1.parquet", "view_events/1.parquet", "asset/2.parquet", "other/readme.txt");
+        Path scratchDir = Files.createTempDirectory("scratch_test");
+
+        List<ExtractionService.FolderPlan> plan = extractionService.planFolders(zip, scratchDir);
+
+        assertEquals(2, plan.size());
+        assertEquals("asset", plan.get(0).folder);
+        assertEquals(2, plan.get(0).getEntryCount());
+        assertEquals("asset/1.parquet".length() + "asset/2.parquet".length(), plan.get(0).uncompressedBytes);
+        assertEquals("view_events", plan.get(1).folder);
+        // Planning inflates nothing
+        assertEquals(0, Files.list(scratchDir).count());
+
+        FileUtils.deleteQuietly(scratchDir.toFile());
+        zip.delete();
+    }
+
+    private File createZip(String... entryNames) throws IOException {
+        File zip = File.createTempFile("entries", ".zip");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (String entryName : entryNames) {
+                zos.putNextEntry(new ZipEntry(entryName));
+                zos.write(entryName.getBytes());
+                zos.closeEntry();
+            }
+        }
+        return zip;
+    }
+}
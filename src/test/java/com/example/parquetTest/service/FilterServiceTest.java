@@ -1,24 +1,29 @@
 package com.example.parquetTest.service;
 
-import com.example.parquetTest.utils.DuckDBUtil;
+import com.example.parquetTest.config.IncrementalConfig;
+import com.example.parquetTest.config.PipelineConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
-import org.mockito.Mock;
-import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
 import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 public class FilterServiceTest {
@@ -26,86 +31,290 @@ public class FilterServiceTest {
     @InjectMocks
     private FilterService filterService;
 
-    @Mock
-    private Connection mockConnection;
+    private DuckDBService duckDBService;
 
-    @Mock
-    private Statement mockStatement;
+    private Connection connection;
 
-    @Mock
-    private ResultSet mockResultSet;
+    private Path scratchDir;
 
-    @Mock
-    private ResultSetMetaData mockMetaData;
+    private LocalDate editedDate;
 
-    private Map<String, List<byte[]>> testParquetFiles;
+    private Map<String, List<ExtractionService.ExtractedFile>> testParquetFiles;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     @BeforeEach
-    void setUp() throws IOException {
+    void setUp() throws Exception {
+        duckDBService = DuckDBTestSupport.inMemoryService(4);
+        connection = duckDBService.getConnection();
+        FolderScheduler folderScheduler = new FolderScheduler();
+        ReflectionTestUtils.setField(folderScheduler, "folderExecutor", PipelineConfig.newFixedPool("test-folder-", 2));
+        ReflectionTestUtils.setField(folderScheduler, "duckDBService", duckDBService);
+        ReflectionTestUtils.setField(folderScheduler, "resourceGovernor", DuckDBTestSupport.governor(DuckDBTestSupport.inMemoryConfig(4)));
+        ReflectionTestUtils.setField(filterService, "folderScheduler", folderScheduler);
+        ReflectionTestUtils.setField(filterService, "incrementalConfig", new IncrementalConfig());
+        ReflectionTestUtils.setField(filterService, "pipelineMetrics", new PipelineMetrics(meterRegistry));
+        ReflectionTestUtils.setField(filterService, "outputConfig", DuckDBTestSupport.outputConfig("json", ""));
+        ReflectionTestUtils.setField(filterService, "parquetFooterIndex", new ParquetFooterIndex());
+        ReflectionTestUtils.setField(filterService, "projectionConfig", DuckDBTestSupport.projectionConfig("", "", "", ""));
+        ReflectionTestUtils.setField(filterService, "filterRuleConfig", DuckDBTestSupport.filterRuleConfig("", "", ""));
+        ReflectionTestUtils.setField(filterService, "duckDBService", duckDBService);
+        scratchDir = Files.createTempDirectory("filter_test");
+        editedDate = LocalDate.now().minusDays(4);
+
         testParquetFiles = new HashMap<>();
-        testParquetFiles.put("asset", Arrays.asList(createMockParquetBytes("asset")));
-        testParquetFiles.put("view_events", Arrays.asList(createMockParquetBytes("view_events")));
+        testParquetFiles.put("asset", Arrays.asList(
+                createParquetFile("asset", "part-1.parquet", "edited_date", 0, 3, 1),
+                createParquetFile("asset", "part-2.parquet", "edited_date", 2, 1, 0)));
+        testParquetFiles.put("view_events", Arrays.asList(
+                createParquetFile("view_events", "part-1.parquet", "event_time", 5, 4, 2)));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+        duckDBService.close();
+        FileUtils.deleteQuietly(scratchDir.toFile());
     }
 
     @Test
     void testFilterParquetFiles() throws Exception {
-        try (MockedStatic<DuckDBUtil> mockDuckDBUtil = mockStatic(DuckDBUtil.class)) {
-            mockDuckDBUtil.when(DuckDBUtil::getConnection).thenReturn(mockConnection);
-            when(mockConnection.createStatement()).thenReturn(mockStatement);
-            when(mockStatement.executeQuery(anyString())).thenReturn(mockResultSet);
-
-            when(mockResultSet.next()).thenReturn(true, false, true, false);
-            when(mockResultSet.getMetaData()).thenReturn(mockMetaData);
-            when(mockMetaData.getColumnCount()).thenReturn(3);
-            when(mockMetaData.getColumnName(1)).thenReturn("id");
-            when(mockMetaData.getColumnName(2)).thenReturn("name");
-            when(mockMetaData.getColumnName(3)).thenReturn("value");
-            when(mockResultSet.getObject(1)).thenReturn("1");
-            when(mockResultSet.getObject(2)).thenReturn("Test Name");
-            when(mockResultSet.getObject(3)).thenReturn(100);
-            when(mockResultSet.getInt("cnt")).thenReturn(10);
-
-            Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(testParquetFiles);
-
-            assertNotNull(result);
-            assertEquals(2, result.size());
-            assertTrue(result.containsKey("asset"));
-            assertTrue(result.containsKey("view_events"));
-
-            ProcessService.FilterResult assetResult = result.get("asset");
-            assertEquals("asset", assetResult.folderName);
-            assertEquals(LocalDate.now().minusDays(1).toString(), assetResult.editedDate);
-            assertEquals(20, assetResult.totalFilteredRows);
-            assertEquals(1, assetResult.data.size());
-
-            Map<String, Object> assetData = assetResult.data.get(0);
-            assertEquals("1", assetData.get("id"));
-            assertEquals("Test Name", assetData.get("name"));
-            assertEquals(100, assetData.get("value"));
-
-            verify(mockStatement, times(8)).execute(anyString());
-            verify(mockStatement, times(4)).executeQuery(anyString());
+        List<File> outputFiles = Collections.synchronizedList(new ArrayList<>());
+        Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(testParquetFiles, new JobContext(editedDate), outputFiles::add);
+
+        assertNotNull(result);
+        assertEquals(2, result.size());
+        assertTrue(result.containsKey("asset"));
+        assertTrue(result.containsKey("view_events"));
+
+        ProcessService.FilterResult assetResult = result.get("asset");
+        assertEquals("asset", assetResult.folderName);
+        assertEquals(editedDate.toString(), assetResult.editedDate);
+        assertEquals(4, assetResult.totalFilteredRows);
+
+        ProcessService.FilterResult viewEventsResult = result.get("view_events");
+        assertEquals(4, viewEventsResult.totalFilteredRows);
+
+        String formattedDate = editedDate.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        File assetJsonFile = new File("Json_filtered", "asset-" + formattedDate + ".json");
+        File viewEventsJsonFile = new File("Json_filtered", "view_events-" + formattedDate + ".json");
+        assertTrue(assetJsonFile.exists(), "Asset JSON file should be written by DuckDB");
+        assertTrue(viewEventsJsonFile.exists(), "View events JSON file should be written by DuckDB");
+        assertEquals(new HashSet<>(Arrays.asList(assetJsonFile, viewEventsJsonFile)), new HashSet<>(outputFiles),
+                "Every written JSON file should be handed to the packager");
+        // Each branch of createParquetFile's query is its own row group; the ones before and after the day are pruned
+        assertEquals(4, meterRegistry.get("pipeline.folder.rows.scanned").tag("folder", "asset").counter().count());
+        assertEquals(2, meterRegistry.get("pipeline.folder.rowgroups.pruned").tag("folder", "asset").counter().count());
+        assertEquals(4, meterRegistry.get("pipeline.folder.rows.emitted").tag("folder", "asset").counter().count());
+        assertEquals(2, meterRegistry.get("pipeline.folder.files").tag("folder", "asset").counter().count());
+
+        JsonNode assetRows = new ObjectMapper().readTree(assetJsonFile);
+        assertTrue(assetRows.isArray());
+        assertEquals(4, assetRows.size());
+        for (JsonNode row : assetRows) {
+            assertEquals("on", row.get("name").asText());
+            assertTrue(row.has("edited_date"));
         }
+
+        assetJsonFile.delete();
+        viewEventsJsonFile.delete();
+        new File("Json_filtered").delete();
     }
 
     @Test
-    void testFilterParquetFilesWithException() throws Exception {
-        try (MockedStatic<DuckDBUtil> mockDuckDBUtil = mockStatic(DuckDBUtil.class)) {
-            mockDuckDBUtil.when(DuckDBUtil::getConnection).thenThrow(new SQLException("Test exception"));
+    void testFilterParquetFilesSkipsBrokenFolder() throws Exception {
+        Path brokenFile = Files.createDirectories(scratchDir.resolve("broken")).resolve("part-1.parquet");
+        Files.write(brokenFile, "not a parquet file".getBytes());
+        List<File> outputFiles = Collections.synchronizedList(new ArrayList<>());
+        testParquetFiles.put("broken", Collections.singletonList(
+                new ExtractionService.ExtractedFile(brokenFile, "broken", Files.size(brokenFile), 0L)));
+
+        Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(testParquetFiles, new JobContext(editedDate), outputFiles::add);
+
+        assertNotNull(result);
+        assertEquals(2, result.size());
+        assertFalse(result.containsKey("broken"));
+        assertEquals(2, outputFiles.size());
 
-            Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(testParquetFiles);
+        FileUtils.deleteQuietly(new File("Json_filtered"));
+    }
+
+    @Test
+    void testFilterParquetFilesIncremental() throws Exception {
+        IncrementalConfig incrementalConfig = new IncrementalConfig();
+        ReflectionTestUtils.setField(incrementalConfig, "enabled", true);
+        ReflectionTestUtils.setField(incrementalConfig, "keyColumn", "");
+        IncrementalService incrementalService = new IncrementalService();
+        ReflectionTestUtils.setField(incrementalService, "duckDBService", duckDBService);
+        ReflectionTestUtils.setField(incrementalService, "incrementalConfig", incrementalConfig);
+        // The persisted table keeps every column, the projection applies to the export
+        ReflectionTestUtils.setField(incrementalService, "projectionConfig",
+                DuckDBTestSupport.projectionConfig("", "asset.name", "", ""));
+        ReflectionTestUtils.setField(incrementalService, "filterRuleConfig", DuckDBTestSupport.filterRuleConfig("", "", ""));
+        incrementalService.createStateTables();
+        ReflectionTestUtils.setField(filterService, "incrementalConfig", incrementalConfig);
+        ReflectionTestUtils.setField(filterService, "incrementalService", incrementalService);
+
+        Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(testParquetFiles, new JobContext(editedDate), file -> { });
+
+        // Same day as the direct scan, now exported from the persisted tables
+        assertEquals(4, result.get("asset").totalFilteredRows);
+        assertEquals(4, result.get("view_events").totalFilteredRows);
+        List<IncrementalService.Watermark> watermarks = incrementalService.getWatermarks();
+        assertEquals(2, watermarks.size());
+        assertEquals(7, watermarks.get(0).getRowCount());
+        assertEquals("event_time", watermarks.get(1).getDateColumn());
+        String formattedDate = editedDate.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        JsonNode assetRow = new ObjectMapper().readTree(new File("Json_filtered", "asset-" + formattedDate + ".json")).get(0);
+        assertFalse(assetRow.has("name"));
+        assertTrue(assetRow.has("id"));
+
+        FileUtils.deleteQuietly(new File("Json_filtered"));
+    }
+
+    @Test
+    void testFilterParquetFilesInConfiguredFormats() throws Exception {
+        ReflectionTestUtils.setField(filterService, "outputConfig",
+                DuckDBTestSupport.outputConfig("ndjson", "view_events=parquet"));
+        String formattedDate = editedDate.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+
+        Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(testParquetFiles, new JobContext(editedDate), file -> { });
+
+        assertEquals("ndjson", result.get("asset").format);
+        assertEquals("parquet", result.get("view_events").format);
+        List<String> lines = Files.readAllLines(Path.of("Json_filtered", "asset-" + formattedDate + ".ndjson"));
+        assertEquals(4, lines.size());
+        assertEquals("on", new ObjectMapper().readTree(lines.get(0)).get("name").asText());
+        assertEquals(4, count("SELECT count(*) FROM read_parquet('Json_filtered/view_events-" + formattedDate + ".parquet')"));
+
+        // The job's format wins over the folder's
+        result = filterService.filterParquetFiles(testParquetFiles, new JobContext(editedDate, OutputFormat.NDJSON_ZSTD), file -> { });
+
+        assertEquals("ndjson-zstd", result.get("view_events").format);
+        assertEquals(4, count("SELECT count(*) FROM read_json_auto('Json_filtered/view_events-" + formattedDate +
+                ".ndjson.zst', compression='zstd')"));
+
+        FileUtils.deleteQuietly(new File("Json_filtered"));
+    }
+
+    @Test
+    void testFilterParquetFilesAppliesFolderProjection() throws Exception {
+        ReflectionTestUtils.setField(filterService, "projectionConfig", DuckDBTestSupport.projectionConfig(
+                "asset.id,asset.name,asset.dropped_upstream", "view_events.name", "asset.name=label", "asset.id=DECIMAL(10,2)"));
+        String formattedDate = editedDate.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+
+        Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(testParquetFiles, new JobContext(editedDate), file -> { });
+
+        assertEquals(4, result.get("asset").totalFilteredRows);
+        // Only the included columns, renamed and cast; the date column still filters the day
+        JsonNode assetRow = new ObjectMapper().readTree(new File("Json_filtered", "asset-" + formattedDate + ".json")).get(0);
+        assertEquals(Arrays.asList("id", "label"), fieldNames(assetRow));
+        assertEquals("on", assetRow.get("label").asText());
+        assertTrue(assetRow.get("id").isNumber());
+        JsonNode viewEventRow = new ObjectMapper().readTree(new File("Json_filtered", "view_events-" + formattedDate + ".json")).get(0);
+        assertEquals(Arrays.asList("id", "event_time"), fieldNames(viewEventRow));
+
+        FileUtils.deleteQuietly(new File("Json_filtered"));
+    }
+
+    @Test
+    void testFilterParquetFilesAppliesFolderRules() throws Exception {
+        // asset's day starts an hour later in UTC and only keeps id 0, view_events looks back a day
+        ReflectionTestUtils.setField(filterService, "filterRuleConfig",
+                DuckDBTestSupport.filterRuleConfig("asset=Etc/GMT+1", "view_events=1", "asset=id < 1"));
+        String formattedDate = editedDate.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+
+        Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(testParquetFiles, new JobContext(editedDate), file -> { });
+
+        assertEquals(3, result.get("asset").totalFilteredRows);
+        Set<String> names = new HashSet<>();
+        for (JsonNode row : new ObjectMapper().readTree(new File("Json_filtered", "asset-" + formattedDate + ".json"))) {
+            assertEquals(0, row.get("id").asInt());
+            names.add(row.get("name").asText());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("on", "after")), names);
+        assertEquals(9, result.get("view_events").totalFilteredRows);
+        // DuckDB wrote to staging files that were moved into place
+        assertEquals(new HashSet<>(Arrays.asList("asset-" + formattedDate + ".json", "view_events-" + formattedDate + ".json")),
+                new HashSet<>(Arrays.asList(new File("Json_filtered").list())));
+
+        FileUtils.deleteQuietly(new File("Json_filtered"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFilterParquetFilesReusesPreparedStatements() throws Exception {
+        Map<String, List<ExtractionService.ExtractedFile>> files = new HashMap<>();
+        files.put("asset", testParquetFiles.get("asset"));
+
+        // One folder per run borrows the next of the three idle connections, the fourth run is back on the first
+        for (int run = 0; run < 4; run++) {
+            assertEquals(4, filterService.filterParquetFiles(files, new JobContext(editedDate), file -> { }).get("asset").totalFilteredRows);
+        }
+
+        long hits = 0;
+        long misses = 0;
+        Map<?, StatementCache> caches = (Map<?, StatementCache>) ReflectionTestUtils.getField(duckDBService, "statementCaches");
+        for (StatementCache statements : caches.values()) {
+            hits += statements.getHits();
+            misses += statements.getMisses();
+        }
+        assertEquals(1, hits);
+        assertEquals(3, misses);
+
+        FileUtils.deleteQuietly(new File("Json_filtered"));
+    }
+
+    @Test
+    void testFilterParquetFilesPrunesFilesOutsideTheDay() throws Exception {
+        Map<String, List<ExtractionService.ExtractedFile>> files = new HashMap<>();
+        files.put("view_events", Arrays.asList(
+                createParquetFile("view_events", "part-1.parquet", "event_time", 5, 2, 0),
+                createParquetFile("view_events", "old.parquet", "event_time", 7, 0, 0)));
+
+        Map<String, ProcessService.FilterResult> result = filterService.filterParquetFiles(files, new JobContext(editedDate), file -> { });
+
+        assertEquals(2, result.get("view_events").totalFilteredRows);
+        assertEquals(1, meterRegistry.get("pipeline.folder.files.pruned").tag("folder", "view_events").counter().count());
+        assertEquals(2, meterRegistry.get("pipeline.folder.rows.scanned").tag("folder", "view_events").counter().count());
+
+        // With every file outside the day one is still scanned, so the output is written
+        files.put("view_events", Collections.singletonList(files.get("view_events").get(1)));
+        result = filterService.filterParquetFiles(files, new JobContext(editedDate), file -> { });
+        assertEquals(0, result.get("view_events").totalFilteredRows);
+
+        FileUtils.deleteQuietly(new File("Json_filtered"));
+    }
+
+    private static List<String> fieldNames(JsonNode row) {
+        List<String> names = new ArrayList<>();
+        row.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
 
-            assertNotNull(result);
-            assertEquals(0, result.size());
+    private long count(String query) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            rs.next();
+            return rs.getLong(1);
         }
     }
 
-    private byte[] createMockParquetBytes(String folderName) throws IOException {
-        File tempFile = File.createTempFile("mock_" + folderName, ".parquet");
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            fos.write(("Mock " + folderName + " Parquet Data").getBytes());
+    /**
+     * Writes a parquet file with rows before, on and after the target date.
+     */
+    private ExtractionService.ExtractedFile createParquetFile(String folder, String fileName, String dateColumn,
+                                                              int before, int on, int after) throws SQLException, IOException {
+        Path parquetFile = Files.createDirectories(scratchDir.resolve(folder)).resolve(fileName);
+        String day = "TIMESTAMP '" + editedDate + " 12:00:00'";
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(String.format(
+                    "COPY (SELECT range AS id, 'before' AS name, %1$s - INTERVAL 1 DAY AS %2$s FROM range(%3$d) " +
+                    "UNION ALL SELECT range AS id, 'on' AS name, %1$s + INTERVAL (range) MINUTE AS %2$s FROM range(%4$d) " +
+                    "UNION ALL SELECT range AS id, 'after' AS name, %1$s + INTERVAL 12 HOUR AS %2$s FROM range(%5$d)) " +
+                    "TO '%6$s' (FORMAT PARQUET)",
+                    day, dateColumn, before, on, after, parquetFile));
         }
-        tempFile.deleteOnExit();
-        return tempFile.getPath().getBytes();
+        return new ExtractionService.ExtractedFile(parquetFile, folder, Files.size(parquetFile), 0L);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,144 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.PipelineConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FolderSchedulerTest {
+
+    private FolderScheduler folderScheduler;
+
+    private ThreadPoolExecutor folderExecutor;
+
+    private DuckDBService duckDBService;
+
+    private Map<String, List<ExtractionService.ExtractedFile>> files;
+
+    private JobContext ctx;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        duckDBService = DuckDBTestSupport.inMemoryService(4);
+        folderExecutor = PipelineConfig.newFixedPool("test-folder-", 1);
+        folderScheduler = new FolderScheduler();
+        ReflectionTestUtils.setField(folderScheduler, "folderExecutor", folderExecutor);
+        ReflectionTestUtils.setField(folderScheduler, "duckDBService", duckDBService);
+        ReflectionTestUtils.setField(folderScheduler, "resourceGovernor", DuckDBTestSupport.governor(DuckDBTestSupport.inMemoryConfig(4)));
+        PipelineConfig pipelineConfig = new PipelineConfig();
+        ReflectionTestUtils.setField(pipelineConfig, "folderQueueCapacity", 1);
+        ReflectionTestUtils.setField(folderScheduler, "pipelineConfig", pipelineConfig);
+
+        ctx = new JobContext(LocalDate.now());
+        files = new HashMap<>();
+        files.put("asset", Arrays.asList(file("asset", 10), file("asset", 20)));
+        files.put("view_events", Collections.singletonList(file("view_events", 500)));
+        files.put("attribute", Collections.singletonList(file("attribute", 100)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        folderExecutor.shutdownNow();
+        duckDBService.close();
+    }
+
+    @Test
+    void testLargestFirst() {
+        assertEquals(Arrays.asList("view_events", "attribute", "asset"), FolderScheduler.largestFirst(files));
+    }
+
+    @Test
+    void testRunPerFolderUsesPooledConnectionsLargestFirst() throws Exception {
+        List<String> startOrder = new CopyOnWriteArrayList<>();
+        Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+        Map<String, Integer> result = folderScheduler.runPerFolder(files, ctx, JobContext.FILTER, (folderConn, folder, folderFiles) -> {
+            startOrder.add(folder);
+            connections.add(folderConn);
+            try (ResultSet rs = folderConn.createStatement().executeQuery("SELECT current_setting('threads')")) {
+                rs.next();
+                assertEquals(2, rs.getInt(1));
+            }
+            return folderFiles.size();
+        });
+
+        assertEquals(Arrays.asList("view_events", "attribute", "asset"), startOrder);
+        assertEquals(3, connections.size());
+        assertEquals(2, result.get("asset"));
+        assertEquals(1, result.get("view_events"));
+        assertEquals(1, result.get("attribute"));
+        assertEquals(630, ctx.stage(JobContext.FILTER).getBytes());
+        assertEquals("COMPLETED", ctx.stage(JobContext.FILTER).getStatus());
+    }
+
+    @Test
+    void testRunPerFolderStopsWhenCancelled() {
+        List<String> started = new CopyOnWriteArrayList<>();
+        ctx.cancel();
+
+        assertThrows(CancellationException.class, () -> folderScheduler.runPerFolder(files, ctx, JobContext.FILTER,
+                (folderConn, folder, folderFiles) -> started.add(folder)));
+        assertTrue(started.isEmpty());
+    }
+
+    @Test
+    void testRunPerFolderSkipsFailedFolder() throws Exception {
+        Map<String, String> result = folderScheduler.runPerFolder(files, ctx, JobContext.FILTER, (folderConn, folder, folderFiles) -> {
+            if (folder.equals("attribute")) {
+                throw new IllegalStateException("broken folder");
+            }
+            return folder;
+        });
+
+        assertEquals(2, result.size());
+        assertFalse(result.containsKey("attribute"));
+    }
+
+    @Test
+    void testSessionBlocksSubmitWhileQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> startOrder = new CopyOnWriteArrayList<>();
+
+        try (FolderScheduler.Session<String> session = folderScheduler.open(ctx, JobContext.FILTER, (folderConn, folder, folderFiles) -> {
+            startOrder.add(folder);
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return folder;
+        })) {
+            // One folder runs on the single slot, one waits in the queue of capacity 1
+            session.submit("asset", files.get("asset"));
+            session.submit("attribute", files.get("attribute"));
+            CompletableFuture<Void> third = CompletableFuture.runAsync(() -> {
+                try {
+                    session.submit("view_events", files.get("view_events"));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(200);
+            assertFalse(third.isDone(), "Submit should block while the queue is full");
+
+            release.countDown();
+            third.get(10, TimeUnit.SECONDS);
+            Map<String, String> result = session.finish();
+
+            assertEquals(3, result.size());
+            assertEquals(Arrays.asList("asset", "attribute", "view_events"), startOrder);
+            assertEquals(630, ctx.stage(JobContext.FILTER).getTotalBytes());
+        }
+    }
+
+    private ExtractionService.ExtractedFile file(String folder, long size) {
+        return new ExtractionService.ExtractedFile(Paths.get(folder, size + ".parquet"), folder, size, 0L);
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.IncrementalConfig;
+import com.example.parquetTest.config.PipelineConfig;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalServiceTest {
+
+    private static final LocalDate DAY = LocalDate.of(2025, 3, 1);
+
+    private IncrementalService incrementalService;
+    private IncrementalConfig incrementalConfig;
+    private DuckDBService duckDBService;
+    private Connection connection;
+    private Path workDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        duckDBService = DuckDBTestSupport.inMemoryService(2);
+        connection = duckDBService.getConnection();
+        workDir = Files.createTempDirectory("incremental_test");
+
+        incrementalConfig = new IncrementalConfig();
+        ReflectionTestUtils.setField(incrementalConfig, "enabled", true);
+        ReflectionTestUtils.setField(incrementalConfig, "keyColumn", "");
+        ReflectionTestUtils.setField(incrementalConfig, "lookbackDays", 1);
+
+        AppConfig appConfig = new AppConfig();
+        ReflectionTestUtils.setField(appConfig, "scratchDir", workDir.toString());
+        PipelineConfig pipelineConfig = new PipelineConfig();
+        ReflectionTestUtils.setField(pipelineConfig, "packageParallelism", 2);
+        ReflectionTestUtils.setField(pipelineConfig, "packageCompressionLevel", 6);
+        ZipPackager zipPackager = new ZipPackager();
+        ReflectionTestUtils.setField(zipPackager, "pipelineConfig", pipelineConfig);
+        ReflectionTestUtils.setField(zipPackager, "appConfig", appConfig);
+
+        incrementalService = new IncrementalService();
+        ReflectionTestUtils.setField(incrementalService, "duckDBService", duckDBService);
+        ReflectionTestUtils.setField(incrementalService, "incrementalConfig", incrementalConfig);
+        ReflectionTestUtils.setField(incrementalService, "projectionConfig", DuckDBTestSupport.projectionConfig("", "", "", ""));
+        ReflectionTestUtils.setField(incrementalService, "filterRuleConfig", DuckDBTestSupport.filterRuleConfig("", "", ""));
+        ReflectionTestUtils.setField(incrementalService, "zipPackager", zipPackager);
+        ReflectionTestUtils.setField(incrementalService, "appConfig", appConfig);
+        ReflectionTestUtils.setField(incrementalService, "outputConfig", DuckDBTestSupport.outputConfig("json", ""));
+        incrementalService.createStateTables();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+        duckDBService.close();
+        FileUtils.deleteQuietly(workDir.toFile());
+    }
+
+    @Test
+    void testFirstMergeLoadsSnapshotAndSetsWatermark() throws Exception {
+        String snapshot = writeSnapshot("s1", "(1, 'a', DATE '2025-02-27'), (2, 'b', DATE '2025-02-28'), (3, 'c', DATE '2025-03-01')");
+
+        IncrementalService.MergeResult result = merge(snapshot, DAY);
+
+        assertEquals(3, result.insertedRows);
+        assertFalse(result.skipped);
+        assertEquals(LocalDateTime.of(2025, 3, 1, 0, 0), result.highWatermark);
+        IncrementalService.Watermark watermark = incrementalService.getWatermarks().get(0);
+        assertEquals("asset", watermark.getFolder());
+        assertEquals("edited_date", watermark.getDateColumn());
+        assertEquals(DAY, watermark.getSnapshotDate());
+        assertEquals(3, watermark.getRowCount());
+    }
+
+    @Test
+    void testNextSnapshotOnlyMergesWindowAndPicksUpLateRows() throws Exception {
+        merge(writeSnapshot("s1", "(1, 'a', DATE '2025-02-27'), (2, 'b', DATE '2025-02-28'), (3, 'c', DATE '2025-03-01')"), DAY);
+
+        // The next day adds a row for 03-02 and a late one for 03-01; row 1 changed outside the window
+        String next = writeSnapshot("s2", "(1, 'changed', DATE '2025-02-27'), (2, 'b', DATE '2025-02-28'), " +
+                "(3, 'c', DATE '2025-03-01'), (4, 'late', DATE '2025-03-01'), (5, 'd', DATE '2025-03-02')");
+        IncrementalService.MergeResult result = merge(next, DAY.plusDays(1));
+
+        // Window is watermark 03-01 minus one lookback day: 02-28 onwards is replaced
+        assertEquals(4, result.insertedRows);
+        assertEquals(2, result.deletedRows);
+        assertEquals(5, count("SELECT count(*) FROM ingest.asset"));
+        assertEquals(1, count("SELECT count(*) FROM ingest.asset WHERE name = 'a'"));
+
+        // Merging the same snapshot again leaves the table unchanged
+        merge(next, DAY.plusDays(1));
+        assertEquals(5, count("SELECT count(*) FROM ingest.asset"));
+    }
+
+    @Test
+    void testKeyColumnReplacesOlderVersions() throws Exception {
+        ReflectionTestUtils.setField(incrementalConfig, "keyColumn", "id");
+        merge(writeSnapshot("s1", "(1, 'a', DATE '2025-02-20'), (2, 'b', DATE '2025-03-01')"), DAY);
+
+        // Row 1 was edited on 03-02, so its old version outside the window must go
+        merge(writeSnapshot("s2", "(1, 'edited', DATE '2025-03-02'), (2, 'b', DATE '2025-03-01')"), DAY.plusDays(1));
+
+        assertEquals(2, count("SELECT count(*) FROM ingest.asset"));
+        assertEquals(1, count("SELECT count(*) FROM ingest.asset WHERE id = 1 AND name = 'edited'"));
+    }
+
+    @Test
+    void testOlderSnapshotIsSkipped() throws Exception {
+        merge(writeSnapshot("s2", "(1, 'a', DATE '2025-03-01'), (2, 'b', DATE '2025-03-02')"), DAY.plusDays(1));
+
+        IncrementalService.MergeResult result = merge(writeSnapshot("s1", "(1, 'a', DATE '2025-03-01')"), DAY);
+
+        assertTrue(result.skipped);
+        assertEquals(2, count("SELECT count(*) FROM ingest.asset"));
+        assertEquals(DAY.plusDays(1), incrementalService.getWatermarks().get(0).getSnapshotDate());
+    }
+
+    @Test
+    void testNewSnapshotColumnIsAdded() throws Exception {
+        merge(writeSnapshot("s1", "(1, 'a', DATE '2025-02-20'), (2, 'b', DATE '2025-03-01')"), DAY);
+
+        // Row 1 is outside the window and keeps a NULL in the new column
+        Path parquet = workDir.resolve("s2.parquet");
+        execute("COPY (SELECT 2 AS id, 'b' AS name, DATE '2025-03-01' AS edited_date, 'gold' AS tier) TO '" + parquet + "' (FORMAT PARQUET)");
+        merge(parquet.toString(), DAY.plusDays(1));
+
+        assertEquals(1, count("SELECT count(*) FROM ingest.asset WHERE tier = 'gold'"));
+        assertEquals(1, count("SELECT count(*) FROM ingest.asset WHERE tier IS NULL"));
+    }
+
+    @Test
+    void testPackageRangeExportsPersistedDelta() throws Exception {
+        merge(writeSnapshot("s1", "(1, 'a', DATE '2025-02-27'), (2, 'b', DATE '2025-02-28'), (3, 'c', DATE '2025-03-01')"), DAY);
+
+        File zipFile = incrementalService.packageRange(LocalDate.of(2025, 2, 28), DAY, null);
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertNotNull(zip.getEntry("asset-20250228-20250301.json"));
+            try (InputStream in = zip.getInputStream(zip.getEntry("manifest-20250228-20250301.txt"))) {
+                assertEquals("asset|20250228-20250301|2|json\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            FileUtils.deleteQuietly(zipFile.getParentFile());
+        }
+    }
+
+    @Test
+    void testPackageRangeInRequestedFormat() throws Exception {
+        merge(writeSnapshot("s1", "(1, 'a', DATE '2025-02-28'), (2, 'b', DATE '2025-03-01')"), DAY);
+
+        File zipFile = incrementalService.packageRange(DAY, DAY, OutputFormat.NDJSON_GZIP);
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertNotNull(zip.getEntry("asset-20250301-20250301.ndjson.gz"));
+            try (InputStream in = zip.getInputStream(zip.getEntry("manifest-20250301-20250301.txt"))) {
+                assertEquals("asset|20250301-20250301|1|ndjson-gzip\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            FileUtils.deleteQuietly(zipFile.getParentFile());
+        }
+    }
+
+    private IncrementalService.MergeResult merge(String parquetPath, LocalDate snapshotDate) throws SQLException {
+        return incrementalService.merge(connection, "asset", "edited_date", Collections.singletonList(parquetPath),
+                new JobContext(snapshotDate));
+    }
+
+    private String writeSnapshot(String name, String rows) throws SQLException, IOException {
+        Path parquet = workDir.resolve(name + ".parquet");
+        execute("COPY (SELECT * FROM (VALUES " + rows + ") t(id, name, edited_date)) TO '" + parquet + "' (FORMAT PARQUET)");
+        return parquet.toString();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
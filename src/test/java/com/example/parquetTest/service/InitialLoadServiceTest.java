@@ -0,0 +1,177 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.PipelineConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InitialLoadServiceTest {
+
+    private final InitialLoadService initialLoadService = new InitialLoadService();
+
+    private final FolderSchemaCache folderSchemaCache = new FolderSchemaCache();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private DuckDBService duckDBService;
+
+    private Connection connection;
+
+    private Path scratchDir;
+
+    private LocalDate snapshotDate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        duckDBService = DuckDBTestSupport.inMemoryService(4);
+        connection = duckDBService.getConnection();
+        FolderScheduler folderScheduler = new FolderScheduler();
+        ReflectionTestUtils.setField(folderScheduler, "folderExecutor", PipelineConfig.newFixedPool("test-folder-", 2));
+        ReflectionTestUtils.setField(folderScheduler, "duckDBService", duckDBService);
+        ReflectionTestUtils.setField(folderScheduler, "resourceGovernor", DuckDBTestSupport.governor(DuckDBTestSupport.inMemoryConfig(4)));
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(meterRegistry);
+        ReflectionTestUtils.setField(folderSchemaCache, "pipelineMetrics", pipelineMetrics);
+        ReflectionTestUtils.setField(initialLoadService, "folderScheduler", folderScheduler);
+        ReflectionTestUtils.setField(initialLoadService, "pipelineMetrics", pipelineMetrics);
+        ReflectionTestUtils.setField(initialLoadService, "outputConfig", DuckDBTestSupport.outputConfig("json", ""));
+        ReflectionTestUtils.setField(initialLoadService, "parquetFooterIndex", new ParquetFooterIndex());
+        ReflectionTestUtils.setField(initialLoadService, "folderSchemaCache", folderSchemaCache);
+        ReflectionTestUtils.setField(initialLoadService, "projectionConfig", DuckDBTestSupport.projectionConfig("", "", "", ""));
+        scratchDir = Files.createTempDirectory("initial_load_test");
+        snapshotDate = LocalDate.now().minusDays(4);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+        duckDBService.close();
+        FileUtils.deleteQuietly(scratchDir.toFile());
+        FileUtils.deleteQuietly(new File("Json_InitialLoad"));
+    }
+
+    @Test
+    void testFilterParquetFilesExportsEveryRowInOneScan() throws Exception {
+        // More files than the old UNION ALL path took, so one plan covers every folder size
+        List<ExtractionService.ExtractedFile> assetFiles = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            assetFiles.add(createParquetFile("asset", "part-" + i + ".parquet", "range AS id, 'a' AS name", 5));
+        }
+        Map<String, List<ExtractionService.ExtractedFile>> files = new HashMap<>();
+        files.put("asset", assetFiles);
+        files.put("view_events", Collections.singletonList(
+                createParquetFile("view_events", "part-1.parquet", "range AS id", 3)));
+
+        List<File> outputFiles = Collections.synchronizedList(new ArrayList<>());
+        Map<String, ProcessInitialLoadService.FilterResult> result =
+                initialLoadService.filterParquetFiles(files, new JobContext(snapshotDate), outputFiles::add);
+
+        assertEquals(60, result.get("asset").totalFilteredRows);
+        assertEquals(3, result.get("view_events").totalFilteredRows);
+        assertEquals(2, outputFiles.size());
+        JsonNode assetRows = new ObjectMapper().readTree(outputFile("asset"));
+        assertTrue(assetRows.isArray());
+        assertEquals(60, assetRows.size());
+        assertTrue(folderSchemaCache.getSchema("asset").containsKey("name"));
+    }
+
+    @Test
+    void testFilterParquetFilesUnionsDriftingSchemasByName() throws Exception {
+        Map<String, List<ExtractionService.ExtractedFile>> files = new HashMap<>();
+        files.put("asset", Arrays.asList(
+                createParquetFile("asset", "part-1.parquet", "range AS id, 'a' AS name", 2),
+                // Columns in another order, one of them new
+                createParquetFile("asset", "part-2.parquet", "'b' AS name, range AS id, 'red' AS color", 3)));
+
+        Map<String, ProcessInitialLoadService.FilterResult> result =
+                initialLoadService.filterParquetFiles(files, new JobContext(snapshotDate), file -> { });
+
+        assertEquals(5, result.get("asset").totalFilteredRows);
+        int withoutColor = 0;
+        for (JsonNode row : new ObjectMapper().readTree(outputFile("asset"))) {
+            assertTrue(row.has("id") && row.has("name"));
+            if (row.get("color").isNull()) {
+                assertEquals("a", row.get("name").asText());
+                withoutColor++;
+            }
+        }
+        assertEquals(2, withoutColor);
+        assertEquals(1, meterRegistry.get("pipeline.folder.schema.drift").tag("folder", "asset").counter().count());
+    }
+
+    @Test
+    void testFilterParquetFilesAppliesFolderProjection() throws Exception {
+        ReflectionTestUtils.setField(initialLoadService, "projectionConfig",
+                DuckDBTestSupport.projectionConfig("", "asset.color", "", "asset.id=VARCHAR"));
+        Map<String, List<ExtractionService.ExtractedFile>> files = new HashMap<>();
+        files.put("asset", Collections.singletonList(
+                createParquetFile("asset", "part-1.parquet", "range AS id, 'a' AS name, 'red' AS color", 2)));
+
+        Map<String, ProcessInitialLoadService.FilterResult> result =
+                initialLoadService.filterParquetFiles(files, new JobContext(snapshotDate), file -> { });
+
+        assertEquals(2, result.get("asset").totalFilteredRows);
+        JsonNode row = new ObjectMapper().readTree(outputFile("asset")).get(0);
+        assertFalse(row.has("color"));
+        assertEquals("a", row.get("name").asText());
+        assertTrue(row.get("id").isTextual());
+    }
+
+    @Test
+    void testSchemaCacheReportsChangesSinceLastSnapshot() throws Exception {
+        List<String> first = Collections.singletonList(
+                createParquetFile("asset", "day-1.parquet", "range AS id, 'a' AS name", 1).path.toString());
+        List<String> second = Collections.singletonList(
+                createParquetFile("asset", "day-2.parquet", "range::VARCHAR AS id, 'red' AS color", 1).path.toString());
+
+        assertTrue(folderSchemaCache.check(connection, JobService.INITIAL_LOAD, "asset", first).isEmpty());
+        assertEquals(Arrays.asList("column color added as VARCHAR", "column id changed from BIGINT to VARCHAR",
+                "column name removed"), folderSchemaCache.check(connection, JobService.INITIAL_LOAD, "asset", second));
+        assertTrue(folderSchemaCache.check(connection, JobService.INITIAL_LOAD, "asset", second).isEmpty());
+    }
+
+    @Test
+    void testFilterParquetFilesSkipsUnreadableFolder() throws Exception {
+        Path brokenFile = Files.createDirectories(scratchDir.resolve("broken")).resolve("part-1.parquet");
+        Files.writeString(brokenFile, "not a parquet file");
+        Map<String, List<ExtractionService.ExtractedFile>> files = new HashMap<>();
+        files.put("broken", Collections.singletonList(new ExtractionService.ExtractedFile(brokenFile, "broken", 18, 0L)));
+        files.put("asset", Collections.singletonList(createParquetFile("asset", "part-1.parquet", "range AS id", 2)));
+
+        Map<String, ProcessInitialLoadService.FilterResult> result =
+                initialLoadService.filterParquetFiles(files, new JobContext(snapshotDate), file -> { });
+
+        assertEquals(Collections.singleton("asset"), result.keySet());
+        assertFalse(outputFile("broken").exists());
+    }
+
+    private File outputFile(String folder) {
+        return new File("Json_InitialLoad", folder + "-" + snapshotDate.format(DateTimeFormatter.ofPattern("yyyyMMdd")) + ".json");
+    }
+
+    private ExtractionService.ExtractedFile createParquetFile(String folder, String fileName, String columns,
+                                                              int rows) throws SQLException, IOException {
+        Path parquetFile = Files.createDirectories(scratchDir.resolve(folder)).resolve(fileName);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(String.format("COPY (SELECT %s FROM range(%d)) TO '%s' (FORMAT PARQUET)", columns, rows, parquetFile));
+        }
+        return new ExtractionService.ExtractedFile(parquetFile, folder, Files.size(parquetFile), 0L);
+    }
+}
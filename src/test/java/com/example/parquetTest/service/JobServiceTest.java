@@ -0,0 +1,341 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.InsightsAppConfig;
+import com.example.parquetTest.config.PipelineConfig;
+import com.example.parquetTest.config.ScheduleConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class JobServiceTest {
+
+    @Mock
+    private ProcessService processService;
+
+    @Mock
+    private ProcessInitialLoadService processInitialLoadService;
+
+    @Mock
+    private InsightsAppConfig insightsAppConfig;
+
+    @Mock
+    private PipelineConfig pipelineConfig;
+
+    @Mock
+    private ScheduleConfig scheduleConfig;
+
+    @InjectMocks
+    private JobService jobService;
+
+    private ThreadPoolExecutor jobExecutor;
+
+    private ThreadPoolExecutor rangeExecutor;
+
+    @BeforeEach
+    void setUp() {
+        jobExecutor = PipelineConfig.newFixedPool("test-job-", 2);
+        rangeExecutor = PipelineConfig.newFixedPool("test-range-", 3);
+        ReflectionTestUtils.setField(jobService, "jobExecutor", jobExecutor);
+        ReflectionTestUtils.setField(jobService, "rangeExecutor", rangeExecutor);
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("app.sources.names", "eu")
+                .withProperty("app.sources.eu.url", "http://eu.example.com/download?snapshotDate=")
+                .withProperty("app.sources.eu.username", "eu")
+                .withProperty("app.sources.eu.password", "secret")
+                .withProperty("app.sources.eu.max-concurrent-jobs", "1");
+        ReflectionTestUtils.setField(jobService, "sourceConfig", DuckDBTestSupport.sourceConfig(new AppConfig(), environment));
+        lenient().when(insightsAppConfig.getDateOffset()).thenReturn(4);
+        lenient().when(pipelineConfig.getJobParallelism()).thenReturn(2);
+        lenient().when(pipelineConfig.getJobQueueCapacity()).thenReturn(16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobExecutor.shutdownNow();
+        rangeExecutor.shutdownNow();
+    }
+
+    @Test
+    void testSubmitRunsJobForDefaultDate() throws Exception {
+        JobService.Job job = jobService.submit(JobService.PROCESS, null);
+        job.getCompletion().get(10, TimeUnit.SECONDS);
+
+        assertEquals(JobService.Status.SUCCEEDED, job.getStatus());
+        assertEquals(LocalDate.now().minusDays(4), job.getSnapshotDate());
+        assertNotNull(job.getStartedAt());
+        assertNotNull(job.getFinishedAt());
+        verify(processService, times(1)).process(any(JobContext.class));
+        verifyNoInteractions(processInitialLoadService);
+        assertSame(job, jobService.getJob(job.getId()).orElseThrow());
+    }
+
+    @Test
+    void testSubmitCoalescesSameTypeAndDate() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(processService).process(any(JobContext.class));
+        LocalDate date = LocalDate.of(2025, 3, 1);
+
+        JobService.Job first = jobService.submit(JobService.PROCESS, date);
+        JobService.Job second = jobService.submit(JobService.PROCESS, date);
+        JobService.Job otherDay = jobService.submit(JobService.PROCESS, date.plusDays(1));
+        JobService.Job otherFormat = jobService.submit(JobService.PROCESS, date, OutputFormat.PARQUET);
+        release.countDown();
+        first.getCompletion().get(10, TimeUnit.SECONDS);
+        otherDay.getCompletion().get(10, TimeUnit.SECONDS);
+        otherFormat.getCompletion().get(10, TimeUnit.SECONDS);
+
+        assertSame(first, second);
+        assertEquals(1, first.getAttachedRequests());
+        assertNotEquals(first.getId(), otherDay.getId());
+        assertNotEquals(first.getId(), otherFormat.getId());
+        assertEquals(OutputFormat.PARQUET, otherFormat.getOutputFormat());
+        verify(processService, times(3)).process(any(JobContext.class));
+
+        // Once finished, the same date runs again
+        JobService.Job rerun = jobService.submit(JobService.PROCESS, date);
+        assertNotEquals(first.getId(), rerun.getId());
+        rerun.getCompletion().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testRangeRunsDaysConcurrently() throws Exception {
+        // Every day waits for the other two, so the range only completes if they run side by side
+        CountDownLatch allDaysStarted = new CountDownLatch(3);
+        doAnswer(invocation -> {
+            allDaysStarted.countDown();
+            assertTrue(allDaysStarted.await(10, TimeUnit.SECONDS));
+            return null;
+        }).when(processService).processDay(any(JobContext.class));
+
+        JobService.Job job = jobService.submitRange(JobService.PROCESS, LocalDate.of(2025, 3, 1), LocalDate.of(2025, 3, 3), null);
+        job.getCompletion().get(10, TimeUnit.SECONDS);
+
+        assertEquals(JobService.Status.SUCCEEDED, job.getStatus());
+        assertEquals(LocalDate.of(2025, 3, 1), job.getFrom());
+        assertEquals(LocalDate.of(2025, 3, 3), job.getSnapshotDate());
+        assertEquals(3, job.getDays().size());
+        assertEquals(LocalDate.of(2025, 3, 2), job.getDays().get(1).getSnapshotDate());
+        verify(processService, times(3)).processDay(any(JobContext.class));
+        verify(processService, never()).process(any(JobContext.class));
+    }
+
+    @Test
+    void testRangeReportsFailedDays() throws Exception {
+        doAnswer(invocation -> {
+            JobContext day = invocation.getArgument(0);
+            if (day.getSnapshotDate().equals(LocalDate.of(2025, 3, 2))) {
+                throw new IOException("snapshot missing");
+            }
+            return null;
+        }).when(processInitialLoadService).processDay(any(JobContext.class));
+
+        JobService.Job job = jobService.submitRange(JobService.INITIAL_LOAD, LocalDate.of(2025, 3, 1), LocalDate.of(2025, 3, 3), null);
+        job.getCompletion().get(10, TimeUnit.SECONDS);
+
+        // The other days still ran
+        assertEquals(JobService.Status.FAILED, job.getStatus());
+        assertEquals("1 of 3 days failed: 2025-03-02: snapshot missing", job.getError());
+        verify(processInitialLoadService, times(3)).processDay(any(JobContext.class));
+    }
+
+    @Test
+    void testSubmitRangeRejectsReversedRange() {
+        assertThrows(IllegalArgumentException.class,
+                () -> jobService.submitRange(JobService.PROCESS, LocalDate.of(2025, 3, 2), LocalDate.of(2025, 3, 1), null));
+    }
+
+    @Test
+    void testQueuedJobsOfOnePipelineDoNotStarveTheOther() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        // Lenient: the blocked job may still be inside the stub when the test ends
+        lenient().doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(processService).process(any(JobContext.class));
+
+        try {
+            JobService.Job running = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 1));
+            JobService.Job waiting = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 2));
+            JobService.Job initialLoad = jobService.submit(JobService.INITIAL_LOAD, LocalDate.of(2025, 3, 1));
+
+            // The waiting process job holds no executor thread, so the initial load gets one
+            initialLoad.getCompletion().get(10, TimeUnit.SECONDS);
+            assertEquals(JobService.Status.SUCCEEDED, initialLoad.getStatus());
+            assertEquals(JobService.Status.QUEUED, waiting.getStatus());
+            assertEquals(JobService.Status.RUNNING, running.getStatus());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testSourceRunsWithinItsJobLimit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        lenient().doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(processService).process(any(JobContext.class));
+
+        try {
+            JobService.Job euProcess = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 1), null, "eu");
+            JobService.Job euInitialLoad = jobService.submit(JobService.INITIAL_LOAD, LocalDate.of(2025, 3, 1), null, "eu");
+            JobService.Job initialLoad = jobService.submit(JobService.INITIAL_LOAD, LocalDate.of(2025, 3, 1));
+
+            // eu runs one job at a time, the default source takes the free thread
+            initialLoad.getCompletion().get(10, TimeUnit.SECONDS);
+            assertEquals(JobService.Status.RUNNING, euProcess.getStatus());
+            assertEquals(JobService.Status.QUEUED, euInitialLoad.getStatus());
+            assertEquals("eu", euInitialLoad.getSource());
+            assertEquals(Source.DEFAULT, initialLoad.getSource());
+
+            release.countDown();
+            euInitialLoad.getCompletion().get(10, TimeUnit.SECONDS);
+            assertEquals(JobService.Status.SUCCEEDED, euInitialLoad.getStatus());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testSourcesTakeTurnsOnTheExecutor() throws Exception {
+        jobExecutor.setCorePoolSize(1);
+        jobExecutor.setMaximumPoolSize(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            JobContext ctx = invocation.getArgument(0);
+            order.add(JobService.PROCESS + ":" + ctx.getSourceName());
+            release.await();
+            return null;
+        }).when(processService).process(any(JobContext.class));
+        doAnswer(invocation -> {
+            JobContext ctx = invocation.getArgument(0);
+            order.add(JobService.INITIAL_LOAD + ":" + ctx.getSourceName());
+            return null;
+        }).when(processInitialLoadService).process(any(JobContext.class));
+
+        JobService.Job running = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 1));
+        JobService.Job initialLoad = jobService.submit(JobService.INITIAL_LOAD, LocalDate.of(2025, 3, 1));
+        JobService.Job eu = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 1), null, "eu");
+        release.countDown();
+        running.getCompletion().get(10, TimeUnit.SECONDS);
+        initialLoad.getCompletion().get(10, TimeUnit.SECONDS);
+        eu.getCompletion().get(10, TimeUnit.SECONDS);
+
+        // The default source was served last, so eu goes before its next job although submitted after it
+        assertEquals(List.of("process:default", "process:eu", "initialLoad:default"), order);
+    }
+
+    @Test
+    void testSubmitServesBuiltDayWithoutRunning() throws Exception {
+        when(scheduleConfig.isServeBuiltOutputs()).thenReturn(true);
+        when(processService.publishDay(any(JobContext.class))).thenReturn(true);
+
+        JobService.Job job = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 1), null, "eu");
+
+        assertEquals(JobService.Status.SUCCEEDED, job.getStatus());
+        assertEquals("eu", job.getSource());
+        assertSame(job, jobService.getJob(job.getId()).orElseThrow());
+        verify(processService, never()).process(any(JobContext.class));
+
+        // A format of its own, or a day never built, still runs the pipeline
+        JobService.Job parquet = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 1), OutputFormat.PARQUET, "eu");
+        parquet.getCompletion().get(10, TimeUnit.SECONDS);
+        verify(processService, times(1)).process(any(JobContext.class));
+    }
+
+    @Test
+    void testSubmitRejectsUnknownSource() {
+        assertThrows(IllegalArgumentException.class, () -> jobService.submit(JobService.PROCESS, null, null, "unknown"));
+    }
+
+    @Test
+    void testCancelQueuedJobReleasesPipeline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(processService).process(any(JobContext.class));
+
+        JobService.Job running = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 1));
+        JobService.Job cancelled = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 2));
+        JobService.Job next = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 3));
+        jobService.cancel(cancelled.getId());
+        assertEquals(JobService.Status.CANCELLED, cancelled.getStatus());
+
+        release.countDown();
+        running.getCompletion().get(10, TimeUnit.SECONDS);
+        next.getCompletion().get(10, TimeUnit.SECONDS);
+        assertEquals(JobService.Status.SUCCEEDED, next.getStatus());
+        verify(processService, times(2)).process(any(JobContext.class));
+    }
+
+    @Test
+    void testCancelInterruptsRunningDuckDBStatement() throws Exception {
+        DuckDBService duckDBService = DuckDBTestSupport.inMemoryService(1);
+        CountDownLatch started = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            JobContext ctx = invocation.getArgument(0);
+            try (Connection conn = duckDBService.getConnection();
+                 Statement stmt = conn.createStatement();
+                 JobContext.TrackedStatement tracked = ctx.track(stmt)) {
+                started.countDown();
+                stmt.executeQuery("SELECT sum(a.range * b.range) FROM range(200000) a, range(200000) b");
+            }
+            return null;
+        }).when(processInitialLoadService).process(any(JobContext.class));
+
+        try {
+            JobService.Job job = jobService.submit(JobService.INITIAL_LOAD, LocalDate.of(2025, 3, 1));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            jobService.cancel(job.getId());
+            job.getCompletion().get(10, TimeUnit.SECONDS);
+
+            assertEquals(JobService.Status.CANCELLED, job.getStatus());
+        } finally {
+            duckDBService.close();
+        }
+    }
+
+    @Test
+    void testFailedJobReportsError() throws Exception {
+        doThrow(new SQLException("Interrupted")).when(processService).process(any(JobContext.class));
+        JobService.Job job = jobService.submit(JobService.PROCESS, LocalDate.of(2025, 3, 2));
+        job.getCompletion().get(10, TimeUnit.SECONDS);
+
+        assertEquals(JobService.Status.FAILED, job.getStatus());
+        assertEquals("Interrupted", job.getError());
+    }
+
+    @Test
+    void testSubmitRejectsUnknownType() {
+        assertThrows(IllegalArgumentException.class, () -> jobService.submit("unknown", null));
+    }
+}
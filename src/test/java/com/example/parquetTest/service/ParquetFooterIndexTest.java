@@ -0,0 +1,116 @@
+package com.example.parquetTest.service;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParquetFooterIndexTest {
+
+    private final ParquetFooterIndex parquetFooterIndex = new ParquetFooterIndex();
+
+    private final LocalDateTime from = LocalDate.of(2025, 3, 1).atStartOfDay();
+
+    private final LocalDateTime to = from.plusDays(1);
+
+    private Connection connection;
+
+    private Path workDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:duckdb:");
+        workDir = Files.createTempDirectory("footer_test");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+        FileUtils.deleteQuietly(workDir.toFile());
+    }
+
+    @Test
+    void testReadsRowCountsAndTimestampBoundsPerRowGroup() throws Exception {
+        Path file = write("ts.parquet", "SELECT range AS id, TIMESTAMP '2025-02-27 08:00:00' + INTERVAL (range) DAY AS edited_date " +
+                "FROM range(4) UNION ALL SELECT range AS id, NULL::TIMESTAMP AS edited_date FROM range(3)");
+
+        ParquetFooterIndex.FileFooter footer = parquetFooterIndex.read(file, "edited_date");
+
+        assertEquals(7, footer.rowCount);
+        assertEquals(2, footer.rowGroups.size());
+        assertEquals(LocalDateTime.of(2025, 2, 27, 8, 0), footer.rowGroups.get(0).min);
+        assertEquals(LocalDateTime.of(2025, 3, 2, 8, 0), footer.rowGroups.get(0).max);
+        assertTrue(footer.rowGroups.get(0).mayContain(from, to));
+        assertTrue(footer.rowGroups.get(1).allNull);
+        assertFalse(footer.rowGroups.get(1).mayContain(from, to));
+    }
+
+    @Test
+    void testBoundsOfDatesAndInstants() throws Exception {
+        Path dates = write("date.parquet", "SELECT DATE '2025-03-02' AS edited_date");
+        Path instants = write("tz.parquet", "SELECT TIMESTAMPTZ '2025-03-02 00:30:00+00' AS edited_date");
+
+        assertFalse(parquetFooterIndex.read(dates, "edited_date").rowGroups.get(0).mayContain(from, to));
+        // An instant just after the day in UTC may still be on the day in the session's time zone
+        assertTrue(parquetFooterIndex.read(instants, "edited_date").rowGroups.get(0).mayContain(from, to));
+    }
+
+    @Test
+    void testColumnsWithoutUsableStatisticsAreKept() throws Exception {
+        Path text = write("text.parquet", "SELECT '2025-01-01' AS edited_date");
+        Path missing = write("missing.parquet", "SELECT 1 AS id");
+
+        assertTrue(parquetFooterIndex.read(text, "edited_date").rowGroups.get(0).mayContain(from, to));
+        assertTrue(parquetFooterIndex.read(missing, "edited_date").rowGroups.get(0).mayContain(from, to));
+    }
+
+    @Test
+    void testPruneKeepsMatchingFilesAndOneFileWhenNoneMatch() throws Exception {
+        ExtractionService.ExtractedFile on = extracted(write("on.parquet", "SELECT TIMESTAMP '2025-03-01 10:00:00' AS edited_date FROM range(3)"));
+        ExtractionService.ExtractedFile before = extracted(write("before.parquet", "SELECT TIMESTAMP '2025-02-20 10:00:00' AS edited_date FROM range(5)"));
+
+        ParquetFooterIndex.Pruned pruned = parquetFooterIndex.prune(Arrays.asList(on, before), "edited_date", from, to);
+        assertEquals(Collections.singletonList(on), pruned.files);
+        assertEquals(8, pruned.totalRows);
+        assertEquals(3, pruned.candidateRows);
+        assertEquals(1, pruned.skippedFiles);
+
+        pruned = parquetFooterIndex.prune(Collections.singletonList(before), "edited_date", from, to);
+        assertEquals(Collections.singletonList(before), pruned.files);
+        assertEquals(0, pruned.candidateRows);
+        assertEquals(0, pruned.skippedFiles);
+        assertEquals(8, parquetFooterIndex.countRows(Arrays.asList(on, before)));
+    }
+
+    @Test
+    void testRejectsFilesWithoutFooter() throws Exception {
+        Path broken = Files.writeString(workDir.resolve("broken.parquet"), "not a parquet file");
+        assertThrows(IOException.class, () -> parquetFooterIndex.read(broken, "edited_date"));
+    }
+
+    private Path write(String name, String query) throws SQLException {
+        Path file = workDir.resolve(name);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("COPY (" + query + ") TO '" + file + "' (FORMAT PARQUET)");
+        }
+        return file;
+    }
+
+    private static ExtractionService.ExtractedFile extracted(Path file) throws IOException {
+        return new ExtractionService.ExtractedFile(file, "asset", Files.size(file), 0L);
+    }
+}
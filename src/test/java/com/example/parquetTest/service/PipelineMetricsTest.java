@@ -0,0 +1,77 @@
+package com.example.parquetTest.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private PipelineMetrics pipelineMetrics;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        pipelineMetrics = new PipelineMetrics(registry);
+    }
+
+    @Test
+    void testRunRecordsStagesDownloadBytesAndHeapPeak() throws Exception {
+        JobContext ctx = new JobContext(LocalDate.of(2025, 3, 1));
+        ctx.stage(JobContext.DOWNLOAD).addBytes(1024);
+
+        try (PipelineMetrics.Run run = pipelineMetrics.startRun(JobService.PROCESS, ctx)) {
+            assertEquals("ok", run.time(JobContext.DOWNLOAD, () -> "ok"));
+            assertThrows(IOException.class, () -> run.time(JobContext.EXTRACT, () -> {
+                throw new IOException("corrupt zip");
+            }));
+        }
+
+        assertEquals(1, registry.get("pipeline.stage.duration").tags("stage", "download", "outcome", "success").timer().count());
+        assertEquals(1, registry.get("pipeline.stage.duration").tags("stage", "extract", "outcome", "failure").timer().count());
+        assertEquals(1, registry.get("pipeline.run.duration").tags("pipeline", "process", "outcome", "failure").timer().count());
+        assertEquals(1024, registry.get("pipeline.download.bytes").counter().count());
+        assertTrue(registry.get("pipeline.heap.peak").summary().max() > 0);
+    }
+
+    @Test
+    void testCancelledRunIsTaggedCancelled() {
+        JobContext ctx = new JobContext(LocalDate.of(2025, 3, 1));
+        try (PipelineMetrics.Run run = pipelineMetrics.startRun(JobService.INITIAL_LOAD, ctx)) {
+            assertThrows(CancellationException.class, () -> run.time(JobContext.FILTER, () -> {
+                ctx.cancel();
+                ctx.checkCancelled();
+                return null;
+            }));
+        }
+
+        assertEquals(1, registry.get("pipeline.stage.duration").tags("stage", "filter", "outcome", "cancelled").timer().count());
+        assertEquals(1, registry.get("pipeline.run.duration").tags("pipeline", "initialLoad", "outcome", "cancelled").timer().count());
+    }
+
+    @Test
+    void testRecordFolder() {
+        pipelineMetrics.recordFolder(JobService.PROCESS, "asset", 3, 4096, 1000, 40, TimeUnit.MILLISECONDS.toNanos(500));
+
+        assertEquals(3, registry.get("pipeline.folder.files").tag("folder", "asset").counter().count());
+        assertEquals(4096, registry.get("pipeline.folder.bytes.scanned").tag("folder", "asset").counter().count());
+        assertEquals(1000, registry.get("pipeline.folder.rows.scanned").tag("folder", "asset").counter().count());
+        assertEquals(40, registry.get("pipeline.folder.rows.emitted").tag("folder", "asset").counter().count());
+        assertEquals(2000, registry.get("pipeline.folder.rows.per.second").tag("folder", "asset").summary().max(), 0.001);
+    }
+
+    @Test
+    void testScratchBytesGauge() {
+        pipelineMetrics.addScratchBytes(500);
+        pipelineMetrics.addScratchBytes(-200);
+
+        assertEquals(300, registry.get("pipeline.scratch.bytes").gauge().value());
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.InsightsAppConfig;
+import com.example.parquetTest.config.ScheduleConfig;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PipelineSchedulerTest {
+
+    @Mock
+    private ScheduleConfig scheduleConfig;
+
+    @Mock
+    private InsightsAppConfig insightsAppConfig;
+
+    @Mock
+    private JobService jobService;
+
+    @InjectMocks
+    private PipelineScheduler pipelineScheduler;
+
+    private Path euOutputDir;
+    private final List<JobService.Job> submitted = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        euOutputDir = Files.createTempDirectory("eu_outputs");
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("app.sources.names", "eu")
+                .withProperty("app.sources.eu.url", "http://eu.example.com/download?snapshotDate=")
+                .withProperty("app.sources.eu.username", "eu")
+                .withProperty("app.sources.eu.password", "secret")
+                .withProperty("app.sources.eu.output-dir", euOutputDir.toString());
+        ReflectionTestUtils.setField(pipelineScheduler, "sourceConfig", DuckDBTestSupport.sourceConfig(new AppConfig(), environment));
+        lenient().when(scheduleConfig.getZone()).thenReturn(ZoneOffset.UTC);
+        lenient().when(scheduleConfig.getCatchUpDays()).thenReturn(3);
+        lenient().when(scheduleConfig.getMaxConcurrentRuns()).thenReturn(1);
+        lenient().when(insightsAppConfig.getDateOffset()).thenReturn(0);
+        lenient().when(jobService.submitRange(anyString(), any(LocalDate.class), any(LocalDate.class), any(), anyString()))
+                .thenAnswer(invocation -> {
+                    LocalDate date = invocation.getArgument(1);
+                    JobService.Job job = new JobService.Job("job-" + submitted.size(), invocation.getArgument(0), date,
+                            new JobContext(date));
+                    submitted.add(job);
+                    return job;
+                });
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtils.deleteQuietly(euOutputDir.toFile());
+    }
+
+    @Test
+    void testCatchUpBuildsMissingDaysWithinTheRunLimit() throws IOException {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        Files.writeString(euOutputDir.resolve(ProcessService.dayZipName(today.minusDays(1))), "built");
+        Files.createFile(euOutputDir.resolve(ProcessService.dayCompleteName(today.minusDays(1))));
+        // A folder of this day failed, its ZIP has no complete marker
+        Files.writeString(euOutputDir.resolve(ProcessService.dayZipName(today)), "partial");
+
+        // Three days of the default source and the two eu has not built, one run at a time
+        assertEquals(5, pipelineScheduler.catchUp(JobService.PROCESS));
+        assertEquals(1, submitted.size());
+        assertEquals(0, pipelineScheduler.catchUp(JobService.PROCESS));
+
+        for (int i = 0; i < 5; i++) {
+            JobService.Job job = submitted.get(i);
+            job.getCompletion().complete(job);
+        }
+        assertEquals(5, submitted.size());
+        verify(jobService).submitRange(JobService.PROCESS, today.minusDays(2), today.minusDays(2), null, Source.DEFAULT);
+        verify(jobService).submitRange(JobService.PROCESS, today.minusDays(2), today.minusDays(2), null, "eu");
+        verify(jobService, never()).submitRange(JobService.PROCESS, today.minusDays(1), today.minusDays(1), null, "eu");
+        verify(jobService).submitRange(JobService.PROCESS, today, today, null, "eu");
+        assertEquals(today.minusDays(2), submitted.get(0).getFrom());
+        assertEquals(today, submitted.get(4).getFrom());
+
+        // None of the runs left an output, so the next schedule tries the days again
+        assertEquals(5, pipelineScheduler.catchUp(JobService.PROCESS));
+    }
+
+    @Test
+    void testCatchUpRetriesDaysWhoseSubmitFailed() {
+        when(jobService.submitRange(anyString(), any(LocalDate.class), any(LocalDate.class), any(), anyString()))
+                .thenThrow(new IllegalStateException("boom"));
+
+        // Every day is tried and dropped, so the next schedule queues them all again
+        assertEquals(6, pipelineScheduler.catchUp(JobService.PROCESS));
+        verify(jobService, times(6)).submitRange(anyString(), any(LocalDate.class), any(LocalDate.class), any(), anyString());
+        assertEquals(6, pipelineScheduler.catchUp(JobService.PROCESS));
+    }
+
+    @Test
+    void testCatchUpOnStartupOnlyForScheduledPipelines() {
+        when(scheduleConfig.isCatchUpOnStartup()).thenReturn(true);
+        when(scheduleConfig.getProcessCron()).thenReturn("-");
+        when(scheduleConfig.getInitialLoadCron()).thenReturn("0 0 6 * * *");
+
+        pipelineScheduler.catchUpOnStartup();
+
+        verify(jobService, times(1)).submitRange(eq(JobService.INITIAL_LOAD), any(LocalDate.class), any(LocalDate.class), any(), anyString());
+        verify(jobService, never()).submitRange(eq(JobService.PROCESS), any(LocalDate.class), any(LocalDate.class), any(), anyString());
+    }
+}
@@ -1,23 +1,28 @@
 package com.example.parquetTest.service;
 
+import com.example.parquetTest.config.PipelineConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipFile;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,11 +37,26 @@ public class ProcessInitialLoadServiceTest {
     @Mock
     private InitialLoadService initialLoadService;
 
+    @Mock
+    private ZipPackager zipPackager;
+
+    @Mock
+    private SnapshotCache snapshotCache;
+
+    @Mock
+    private FolderScheduler.Session<ProcessInitialLoadService.FilterResult> filterSession;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private PipelineMetrics pipelineMetrics = new PipelineMetrics(meterRegistry);
+
     @InjectMocks
     private ProcessInitialLoadService processInitialLoadService;
 
     private File mockZipFile;
-    private Map<String, List<byte[]>> mockParquetFiles;
+    private Path mockScratchDir;
+    private Map<String, List<ExtractionService.ExtractedFile>> mockParquetFiles;
     private Map<String, ProcessInitialLoadService.FilterResult> mockFilteredResults;
     private String yesterdayDate;
 
@@ -48,8 +68,9 @@ public class ProcessInitialLoadServiceTest {
         yesterdayDate = LocalDate.now().minusDays(1).toString();
 
         mockParquetFiles = new HashMap<>();
-        mockParquetFiles.put("asset", Collections.singletonList(createMockParquetBytes("asset")));
-        mockParquetFiles.put("view_events", Collections.singletonList(createMockParquetBytes("view_events")));
+        mockScratchDir = Files.createTempDirectory("scratch_test");
+        mockParquetFiles.put("asset", Collections.singletonList(createMockParquetFile("asset")));
+        mockParquetFiles.put("view_events", Collections.singletonList(createMockParquetFile("view_events")));
 
         mockFilteredResults = new HashMap<>();
         mockFilteredResults.put("asset", createMockFilterResult("asset", 100));
@@ -58,15 +79,22 @@ public class ProcessInitialLoadServiceTest {
 
     @Test
     void testProcess() throws Exception {
-        when(downloadService.downloadZip()).thenReturn(mockZipFile);
-        when(extractionService.extractParquetFromZip(mockZipFile)).thenReturn(mockParquetFiles);
-        when(initialLoadService.filterParquetFiles(mockParquetFiles)).thenReturn(mockFilteredResults);
-
-        processInitialLoadService.process();
-
-        verify(downloadService, times(1)).downloadZip();
-        verify(extractionService, times(1)).extractParquetFromZip(mockZipFile);
-        verify(initialLoadService, times(1)).filterParquetFiles(mockParquetFiles);
+        JobContext ctx = new JobContext(LocalDate.parse(yesterdayDate));
+        when(downloadService.downloadZip(ctx)).thenReturn(mockZipFile);
+        when(extractionService.createScratchDirectory()).thenReturn(mockScratchDir);
+        when(extractionService.extractParquetToDirectory(eq(mockZipFile), eq(mockScratchDir), eq(ctx), any())).thenReturn(mockParquetFiles);
+        when(initialLoadService.startLoad(eq(ctx), any())).thenReturn(filterSession);
+        when(filterSession.finish()).thenReturn(mockFilteredResults);
+        when(zipPackager.open(any(), any())).thenAnswer(invocation -> new ZipPackager.Archive(invocation.getArgument(0),
+                invocation.getArgument(1), PipelineConfig.newFixedPool("test-zip-", 2), 6, Files.createTempDirectory("zip_test")));
+
+        processInitialLoadService.process(ctx);
+
+        verify(downloadService, times(1)).downloadZip(ctx);
+        verify(extractionService, times(1)).extractParquetToDirectory(eq(mockZipFile), eq(mockScratchDir), eq(ctx), any());
+        assertFalse(Files.exists(mockScratchDir), "Scratch directory should be removed after filtering");
+        verify(filterSession, times(1)).finish();
+        verify(filterSession, times(1)).close();
 
         File jsonDir = new File("Json_InitialLoad");
         assertTrue(jsonDir.exists(), "JSON directory should be created");
@@ -77,6 +105,17 @@ public class ProcessInitialLoadServiceTest {
 
         File zipFile = new File("Json_InitialLoad.zip");
         assertTrue(zipFile.exists(), "Zip file should be created");
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertNotNull(zip.getEntry(manifestFile.getName()), "Manifest should be packaged");
+        }
+        assertEquals("COMPLETED", ctx.stage(JobContext.PACKAGE).getStatus());
+        for (String stage : Arrays.asList(JobContext.DOWNLOAD, JobContext.EXTRACT, JobContext.FILTER, JobContext.PACKAGE)) {
+            assertEquals(1, meterRegistry.get("pipeline.stage.duration")
+                    .tags("pipeline", "initialLoad", "stage", stage, "outcome", "success").timer().count());
+        }
+        assertEquals(1, meterRegistry.get("pipeline.run.duration").tags("outcome", "success").timer().count());
+        assertEquals(2, meterRegistry.get("pipeline.extract.files").counter().count());
+        assertEquals(0, meterRegistry.get("pipeline.scratch.bytes").gauge().value());
 
         manifestFile.delete();
         jsonDir.delete();
@@ -88,7 +127,7 @@ public class ProcessInitialLoadServiceTest {
         File jsonDir = new File("Json_InitialLoad");
         jsonDir.mkdirs();
 
-        ReflectionTestUtils.invokeMethod(processInitialLoadService, "generateManifest", mockFilteredResults);
+        ReflectionTestUtils.invokeMethod(processInitialLoadService, "generateManifest", jsonDir, mockFilteredResults);
 
         String formattedDate = LocalDate.parse(yesterdayDate).format(DateTimeFormatter.ofPattern("yyyyMMdd"));
         File manifestFile = new File(jsonDir, "manifest-" + formattedDate + ".txt");
@@ -98,32 +137,10 @@ public class ProcessInitialLoadServiceTest {
         jsonDir.delete();
     }
 
-    @Test
-    void testZipJsonFilteredDirectory() throws Exception {
-        File jsonDir = new File("Json_InitialLoad");
-        jsonDir.mkdirs();
-        File testFile = new File(jsonDir, "test.txt");
-        testFile.createNewFile();
-
-        ReflectionTestUtils.invokeMethod(processInitialLoadService, "zipJsonFilteredDirectory");
-
-        File zipFile = new File("Json_InitialLoad.zip");
-        assertTrue(zipFile.exists(), "Zip file should be created");
-
-        testFile.delete();
-        jsonDir.delete();
-        zipFile.delete();
-    }
-
-    private byte[] createMockParquetBytes(String folderName) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ZipOutputStream zos = new ZipOutputStream(baos);
-        ZipEntry entry = new ZipEntry(folderName + "/test.parquet");
-        zos.putNextEntry(entry);
-        zos.write("Mock Parquet Data".getBytes());
-        zos.closeEntry();
-        zos.close();
-        return baos.toByteArray();
+    private ExtractionService.ExtractedFile createMockParquetFile(String folderName) throws IOException {
+        Path parquetFile = Files.createDirectories(mockScratchDir.resolve(folderName)).resolve("test.parquet");
+        Files.write(parquetFile, "Mock Parquet Data".getBytes());
+        return new ExtractionService.ExtractedFile(parquetFile, folderName, Files.size(parquetFile), 0L);
     }
 
     private ProcessInitialLoadService.FilterResult createMockFilterResult(String folderName, int recordCount) {
@@ -1,23 +1,29 @@
 package com.example.parquetTest.service;
 
+import com.example.parquetTest.config.PipelineConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipFile;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,11 +38,26 @@ public class ProcessServiceTest {
     @Mock
     private FilterService filterService;
 
+    @Mock
+    private ZipPackager zipPackager;
+
+    @Mock
+    private SnapshotCache snapshotCache;
+
+    @Mock
+    private FolderScheduler.Session<ProcessService.FilterResult> filterSession;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private PipelineMetrics pipelineMetrics = new PipelineMetrics(meterRegistry);
+
     @InjectMocks
     private ProcessService processService;
 
     private File mockZipFile;
-    private Map<String, List<byte[]>> mockParquetFiles;
+    private Path mockScratchDir;
+    private Map<String, List<ExtractionService.ExtractedFile>> mockParquetFiles;
     private Map<String, ProcessService.FilterResult> mockFilteredResults;
     private String yesterdayDate;
 
@@ -48,8 +69,9 @@ public class ProcessServiceTest {
         yesterdayDate = LocalDate.now().minusDays(1).toString();
 
         mockParquetFiles = new HashMap<>();
-        mockParquetFiles.put("asset", Collections.singletonList(createMockParquetBytes("asset")));
-        mockParquetFiles.put("view_events", Collections.singletonList(createMockParquetBytes("view_events")));
+        mockScratchDir = Files.createTempDirectory("scratch_test");
+        mockParquetFiles.put("asset", Collections.singletonList(createMockParquetFile("asset")));
+        mockParquetFiles.put("view_events", Collections.singletonList(createMockParquetFile("view_events")));
 
         mockFilteredResults = new HashMap<>();
         mockFilteredResults.put("asset", createMockFilterResult("asset", 10));
@@ -58,15 +80,22 @@ public class ProcessServiceTest {
 
     @Test
     void testProcess() throws Exception {
-        when(downloadService.downloadZip()).thenReturn(mockZipFile);
-        when(extractionService.extractParquetFromZip(mockZipFile)).thenReturn(mockParquetFiles);
-        when(filterService.filterParquetFiles(mockParquetFiles)).thenReturn(mockFilteredResults);
-
-        processService.process();
-
-        verify(downloadService, times(1)).downloadZip();
-        verify(extractionService, times(1)).extractParquetFromZip(mockZipFile);
-        verify(filterService, times(1)).filterParquetFiles(mockParquetFiles);
+        JobContext ctx = new JobContext(LocalDate.parse(yesterdayDate));
+        when(downloadService.downloadZip(ctx)).thenReturn(mockZipFile);
+        when(extractionService.createScratchDirectory()).thenReturn(mockScratchDir);
+        when(extractionService.extractParquetToDirectory(eq(mockZipFile), eq(mockScratchDir), eq(ctx), any())).thenReturn(mockParquetFiles);
+        when(filterService.startFilter(eq(ctx), any())).thenReturn(filterSession);
+        when(filterSession.finish()).thenReturn(mockFilteredResults);
+        when(zipPackager.open(any(), any())).thenAnswer(invocation -> new ZipPackager.Archive(invocation.getArgument(0),
+                invocation.getArgument(1), PipelineConfig.newFixedPool("test-zip-", 2), 6, Files.createTempDirectory("zip_test")));
+
+        processService.process(ctx);
+
+        verify(downloadService, times(1)).downloadZip(ctx);
+        verify(extractionService, times(1)).extractParquetToDirectory(eq(mockZipFile), eq(mockScratchDir), eq(ctx), any());
+        assertFalse(Files.exists(mockScratchDir), "Scratch directory should be removed after filtering");
+        verify(filterSession, times(1)).finish();
+        verify(filterSession, times(1)).close();
 
         File jsonDir = new File("Json_filtered");
         assertTrue(jsonDir.exists(), "JSON directory should be created");
@@ -77,6 +106,19 @@ public class ProcessServiceTest {
 
         File zipFile = new File("Json_filtered.zip");
         assertTrue(zipFile.exists(), "Zip file should be created");
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertNotNull(zip.getEntry(manifestFile.getName()), "Manifest should be packaged");
+        }
+        assertEquals("COMPLETED", ctx.stage(JobContext.PACKAGE).getStatus());
+        for (String stage : Arrays.asList(JobContext.DOWNLOAD, JobContext.EXTRACT, JobContext.FILTER, JobContext.PACKAGE)) {
+            assertEquals(1, meterRegistry.get("pipeline.stage.duration")
+                    .tags("pipeline", "process", "stage", stage, "outcome", "success").timer().count());
+        }
+        assertEquals(1, meterRegistry.get("pipeline.run.duration").tags("outcome", "success").timer().count());
+        assertEquals(2, meterRegistry.get("pipeline.extract.files").counter().count());
+        assertEquals(0, meterRegistry.get("pipeline.scratch.bytes").gauge().value());
+
+        verify(snapshotCache).store(isNull(), eq(zipFile), eq(manifestFile));
 
         manifestFile.delete();
         jsonDir.delete();
@@ -84,30 +126,27 @@ public class ProcessServiceTest {
     }
 
     @Test
-    void testSaveJsonOutput() throws Exception {
-        ReflectionTestUtils.invokeMethod(processService, "saveJsonOutput", mockFilteredResults);
-
-        File jsonDir = new File("Json_filtered");
-        assertTrue(jsonDir.exists(), "JSON directory should be created");
-
-        String formattedDate = LocalDate.parse(yesterdayDate).format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        File assetJsonFile = new File(jsonDir, "asset-" + formattedDate + ".json");
-        File viewEventsJsonFile = new File(jsonDir, "view_events-" + formattedDate + ".json");
-
-        assertTrue(assetJsonFile.exists(), "Asset JSON file should be created");
-        assertTrue(viewEventsJsonFile.exists(), "View events JSON file should be created");
-
-        assetJsonFile.delete();
-        viewEventsJsonFile.delete();
-        jsonDir.delete();
+    void testProcessRestoresCachedOutputOfSameSnapshot() throws Exception {
+        JobContext ctx = new JobContext(LocalDate.parse(yesterdayDate));
+        when(downloadService.downloadZip(ctx)).thenReturn(mockZipFile);
+        when(filterService.describeSettings(ctx)).thenReturn("output=json");
+        when(snapshotCache.outputKey(JobService.PROCESS, mockZipFile, "output=json")).thenReturn("key");
+        when(snapshotCache.restore(eq("key"), eq(new File("Json_filtered.zip")), eq(new File("Json_filtered")), eq(ctx)))
+                .thenReturn(true);
+
+        processService.process(ctx);
+
+        verifyNoInteractions(extractionService, zipPackager);
+        verify(filterService, never()).startFilter(any(), any());
+        assertEquals(1, meterRegistry.get("pipeline.run.duration").tags("outcome", "success").timer().count());
     }
 
     @Test
     void testGenerateManifest() throws Exception {
-        ReflectionTestUtils.invokeMethod(processService, "generateManifest", mockFilteredResults);
-
         File jsonDir = new File("Json_filtered");
-        assertTrue(jsonDir.exists(), "JSON directory should be created");
+        jsonDir.mkdirs();
+
+        ReflectionTestUtils.invokeMethod(processService, "generateManifest", jsonDir, mockFilteredResults);
 
         String formattedDate = LocalDate.parse(yesterdayDate).format(DateTimeFormatter.ofPattern("yyyyMMdd"));
         File manifestFile = new File(jsonDir, "manifest-" + formattedDate + ".txt");
@@ -117,32 +156,72 @@ public class ProcessServiceTest {
         jsonDir.delete();
     }
 
-    private byte[] createMockParquetBytes(String folderName) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ZipOutputStream zos = new ZipOutputStream(baos);
-        ZipEntry entry = new ZipEntry(folderName + "/test.parquet");
-        zos.putNextEntry(entry);
-        zos.write("Mock Parquet Data".getBytes());
-        zos.closeEntry();
-        zos.close();
-        return baos.toByteArray();
+    @Test
+    void testPublishDayCopiesTheBuiltZip() throws IOException {
+        Path outputDir = Files.createTempDirectory("outputs_test");
+        Source source = new Source("eu", "http://localhost/download?snapshotDate=", "user", "secret",
+                outputDir.toString(), outputDir.toString(), Collections.emptySet(), 0, 0, 0);
+        JobContext ctx = new JobContext(LocalDate.of(2025, 3, 1), null, source);
+        try {
+            assertFalse(processService.publishDay(ctx));
+
+            // A ZIP without its complete marker lacks folders and is not served
+            Files.writeString(outputDir.resolve("Json_filtered-20250301.zip"), "built");
+            assertFalse(processService.publishDay(ctx));
+
+            Files.createFile(outputDir.resolve("Json_filtered-20250301.zip.complete"));
+            assertTrue(processService.publishDay(ctx));
+            assertEquals("built", Files.readString(outputDir.resolve("Json_filtered.zip")));
+            try (var files = Files.list(outputDir)) {
+                assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+            }
+        } finally {
+            FileUtils.deleteQuietly(outputDir.toFile());
+        }
     }
 
-    private ProcessService.FilterResult createMockFilterResult(String folderName, int recordCount) {
-        ProcessService.FilterResult result = new ProcessService.FilterResult(folderName, yesterdayDate);
-
-        Map<String, Object> row1 = new HashMap<>();
-        row1.put("id", "1");
-        row1.put("name", "Test Name");
-        row1.put("value", 100);
+    @Test
+    void testProcessDayWithFailedFolderIsBuiltAgain() throws Exception {
+        Path outputDir = Files.createTempDirectory("outputs_test");
+        Source source = new Source("eu", "http://localhost/download?snapshotDate=", "user", "secret",
+                outputDir.toString(), outputDir.toString(), Collections.emptySet(), 0, 0, 0);
+        JobContext ctx = new JobContext(LocalDate.parse(yesterdayDate), null, source);
+        String dayZip = ProcessService.dayZipName(ctx.getSnapshotDate());
+        when(downloadService.downloadZip(ctx)).thenReturn(mockZipFile);
+        when(extractionService.createScratchDirectory()).thenAnswer(invocation -> Files.createTempDirectory("scratch_test"));
+        when(extractionService.extractParquetToDirectory(eq(mockZipFile), any(), eq(ctx), any())).thenReturn(mockParquetFiles);
+        when(filterService.startFilter(eq(ctx), any())).thenReturn(filterSession);
+        // view_events fails the first time and succeeds once the day runs again
+        Map<String, ProcessService.FilterResult> partialResults = new HashMap<>(mockFilteredResults);
+        partialResults.remove("view_events");
+        when(filterSession.finish()).thenReturn(partialResults, mockFilteredResults);
+        when(zipPackager.open(any(), any())).thenAnswer(invocation -> new ZipPackager.Archive(invocation.getArgument(0),
+                invocation.getArgument(1), PipelineConfig.newFixedPool("test-zip-", 2), 6, Files.createTempDirectory("zip_test")));
+        try {
+            processService.processDay(ctx);
+
+            assertTrue(Files.exists(outputDir.resolve(dayZip)), "The partial day is still written");
+            assertFalse(Files.exists(outputDir.resolve(ProcessService.dayCompleteName(ctx.getSnapshotDate()))));
+            assertFalse(processService.publishDay(ctx));
+            verify(snapshotCache, never()).store(any(), any(), any());
+
+            processService.processDay(ctx);
+
+            assertTrue(Files.exists(outputDir.resolve(ProcessService.dayCompleteName(ctx.getSnapshotDate()))));
+            assertTrue(processService.publishDay(ctx));
+        } finally {
+            FileUtils.deleteQuietly(outputDir.toFile());
+        }
+    }
 
-        Map<String, Object> row2 = new HashMap<>();
-        row2.put("id", "2");
-        row2.put("name", "Another Test");
-        row2.put("value", 200);
+    private ExtractionService.ExtractedFile createMockParquetFile(String folderName) throws IOException {
+        Path parquetFile = Files.createDirectories(mockScratchDir.resolve(folderName)).resolve("test.parquet");
+        Files.write(parquetFile, "Mock Parquet Data".getBytes());
+        return new ExtractionService.ExtractedFile(parquetFile, folderName, Files.size(parquetFile), 0L);
+    }
 
-        result.addData(row1);
-        result.addData(row2);
+    private ProcessService.FilterResult createMockFilterResult(String folderName, int recordCount) {
+        ProcessService.FilterResult result = new ProcessService.FilterResult(folderName, yesterdayDate);
         result.addFile("test.parquet", recordCount);
 
         return result;
@@ -0,0 +1,221 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.AppConfig;
+import com.example.parquetTest.config.QueryConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryServiceTest {
+
+    private static final LocalDate DATE = LocalDate.of(2025, 2, 28);
+
+    private final QueryService queryService = new QueryService();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private DuckDBService duckDBService;
+
+    private Path outputDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        duckDBService = DuckDBTestSupport.inMemoryService(2);
+        outputDir = Files.createTempDirectory("query_test");
+        AppConfig appConfig = new AppConfig();
+        ReflectionTestUtils.setField(appConfig, "jsonDir1", outputDir.resolve("Json_filtered").toString());
+        ReflectionTestUtils.setField(appConfig, "jsonDir2", outputDir.resolve("Json_InitialLoad").toString());
+        QueryConfig queryConfig = new QueryConfig();
+        ReflectionTestUtils.setField(queryConfig, "defaultLimit", 3);
+        ReflectionTestUtils.setField(queryConfig, "maxLimit", 10);
+        ReflectionTestUtils.setField(queryConfig, "arrowBatchRows", 4L);
+        ReflectionTestUtils.setField(queryService, "duckDBService", duckDBService);
+        ReflectionTestUtils.setField(queryService, "appConfig", appConfig);
+        ReflectionTestUtils.setField(queryService, "queryConfig", queryConfig);
+        ReflectionTestUtils.setField(queryService, "sourceConfig", DuckDBTestSupport.sourceConfig(appConfig, new MockEnvironment()));
+        ReflectionTestUtils.setField(queryService, "pipelineMetrics", new PipelineMetrics(meterRegistry));
+    }
+
+    @AfterEach
+    void tearDown() {
+        duckDBService.close();
+        FileUtils.deleteQuietly(outputDir.toFile());
+    }
+
+    @Test
+    void testQueryPagesThroughProjectedRowsByKey() throws Exception {
+        writeOutput("Json_filtered", "asset", OutputFormat.JSON);
+
+        List<JsonNode> firstPage = run(query(Arrays.asList("name"), null, null, null));
+        assertEquals(Arrays.asList("0", "1", "2"), ids(firstPage));
+        // The key is returned with the projected columns, nothing else is
+        assertEquals(new HashSet<>(Arrays.asList("id", "name")), fieldNames(firstPage.get(0)));
+        assertEquals("asset-0", firstPage.get(0).get("name").asText());
+
+        List<JsonNode> secondPage = run(query(Arrays.asList("name"), null, "2", 5));
+        assertEquals(Arrays.asList("3", "4", "5", "6", "7"), ids(secondPage));
+        assertEquals(8, meterRegistry.get("pipeline.query.rows").tag("folder", "asset").counter().count());
+    }
+
+    @Test
+    void testQueryFiltersByTypedValues() throws Exception {
+        writeOutput("Json_filtered", "asset", OutputFormat.NDJSON_GZIP);
+
+        List<JsonNode> rows = run(query(null, Arrays.asList(
+                new QueryService.Filter("status", "eq", "active"),
+                new QueryService.Filter("id", "ge", "4")), null, 10));
+
+        assertEquals(Arrays.asList("4", "6", "8"), ids(rows));
+        assertEquals("2025-02-28 10:00:00", rows.get(0).get("edited_date").asText());
+        assertTrue(rows.get(0).get("tags").isArray(), "Nested values stay JSON");
+        assertEquals(4, rows.get(0).get("tags").get(0).asInt());
+    }
+
+    @Test
+    void testQueryReadsParquetOutput() throws Exception {
+        writeOutput("Json_filtered", "asset", OutputFormat.PARQUET);
+
+        List<JsonNode> rows = run(query(Arrays.asList("id", "status"),
+                Collections.singletonList(QueryService.Filter.parse("name:like:asset-1%")), null, null));
+
+        assertEquals(Collections.singletonList("1"), ids(rows));
+        assertEquals("inactive", rows.get(0).get("status").asText());
+    }
+
+    @Test
+    void testQueryRejectsBadRequestsBeforeStreaming() throws Exception {
+        writeOutput("Json_filtered", "asset", OutputFormat.JSON);
+
+        assertThrows(IllegalArgumentException.class, () -> queryService.prepare(query(Arrays.asList("missing"), null, null, null)));
+        assertThrows(IllegalArgumentException.class, () -> queryService.prepare(query(null, null, "not-a-number", null)));
+        assertThrows(IllegalArgumentException.class, () -> queryService.prepare(query(null, null, null, 11)));
+        assertThrows(IllegalArgumentException.class, () -> QueryService.Filter.parse("status:contains:act"));
+        assertThrows(IllegalArgumentException.class, () -> queryService.prepare(
+                new QueryService.Query(JobService.PROCESS, "../asset", DATE, null, null, null, null, null)));
+        assertThrows(NoSuchFileException.class, () -> queryService.prepare(
+                new QueryService.Query(JobService.INITIAL_LOAD, "asset", DATE, null, null, null, null, null)));
+        // Paging needs the key the caller knows to be unique
+        assertThrows(IllegalArgumentException.class, () -> queryService.prepare(
+                new QueryService.Query(JobService.PROCESS, "asset", DATE, null, null, null, "2", null)));
+    }
+
+    @Test
+    void testQueryWithoutKeyReadsFirstRowsInFileOrder() throws Exception {
+        writeOutput("Json_filtered", "asset", OutputFormat.NDJSON);
+
+        List<JsonNode> rows = run(new QueryService.Query(JobService.PROCESS, "asset", DATE,
+                Arrays.asList("name"), null, null, null, null));
+
+        // No key is added to the projection, and the default limit applies in file order
+        assertEquals(Arrays.asList("asset-9", "asset-8", "asset-7"),
+                rows.stream().map(row -> row.get("name").asText()).toList());
+        assertEquals(Collections.singleton("name"), fieldNames(rows.get(0)));
+    }
+
+    @Test
+    void testQueryStreamsArrowBatches() throws Exception {
+        writeOutput("Json_filtered", "asset", OutputFormat.PARQUET);
+
+        // Without a limit the whole output, in batches of arrowBatchRows, with DuckDB's types
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(5, queryService.streamArrow(queryService.prepareColumnar(query(Arrays.asList("tags"),
+                Collections.singletonList(new QueryService.Filter("status", "eq", "active")), null, null)), out));
+        List<Long> ids = new ArrayList<>();
+        int batches = 0;
+        try (BufferAllocator allocator = new RootAllocator();
+             ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            assertEquals(Arrays.asList("id", "tags"), root.getSchema().getFields().stream().map(f -> f.getName()).toList());
+            assertEquals(new ArrowType.Int(64, true), root.getSchema().findField("id").getType());
+            while (reader.loadNextBatch()) {
+                batches++;
+                BigIntVector id = (BigIntVector) root.getVector("id");
+                ListVector tags = (ListVector) root.getVector("tags");
+                for (int i = 0; i < root.getRowCount(); i++) {
+                    ids.add(id.get(i));
+                    assertEquals(Arrays.asList(id.get(i), id.get(i) + 1), tags.getObject(i));
+                }
+            }
+        }
+        // File order, the output was written with descending ids
+        assertEquals(Arrays.asList(8L, 6L, 4L, 2L, 0L), ids);
+        assertEquals(2, batches);
+
+        assertThrows(IllegalStateException.class, () -> queryService.streamArrow(
+                queryService.prepare(query(null, null, null, null)), new ByteArrayOutputStream()));
+    }
+
+    private QueryService.Query query(List<String> columns, List<QueryService.Filter> filters, String after, Integer limit) {
+        return new QueryService.Query(JobService.PROCESS, "asset", DATE, columns, filters, "id", after, limit);
+    }
+
+    private List<JsonNode> run(QueryService.Query query) throws IOException, SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        queryService.stream(queryService.prepare(query), out);
+        List<JsonNode> rows = new ArrayList<>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                rows.add(mapper.readTree(line));
+            }
+        }
+        return rows;
+    }
+
+    private static List<String> ids(List<JsonNode> rows) {
+        List<String> ids = new ArrayList<>();
+        for (JsonNode row : rows) {
+            ids.add(row.get("id").asText());
+        }
+        return ids;
+    }
+
+    private static Set<String> fieldNames(JsonNode row) {
+        Set<String> names = new HashSet<>();
+        row.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+
+    /**
+     * Ten rows as the pipeline writes them, ids in descending order so the key ordering shows.
+     */
+    private void writeOutput(String dir, String folder, OutputFormat format) throws SQLException, IOException {
+        Path file = Files.createDirectories(outputDir.resolve(dir))
+                .resolve(folder + "-20250228." + format.getExtension());
+        try (Connection conn = duckDBService.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("COPY (SELECT range AS id, 'asset-' || range AS name, "
+                    + "CASE WHEN range % 2 = 0 THEN 'active' ELSE 'inactive' END AS status, "
+                    + "TIMESTAMP '2025-02-28 10:00:00' AS edited_date, [range, range + 1] AS tags "
+                    + "FROM range(9, -1, -1)) TO '" + file + "' (" + format.getCopyOptions() + ")");
+        }
+    }
+}
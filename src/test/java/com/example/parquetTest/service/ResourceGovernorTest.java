@@ -0,0 +1,108 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.DuckDBConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResourceGovernorTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @TempDir
+    Path cgroupRoot;
+
+    @Test
+    void testReadsCgroupV2Limits() throws IOException {
+        Files.writeString(cgroupRoot.resolve("memory.max"), "6442450944\n");
+        Files.writeString(cgroupRoot.resolve("cpu.max"), "250000 100000\n");
+
+        assertEquals(6 * GB, ResourceGovernor.cgroupMemoryLimit(cgroupRoot));
+        // 2.5 CPUs of quota round up to 3 threads
+        assertEquals(3, ResourceGovernor.cgroupCpuLimit(cgroupRoot, 32));
+    }
+
+    @Test
+    void testReadsCgroupV1Limits() throws IOException {
+        Files.createDirectories(cgroupRoot.resolve("memory"));
+        Files.createDirectories(cgroupRoot.resolve("cpu"));
+        Files.writeString(cgroupRoot.resolve("memory").resolve("memory.limit_in_bytes"), "4294967296\n");
+        Files.writeString(cgroupRoot.resolve("cpu").resolve("cpu.cfs_quota_us"), "400000\n");
+        Files.writeString(cgroupRoot.resolve("cpu").resolve("cpu.cfs_period_us"), "100000\n");
+
+        assertEquals(4 * GB, ResourceGovernor.cgroupMemoryLimit(cgroupRoot));
+        assertEquals(4, ResourceGovernor.cgroupCpuLimit(cgroupRoot, 32));
+    }
+
+    @Test
+    void testUnlimitedCgroupFallsBackToHost() throws IOException {
+        Files.writeString(cgroupRoot.resolve("memory.max"), "max\n");
+        Files.writeString(cgroupRoot.resolve("cpu.max"), "max 100000\n");
+
+        assertEquals(Long.MAX_VALUE, ResourceGovernor.cgroupMemoryLimit(cgroupRoot));
+        assertEquals(32, ResourceGovernor.cgroupCpuLimit(cgroupRoot, 32));
+        assertEquals(Long.MAX_VALUE, ResourceGovernor.cgroupMemoryLimit(cgroupRoot.resolve("missing")));
+    }
+
+    @Test
+    void testBudgetLeavesRoomForTheJvm() throws IOException {
+        long heap = Runtime.getRuntime().maxMemory();
+        long container = heap + 512L * 1024 * 1024 + GB;
+        Files.writeString(cgroupRoot.resolve("memory.max"), Long.toString(container));
+        Files.writeString(cgroupRoot.resolve("cpu.max"), "200000 100000");
+        DuckDBConfig config = DuckDBTestSupport.inMemoryConfig(2);
+        ReflectionTestUtils.setField(config, "threads", 0);
+
+        ResourceGovernor governor = DuckDBTestSupport.governor(config,
+                DuckDBTestSupport.resourceConfig(cgroupRoot.toString(), "512MB"));
+
+        // 80% of the 1GB left after the heap and its overhead
+        long expected = (long) (GB * 0.8);
+        assertTrue(Math.abs(governor.getMemoryLimitBytes() - expected) < 1024 * 1024);
+        assertEquals((governor.getMemoryLimitBytes() >> 20) + "MB", governor.getMemoryLimit());
+        assertEquals(Math.min(2, Runtime.getRuntime().availableProcessors()), governor.getThreads());
+        assertTrue(governor.getTempDirectory().endsWith("duckdb_spill"));
+    }
+
+    @Test
+    void testExplicitSettingsWin() {
+        DuckDBConfig config = DuckDBTestSupport.inMemoryConfig(2);
+        ReflectionTestUtils.setField(config, "memoryLimit", "1GB");
+        ReflectionTestUtils.setField(config, "threads", 5);
+        ReflectionTestUtils.setField(config, "tempDirectory", "spill_here");
+
+        ResourceGovernor governor = DuckDBTestSupport.governor(config);
+
+        assertEquals("1GB", governor.getMemoryLimit());
+        assertEquals(GB, governor.getMemoryLimitBytes());
+        assertEquals(5, governor.getThreads());
+        assertEquals("spill_here", governor.getTempDirectory());
+    }
+
+    @Test
+    void testFolderSlotsAreSharedBetweenActiveRuns() {
+        DuckDBConfig config = DuckDBTestSupport.inMemoryConfig(2);
+        ReflectionTestUtils.setField(config, "memoryLimit", "4GB");
+        ReflectionTestUtils.setField(config, "threads", 8);
+        // 4GB at 1GB per folder allows 4 folders although there are 8 threads
+        ResourceGovernor governor = DuckDBTestSupport.governor(config,
+                DuckDBTestSupport.resourceConfig("/nonexistent-cgroup", "1GB"));
+        assertEquals(4, governor.getMaxConcurrentFolders());
+
+        try (ResourceGovernor.Share first = governor.join()) {
+            assertEquals(4, first.getFolderSlots());
+            ResourceGovernor.Share second = governor.join();
+            assertEquals(2, first.getFolderSlots());
+            assertEquals(2, second.getFolderSlots());
+            second.close();
+            second.close();
+            assertEquals(4, first.getFolderSlots());
+        }
+    }
+}
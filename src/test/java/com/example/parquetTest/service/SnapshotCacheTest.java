@@ -0,0 +1,119 @@
+package com.example.parquetTest.service;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotCacheTest {
+
+    private Path downloadDir;
+
+    private SnapshotCache snapshotCache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        downloadDir = Files.createTempDirectory("snapshot_cache_test");
+        snapshotCache = DuckDBTestSupport.snapshotCache(downloadDir.toString(), "25KB");
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtils.deleteQuietly(downloadDir.toFile());
+    }
+
+    @Test
+    void testRestoreReturnsStoredOutputOfSameContentAndSettings() throws IOException {
+        File snapshot = snapshot("insights_2025-03-01.zip", 1_000, 0);
+        String key = snapshotCache.outputKey(JobService.PROCESS, snapshot, "output=json");
+        File output = file("run/Json_filtered.zip", 500);
+        File manifest = file("run/Json_filtered/manifest-20250228.txt", 20);
+        snapshotCache.store(key, output, manifest);
+
+        // The same bytes under another name and the same settings share the key
+        File copy = snapshot("insights_2025-03-02.zip", 1_000, 0);
+        assertEquals(key, snapshotCache.outputKey(JobService.PROCESS, copy, "output=json"));
+        assertNotEquals(key, snapshotCache.outputKey(JobService.PROCESS, copy, "output=parquet"));
+        assertNotEquals(key, snapshotCache.outputKey(JobService.INITIAL_LOAD, copy, "output=json"));
+
+        File restoredZip = downloadDir.resolve("restored/Json_filtered.zip").toFile();
+        File manifestDir = downloadDir.resolve("restored/Json_filtered").toFile();
+        JobContext ctx = new JobContext(LocalDate.of(2025, 3, 1));
+        assertTrue(snapshotCache.restore(key, restoredZip, manifestDir, ctx));
+
+        assertArrayEquals(Files.readAllBytes(output.toPath()), Files.readAllBytes(restoredZip.toPath()));
+        assertTrue(new File(manifestDir, manifest.getName()).isFile());
+        for (JobContext.StageProgress stage : ctx.getStages()) {
+            assertEquals("COMPLETED", stage.getStatus());
+        }
+        assertEquals(500, ctx.stage(JobContext.PACKAGE).getBytes());
+        assertFalse(snapshotCache.restore(snapshotCache.outputKey(JobService.PROCESS, copy, "output=parquet"),
+                restoredZip, manifestDir, new JobContext(LocalDate.of(2025, 3, 1))));
+    }
+
+    @Test
+    void testOutputKeyRecordsContentHashOfSnapshotWithoutDigest() throws IOException {
+        File snapshot = snapshot("insights_2025-03-01.zip", 1_000, 0);
+
+        snapshotCache.outputKey(JobService.PROCESS, snapshot, "output=json");
+
+        SnapshotCache.Meta meta = snapshotCache.readMeta(snapshot);
+        assertEquals(DownloadService.sha256(snapshot.toPath()), meta.sha256);
+        assertEquals(1_000, meta.length);
+    }
+
+    @Test
+    void testEvictDeletesLeastRecentlyUsedUnpinnedFilesOverBudget() throws IOException {
+        File oldest = snapshot("insights_2025-03-01.zip", 10_000, 1);
+        File pinned = snapshot("insights_2025-03-02.zip", 10_000, 2);
+        File newest = snapshot("insights_2025-03-03.zip", 10_000, 3);
+        oldest.setLastModified(1_000_000L);
+        pinned.setLastModified(2_000_000L);
+        newest.setLastModified(3_000_000L);
+
+        try (SnapshotCache.Pin pin = snapshotCache.pin(pinned)) {
+            // 30 KB over a 25 KB budget: the oldest unpinned one is enough
+            snapshotCache.evict();
+            assertFalse(oldest.exists());
+            assertTrue(pinned.exists());
+            assertTrue(newest.exists());
+
+            snapshot("insights_2025-03-04.zip", 10_000, 4);
+            snapshotCache.evict();
+            assertTrue(pinned.exists(), "A pinned snapshot is never evicted");
+            assertFalse(newest.exists());
+        }
+
+        snapshot("insights_2025-03-05.zip", 10_000, 5);
+        snapshotCache.evict();
+        assertFalse(pinned.exists(), "Evictable once unpinned");
+    }
+
+    private File snapshot(String name, int size, int seed) throws IOException {
+        File snapshot = file(name, size, seed);
+        snapshotCache.writeMeta(snapshot, new SnapshotCache.Meta("\"" + name + "\"", null, null, size));
+        return snapshot;
+    }
+
+    private File file(String name, int size) throws IOException {
+        return file(name, size, 0);
+    }
+
+    private File file(String name, int size, int seed) throws IOException {
+        Path path = downloadDir.resolve(name);
+        Files.createDirectories(path.getParent());
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        Files.write(path, content);
+        return path.toFile();
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.parquetTest.service;
+
+import com.example.parquetTest.config.PipelineConfig;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZipPackagerTest {
+
+    private Path workDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        workDir = Files.createTempDirectory("zip_packager_test");
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtils.deleteQuietly(workDir.toFile());
+    }
+
+    @Test
+    void testFinishWritesReadableArchive() throws Exception {
+        File zipFile = workDir.resolve("out.zip").toFile();
+        JobContext.StageProgress progress = new JobContext.StageProgress(JobContext.PACKAGE);
+        Path scratch = Files.createDirectory(workDir.resolve("scratch"));
+
+        long totalBytes = 0;
+        try (ZipPackager.Archive archive = newArchive(zipFile, progress, scratch)) {
+            for (int i = 0; i < 5; i++) {
+                File file = writeFile("folder" + i + ".json", ("[{\"id\":" + i + "}]").repeat(1000));
+                totalBytes += file.length();
+                archive.add(file);
+            }
+            archive.finish();
+        }
+
+        assertTrue(zipFile.exists());
+        assertFalse(new File(zipFile.getPath() + ".part").exists());
+        assertFalse(Files.exists(scratch), "Scatter files should be removed");
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertEquals(5, zip.size());
+            ZipEntry entry = zip.getEntry("folder3.json");
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            try (InputStream in = zip.getInputStream(entry)) {
+                assertEquals("[{\"id\":3}]".repeat(1000), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals("COMPLETED", progress.getStatus());
+        assertEquals(totalBytes, progress.getTotalBytes());
+        assertEquals(totalBytes, progress.getBytes());
+    }
+
+    @Test
+    void testDuplicateEntryIsRejected() throws Exception {
+        File zipFile = workDir.resolve("dup.zip").toFile();
+        File file = writeFile("asset.json", "[]");
+        try (ZipPackager.Archive archive = newArchive(zipFile, new JobContext.StageProgress(JobContext.PACKAGE),
+                Files.createDirectory(workDir.resolve("scratch")))) {
+            archive.add(file);
+            assertThrows(IllegalArgumentException.class, () -> archive.add(file));
+        }
+    }
+
+    @Test
+    void testCloseWithoutFinishPublishesNothing() throws Exception {
+        File zipFile = workDir.resolve("abandoned.zip").toFile();
+        Path scratch = Files.createDirectory(workDir.resolve("scratch"));
+        try (ZipPackager.Archive archive = newArchive(zipFile, new JobContext.StageProgress(JobContext.PACKAGE), scratch)) {
+            archive.add(writeFile("asset.json", "[]"));
+        }
+
+        assertFalse(zipFile.exists());
+        assertFalse(Files.exists(scratch));
+    }
+
+    private ZipPackager.Archive newArchive(File zipFile, JobContext.StageProgress progress, Path scratch) {
+        return new ZipPackager.Archive(zipFile, progress, PipelineConfig.newFixedPool("test-zip-", 2), 6, scratch);
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        Path file = workDir.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file.toFile();
+    }
+}